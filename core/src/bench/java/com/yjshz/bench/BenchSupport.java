@@ -0,0 +1,109 @@
+package com.yjshz.bench;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONConfig;
+import cn.hutool.json.JSONUtil;
+import com.yjshz.entity.Voucher;
+import com.yjshz.service.IVoucherService;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 压测公共工具：延迟采样、分位数统计、结果落盘（target/bench/*.json，方便多次结果对比）
+ */
+public final class BenchSupport {
+
+    private BenchSupport() {
+    }
+
+    /**
+     * 固定容量的无锁延迟采样器（纳秒）
+     */
+    public static final class LatencyRecorder {
+        private final long[] samples;
+        private final AtomicInteger size = new AtomicInteger();
+
+        public LatencyRecorder(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        public void record(long nanos) {
+            int i = size.getAndIncrement();
+            if (i < samples.length) {
+                samples[i] = nanos;
+            }
+        }
+
+        public int count() {
+            return Math.min(size.get(), samples.length);
+        }
+
+        /**
+         * 输出 p50/p99/p999/max（毫秒）
+         */
+        public Map<String, Object> summary() {
+            int n = count();
+            long[] sorted = Arrays.copyOf(samples, n);
+            Arrays.sort(sorted);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("samples", n);
+            summary.put("p50Ms", percentileMs(sorted, 0.50));
+            summary.put("p99Ms", percentileMs(sorted, 0.99));
+            summary.put("p999Ms", percentileMs(sorted, 0.999));
+            summary.put("maxMs", n == 0 ? 0 : round(sorted[n - 1] / 1e6));
+            return summary;
+        }
+
+        private static double percentileMs(long[] sorted, double p) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return round(sorted[Math.max(index, 0)] / 1e6);
+        }
+    }
+
+    public static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    public static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : round(count * 1e9 / nanos);
+    }
+
+    /**
+     * 新建一张下架状态的压测秒杀券（不会出现在店铺列表里）
+     */
+    public static Long createBenchVoucher(IVoucherService voucherService, int stock, Integer buckets) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("bench-" + System.currentTimeMillis());
+        voucher.setPayValue(1L);
+        voucher.setActualValue(1L);
+        voucher.setType(1);
+        voucher.setStatus(2);
+        voucher.setStock(stock);
+        voucher.setStockBuckets(buckets);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 结果写入 target/bench/{name}-{time}.json 并打印
+     */
+    public static File writeReport(String name, Map<String, Object> report) {
+        String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        File file = new File("target/bench/" + name + "-" + time + ".json");
+        String json = JSONUtil.toJsonPrettyStr(JSONUtil.parseObj(report, JSONConfig.create().setOrder(true)));
+        FileUtil.writeUtf8String(json, file);
+        System.out.println(json);
+        System.out.println("结果已写入: " + file.getAbsolutePath());
+        return file;
+    }
+}
@@ -0,0 +1,201 @@
+package com.yjshz.bench;
+
+import com.yjshz.YJSHZApplication;
+import com.yjshz.utils.SeckillStockManager;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.*;
+
+/**
+ * 已购用户记录方式的内存对比：同样 N 个购买用户，分别写成
+ * - set：旧的 seckill:order:{id}，十进制 userId 字符串集合
+ * - hash：seckill:buyers:{id}，userId -> 已购件数
+ * - bitmap：seckill:buyers:bm:{id}:{userId >> 16}，按 userId 分段的位图（每段最多 8KB）
+ * 用 MEMORY USAGE 统计每种方式占用的字节数（分段位图累加所有段），同时给出按编码估算的字节数和密度检查（bitmapDense）的选择
+ * 场景：dense = 从 1 开始连续的 userId（tb_user 自增）；offset = 从很大的起点开始连续；
+ *       sparse = 在 2^28 范围内随机分布；scattered = 在 2^32 范围内随机分布（平均每段不到 128 人，密度检查选 hash）
+ * 密度检查选 hash 的场景不写位图（动辄几百 MB），只给估算值
+ *
+ * 运行：mvn -Pbench compile exec:java -Dexec.mainClass=com.yjshz.bench.BuyerSetMemoryReport -Dbench.buyers=1000000
+ * 没有 Redis 时加 -Dbench.estimateOnly=true 只输出估算值
+ */
+public class BuyerSetMemoryReport {
+
+    private static final String PREFIX = "bench:buyers:";
+    private static final int WRITE_BATCH = 10000;
+    // 与 application.yaml 的 seckill.stock.bitmap-min-buyers-per-chunk 默认值一致
+    private static final int MIN_BUYERS_PER_CHUNK = 128;
+    // hashtable 编码的 set 每个成员大约占的字节数（dictEntry + 十进制 userId 的 sds + 桶指针）
+    private static final int SET_BYTES_PER_BUYER = 48;
+
+    public static void main(String[] args) throws Exception {
+        int buyers = Integer.getInteger("bench.buyers", 1_000_000);
+
+        Map<String, long[]> scenarios = new LinkedHashMap<>();
+        scenarios.put("dense", dense(1, buyers));
+        scenarios.put("offset", dense(9_100_000_000L, buyers));
+        scenarios.put("sparse", sparse(buyers, 1L << 28));
+        scenarios.put("scattered", sparse(buyers, 1L << 32));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("buyers", buyers);
+        report.put("chunkBits", 1 << SeckillStockManager.BITMAP_CHUNK_SHIFT);
+        report.put("minBuyersPerChunk", MIN_BUYERS_PER_CHUNK);
+        Map<String, Object> results = new LinkedHashMap<>();
+        if (Boolean.getBoolean("bench.estimateOnly")) {
+            for (Map.Entry<String, long[]> scenario : scenarios.entrySet()) {
+                results.put(scenario.getKey(), estimate(scenario.getValue()));
+            }
+            report.put("scenarios", results);
+            BenchSupport.writeReport("buyer-set-memory-estimate", report);
+            return;
+        }
+
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(YJSHZApplication.class)
+                .profiles("bench")
+                .web(WebApplicationType.NONE)
+                .run(args);
+        try {
+            StringRedisTemplate redis = ctx.getBean(StringRedisTemplate.class);
+            for (Map.Entry<String, long[]> scenario : scenarios.entrySet()) {
+                Map<String, Object> result = measure(redis, scenario.getValue());
+                result.put("estimate", estimate(scenario.getValue()));
+                results.put(scenario.getKey(), result);
+            }
+            report.put("scenarios", results);
+            BenchSupport.writeReport("buyer-set-memory", report);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * 按编码估算：set / hash 按每个用户的固定开销，位图按出现过的段数 × 8KB（SETBIT 把段补齐到最高偏移，按满段计）
+     */
+    private static Map<String, Object> estimate(long[] userIds) {
+        int chunks = chunks(userIds).size();
+        long setBytes = (long) userIds.length * SET_BYTES_PER_BUYER;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("set", usage(setBytes, userIds.length, setBytes));
+        result.put("hash", usage((long) userIds.length * SeckillStockManager.HASH_BYTES_PER_BUYER, userIds.length, setBytes));
+        Map<String, Object> bitmap = usage((long) chunks * SeckillStockManager.BITMAP_CHUNK_BYTES, userIds.length, setBytes);
+        bitmap.put("chunks", chunks);
+        bitmap.put("buyersPerChunk", BenchSupport.round((double) userIds.length / chunks));
+        result.put("bitmap", bitmap);
+        result.put("choice", bitmapDense(userIds.length, chunks) ? "bitmap" : "hash");
+        return result;
+    }
+
+    private static boolean bitmapDense(int buyers, int chunks) {
+        return buyers >= (long) chunks * MIN_BUYERS_PER_CHUNK;
+    }
+
+    private static Set<Long> chunks(long[] userIds) {
+        Set<Long> chunks = new HashSet<>();
+        for (long userId : userIds) {
+            chunks.add(SeckillStockManager.bitmapChunk(userId));
+        }
+        return chunks;
+    }
+
+    private static Map<String, Object> measure(StringRedisTemplate redis, long[] userIds) {
+        String setKey = PREFIX + "set";
+        String hashKey = PREFIX + "hash";
+        String bitmapPrefix = PREFIX + "bm:";
+        Set<String> chunkKeys = new HashSet<>();
+        for (long chunk : chunks(userIds)) {
+            chunkKeys.add(bitmapPrefix + chunk);
+        }
+        // 密度检查选 hash 的场景不写位图
+        boolean writeBitmap = bitmapDense(userIds.length, chunkKeys.size());
+
+        for (int from = 0; from < userIds.length; from += WRITE_BATCH) {
+            int to = Math.min(from + WRITE_BATCH, userIds.length);
+            long[] batch = Arrays.copyOfRange(userIds, from, to);
+            redis.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    for (long userId : batch) {
+                        String id = String.valueOf(userId);
+                        ops.opsForSet().add(setKey, id);
+                        ops.opsForHash().put(hashKey, id, "1");
+                        if (writeBitmap) {
+                            ops.opsForValue().setBit(bitmapPrefix + SeckillStockManager.bitmapChunk(userId),
+                                    SeckillStockManager.bitmapOffset(userId), true);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        long setBytes = memoryUsage(redis, setKey);
+        long hashBytes = memoryUsage(redis, hashKey);
+        long bitmapBytes = 0;
+        if (writeBitmap) {
+            for (String key : chunkKeys) {
+                bitmapBytes += memoryUsage(redis, key);
+            }
+        }
+
+        List<String> keys = new ArrayList<>(chunkKeys);
+        keys.add(setKey);
+        keys.add(hashKey);
+        redis.delete(keys);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("set", usage(setBytes, userIds.length, setBytes));
+        result.put("hash", usage(hashBytes, userIds.length, setBytes));
+        Map<String, Object> bitmap = usage(bitmapBytes, userIds.length, setBytes);
+        bitmap.put("chunks", chunkKeys.size());
+        bitmap.put("measured", writeBitmap);
+        result.put("bitmap", bitmap);
+        return result;
+    }
+
+    private static Map<String, Object> usage(long bytes, int buyers, long baseline) {
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("bytes", bytes);
+        usage.put("mb", BenchSupport.round(bytes / 1024.0 / 1024.0));
+        usage.put("bytesPerBuyer", BenchSupport.round((double) bytes / buyers));
+        usage.put("vsSet", baseline == 0 ? 0 : BenchSupport.round((double) bytes / baseline));
+        return usage;
+    }
+
+    private static long memoryUsage(StringRedisTemplate redis, String key) {
+        Object bytes = redis.execute((RedisCallback<Object>) connection -> connection.execute("MEMORY",
+                "USAGE".getBytes(), key.getBytes(), "SAMPLES".getBytes(), "0".getBytes()));
+        return bytes instanceof Number ? ((Number) bytes).longValue() : 0;
+    }
+
+    private static long[] dense(long start, int n) {
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = start + i;
+        }
+        return ids;
+    }
+
+    private static long[] sparse(int n, long range) {
+        Random random = new Random(42);
+        Set<Long> ids = new HashSet<>(n * 2);
+        while (ids.size() < n) {
+            ids.add(1 + (long) (random.nextDouble() * range));
+        }
+        long[] result = new long[n];
+        int i = 0;
+        for (Long id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+}
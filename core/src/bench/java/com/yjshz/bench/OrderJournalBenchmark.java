@@ -0,0 +1,115 @@
+package com.yjshz.bench;
+
+import cn.hutool.core.io.FileUtil;
+import com.yjshz.utils.OrderJournal;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地订单日志的开销：多个请求线程并发追加，对比
+ * - async：只进队列不等落盘（sync-wait = 0）
+ * - sync：等组提交 fsync 完成（sync-wait > 0 的下单路径）
+ * 每种模式按不同的组提交批大小各跑一次，统计吞吐、单次追加延迟、每次 fsync 平均合并的记录数
+ * 最后校验恢复：重新打开目录读出的记录数 = 写入数
+ * 不需要 Redis / 数据库，日志写到 target/bench/journal（-Dbench.dir 可改到要评估的磁盘上）
+ *
+ * 运行：mvn -Pbench compile exec:java -Dexec.mainClass=com.yjshz.bench.OrderJournalBenchmark
+ *      -Dbench.records=200000 -Dbench.threads=64 -Dbench.batches=1,64,1024
+ */
+public class OrderJournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = Integer.getInteger("bench.records", 200000);
+        int threads = Integer.getInteger("bench.threads", 64);
+        String dir = System.getProperty("bench.dir", "target/bench/journal");
+        List<Integer> batches = new ArrayList<>();
+        for (String b : System.getProperty("bench.batches", "1,64,1024").split(",")) {
+            batches.add(Integer.parseInt(b.trim()));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("records", records);
+        config.put("threads", threads);
+        config.put("dir", new File(dir).getAbsolutePath());
+        report.put("config", config);
+
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (boolean sync : new boolean[]{false, true}) {
+            for (int batchSize : batches) {
+                File runDir = new File(dir, (sync ? "sync-" : "async-") + batchSize);
+                FileUtil.del(runDir);
+                Map<String, Object> run = runOnce(runDir, sync, batchSize, records, threads);
+                run.put("mode", sync ? "sync" : "async");
+                run.put("batchSize", batchSize);
+                runs.add(run);
+                FileUtil.del(runDir);
+            }
+        }
+        report.put("runs", runs);
+        BenchSupport.writeReport("order-journal", report);
+    }
+
+    private static Map<String, Object> runOnce(File dir, boolean sync, int batchSize, int records, int threads)
+            throws Exception {
+        OrderJournal journal = new OrderJournal(dir, 64L * 1024 * 1024, 65536, batchSize, TimeUnit.HOURS.toMillis(1));
+        BenchSupport.LatencyRecorder latency = new BenchSupport.LatencyRecorder(records);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong failed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < records) {
+                        long begin = System.nanoTime();
+                        boolean ok;
+                        if (sync) {
+                            ok = journal.appendAndWait(i + 1, 9_300_000_000L + i, 1L, 1, OrderJournal.ACCEPTED, 1000);
+                        } else {
+                            // 队列满时稍等再试，保证所有记录都写进去，便于校验恢复
+                            while (!(ok = journal.append(i + 1, 9_300_000_000L + i, 1L, 1, OrderJournal.ACCEPTED).getNow(true))) {
+                                Thread.yield();
+                            }
+                        }
+                        latency.record(System.nanoTime() - begin);
+                        if (!ok) failed.incrementAndGet();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        pool.shutdown();
+        // async 模式等写线程把队列写完再计时
+        journal.close();
+        long elapsed = System.nanoTime() - start;
+
+        // 重新打开同一目录，上次的段即为待恢复的段
+        OrderJournal reopened = new OrderJournal(dir, 64L * 1024 * 1024, 1024, 1, TimeUnit.HOURS.toMillis(1));
+        int recovered = reopened.recover().size();
+        reopened.close();
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("elapsedMs", BenchSupport.round(elapsed / 1e6));
+        run.put("recordsPerSecond", BenchSupport.perSecond(records, elapsed));
+        run.put("fsyncs", journal.forces());
+        run.put("recordsPerFsync", journal.forces() == 0 ? 0 : BenchSupport.round((double) journal.appended() / journal.forces()));
+        run.put("failed", failed.get());
+        run.put("recovered", recovered);
+        run.put("consistent", recovered == records - failed.get());
+        run.put("appendLatency", latency.summary());
+        return run;
+    }
+}
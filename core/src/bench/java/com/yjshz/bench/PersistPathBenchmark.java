@@ -0,0 +1,128 @@
+package com.yjshz.bench;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yjshz.YJSHZApplication;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.entity.SeckillVoucher;
+import com.yjshz.entity.VoucherOrder;
+import com.yjshz.mapper.VoucherOrderMapper;
+import com.yjshz.service.ISeckillVoucherService;
+import com.yjshz.service.IVoucherOrderService;
+import com.yjshz.service.IVoucherService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 落库路径对比：LOCKED（Redisson锁 + count校验） vs IDEMPOTENT（uk_user_voucher_seq + INSERT IGNORE）
+ * 直接并发调用 createVoucherOrder，模拟消费端高速落库；每轮另外重投 10% 的订单，检验重复消息的处理
+ *
+ * 依赖 application.yaml 里的 MySQL（需已执行 uk_user_voucher_seq 变更）和 Redis
+ * 运行：mvn -Pbench compile exec:java -Dexec.mainClass=com.yjshz.bench.PersistPathBenchmark -Dbench.orders=20000 -Dbench.threads=32
+ */
+public class PersistPathBenchmark {
+
+    // 压测用户id从一个不会和真实用户冲突的区间开始
+    private static final long USER_ID_BASE = 9_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int orders = Integer.getInteger("bench.orders", 20000);
+        int threads = Integer.getInteger("bench.threads", 32);
+
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(YJSHZApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args);
+        try {
+            SeckillProperties properties = ctx.getBean(SeckillProperties.class);
+            IVoucherService voucherService = ctx.getBean(IVoucherService.class);
+            ISeckillVoucherService seckillVoucherService = ctx.getBean(ISeckillVoucherService.class);
+            IVoucherOrderService voucherOrderService = ctx.getBean(IVoucherOrderService.class);
+            VoucherOrderMapper voucherOrderMapper = ctx.getBean(VoucherOrderMapper.class);
+            SeckillProperties.PersistMode original = properties.getConsumer().getPersistMode();
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("orders", orders);
+            report.put("threads", threads);
+            List<Map<String, Object>> runs = new ArrayList<>();
+            for (SeckillProperties.PersistMode mode : SeckillProperties.PersistMode.values()) {
+                properties.getConsumer().setPersistMode(mode);
+                Long voucherId = BenchSupport.createBenchVoucher(voucherService, orders, null);
+                Map<String, Object> run = runOnce(voucherOrderService, voucherId, orders, threads);
+                run.put("mode", mode.name());
+
+                // 校验：订单数 = 库存扣减数，且没有重复
+                SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+                long persisted = voucherOrderMapper.selectCount(
+                        new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+                run.put("persisted", persisted);
+                run.put("stockLeft", seckillVoucher.getStock());
+                run.put("consistent", persisted + seckillVoucher.getStock() == orders);
+                runs.add(run);
+            }
+            properties.getConsumer().setPersistMode(original);
+            report.put("runs", runs);
+            BenchSupport.writeReport("persist-path", report);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    private static Map<String, Object> runOnce(IVoucherOrderService service, Long voucherId, int orders, int threads)
+            throws InterruptedException {
+        // 10% 的订单再投一次，模拟消费端重投
+        int redelivered = orders / 10;
+        int total = orders + redelivered;
+        BenchSupport.LatencyRecorder latency = new BenchSupport.LatencyRecorder(total);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < total) {
+                        int n = i < orders ? i : i - orders;
+                        VoucherOrder order = new VoucherOrder()
+                                .setId(voucherId * 10_000_000L + n)
+                                .setUserId(USER_ID_BASE + n)
+                                .setVoucherId(voucherId);
+                        long begin = System.nanoTime();
+                        try {
+                            service.createVoucherOrder(order);
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                        latency.record(System.nanoTime() - begin);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("calls", total);
+        run.put("redelivered", redelivered);
+        run.put("failures", failures.get());
+        run.put("elapsedMs", BenchSupport.round(elapsed / 1e6));
+        run.put("callsPerSecond", BenchSupport.perSecond(total, elapsed));
+        run.put("latency", latency.summary());
+        return run;
+    }
+}
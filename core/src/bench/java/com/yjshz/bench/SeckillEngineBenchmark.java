@@ -0,0 +1,189 @@
+package com.yjshz.bench;
+
+import com.yjshz.YJSHZApplication;
+import com.yjshz.service.IVoucherService;
+import com.yjshz.utils.RedisIDWorker;
+import com.yjshz.utils.SeckillBatcher;
+import com.yjshz.utils.SeckillEngine;
+import com.yjshz.utils.SeckillStockManager;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+
+/**
+ * 秒杀判定路径对比：每个请求一次 seckill.lua vs 微批执行 seckill.lua vs 单线程内存引擎 + 批量写日志
+ * 每条路径各用一张新券，同样的用户数 / 线程数 / 库存，每个用户请求 bench.attempts 次
+ * 校验：受理数 = min(库存, 用户数)、Redis 剩余库存守恒
+ *
+ * 运行：mvn -Pbench compile exec:java -Dexec.mainClass=com.yjshz.bench.SeckillEngineBenchmark
+ *      -Dbench.users=50000 -Dbench.stock=20000 -Dbench.threads=64
+ */
+public class SeckillEngineBenchmark {
+
+    private static final long USER_ID_BASE = 9_200_000_000L;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    private interface Path {
+        int execute(Long voucherId, Long userId, long orderId);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("bench.users", 50000);
+        int stock = Integer.getInteger("bench.stock", 20000);
+        int threads = Integer.getInteger("bench.threads", 64);
+        int attempts = Integer.getInteger("bench.attempts", 2);
+        Integer buckets = Integer.getInteger("bench.buckets");
+
+        // 开启内存引擎和微批；Lua / 微批路径直接调用，不经过引擎
+        System.setProperty("seckill.engine.mode", "memory");
+        System.setProperty("seckill.micro-batch.enabled", "true");
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(YJSHZApplication.class)
+                .profiles("bench")
+                .web(WebApplicationType.NONE)
+                .run(args);
+        try {
+            StringRedisTemplate redis = ctx.getBean(StringRedisTemplate.class);
+            IVoucherService voucherService = ctx.getBean(IVoucherService.class);
+            RedisIDWorker idWorker = ctx.getBean(RedisIDWorker.class);
+            SeckillEngine engine = ctx.getBean(SeckillEngine.class);
+            SeckillBatcher batcher = ctx.getBean(SeckillBatcher.class);
+            SeckillStockManager stockManager = ctx.getBean(SeckillStockManager.class);
+
+            // 与 VoucherOrderServiceImpl 相同：KEYS / ARGV 由 SeckillStockManager 生成，分桶时逐桶调用
+            Path lua = (voucherId, userId, orderId) -> bucketed(stockManager, voucherId, userId, orderId, (keys, argv) -> {
+                Long r = redis.execute(SECKILL_SCRIPT, keys, argv.toArray());
+                return r == null ? SeckillEngine.BUSY : r.intValue();
+            });
+            Path microBatch = (voucherId, userId, orderId) -> bucketed(stockManager, voucherId, userId, orderId, batcher::execute);
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("users", users);
+            config.put("stock", stock);
+            config.put("threads", threads);
+            config.put("attempts", attempts);
+            config.put("buckets", buckets);
+            report.put("config", config);
+
+            List<Map<String, Object>> runs = new ArrayList<>();
+            Map<String, Path> paths = new LinkedHashMap<>();
+            paths.put("lua", lua);
+            paths.put("micro-batch", microBatch);
+            paths.put("engine", engine::execute);
+            for (Map.Entry<String, Path> entry : paths.entrySet()) {
+                String name = entry.getKey();
+                Long voucherId = BenchSupport.createBenchVoucher(voucherService, stock, buckets);
+                Path path = entry.getValue();
+                Map<String, Object> run = runOnce(path, idWorker, voucherId, users, attempts, threads);
+                run.put("path", name);
+
+                long redisStock = 0;
+                int k = stockManager.buckets(voucherId);
+                for (String value : redis.opsForValue().multiGet(stockManager.stockKeys(voucherId, k))) {
+                    redisStock += value == null ? 0 : Long.parseLong(value);
+                }
+                long accepted = ((Number) ((Map<?, ?>) run.get("outcomes")).get("accepted")).longValue();
+                run.put("redisStockLeft", redisStock);
+                run.put("consistent", accepted == Math.min(stock, users) && redisStock + accepted == stock);
+                runs.add(run);
+            }
+            report.put("runs", runs);
+            BenchSupport.writeReport("seckill-engine", report);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    private static int bucketed(SeckillStockManager stockManager, Long voucherId, Long userId, long orderId,
+                                BiFunction<List<String>, List<String>, Integer> script) {
+        SeckillStockManager.Meta meta = stockManager.meta(voucherId);
+        List<String> argv = stockManager.seckillArgs(voucherId, userId, orderId, meta, false);
+        int code = 1;
+        for (int bucket : meta.bucketOrder(userId)) {
+            code = script.apply(stockManager.seckillKeys(voucherId, userId, orderId, meta, bucket, null), argv);
+            if (code != 1) {
+                return code;
+            }
+            meta.markEmpty(bucket);
+        }
+        return code;
+    }
+
+    private static Map<String, Object> runOnce(Path path, RedisIDWorker idWorker, Long voucherId,
+                                               int users, int attempts, int threads) throws InterruptedException {
+        int total = users * attempts;
+        // 打乱顺序，让同一个用户的多次请求分散开
+        List<Integer> schedule = new ArrayList<>(total);
+        for (int a = 0; a < attempts; a++) {
+            for (int u = 0; u < users; u++) {
+                schedule.add(u);
+            }
+        }
+        Collections.shuffle(schedule, new Random(42));
+
+        // 按返回码计数：0-5 与 seckill.lua 相同，6 记繁忙 / 异常
+        AtomicLongArray codes = new AtomicLongArray(7);
+        BenchSupport.LatencyRecorder latency = new BenchSupport.LatencyRecorder(total);
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < total) {
+                        long userId = USER_ID_BASE + schedule.get(i);
+                        long begin = System.nanoTime();
+                        int code;
+                        try {
+                            code = SeckillStockManager.resultCode(path.execute(voucherId, userId, idWorker.nextId("order")));
+                        } catch (Exception e) {
+                            code = SeckillEngine.BUSY;
+                        }
+                        latency.record(System.nanoTime() - begin);
+                        codes.incrementAndGet(code >= 0 && code <= 5 ? code : 6);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        Map<String, Object> outcomes = new LinkedHashMap<>();
+        outcomes.put("accepted", codes.get(0));
+        outcomes.put("soldOut", codes.get(1));
+        outcomes.put("duplicate", codes.get(2));
+        outcomes.put("notOwner", codes.get(5));
+        outcomes.put("busy", codes.get(6));
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("requests", total);
+        run.put("elapsedMs", BenchSupport.round(elapsed / 1e6));
+        run.put("requestsPerSecond", BenchSupport.perSecond(total, elapsed));
+        run.put("outcomes", outcomes);
+        run.put("latency", latency.summary());
+        return run;
+    }
+}
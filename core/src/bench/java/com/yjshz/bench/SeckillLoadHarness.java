@@ -0,0 +1,278 @@
+package com.yjshz.bench;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yjshz.YJSHZApplication;
+import com.yjshz.entity.SeckillVoucher;
+import com.yjshz.entity.VoucherOrder;
+import com.yjshz.mapper.VoucherOrderMapper;
+import com.yjshz.service.ISeckillVoucherService;
+import com.yjshz.service.IVoucherService;
+import com.yjshz.utils.RedisConstants;
+import com.yjshz.utils.SeckillStockManager;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 秒杀端到端压测：启动完整应用（内嵌 H2 + 本地 Redis），模拟大量用户通过 HTTP 抢同一张券
+ * - 开环发压：按固定速率排定每个请求的发出时间，延迟从"计划发出时间"算起，避免协调遗漏（coordinated omission）
+ * - 每个用户请求 bench.attempts 次，第二次起应被一人一单拦截
+ * - 发压结束后轮询数据库，统计订单全部落库的耗时（drain time）
+ * - 校验：超卖、重复订单、受理但未落库、数据库库存守恒
+ *
+ * 运行：mvn -Pbench compile exec:java -Dexec.mainClass=com.yjshz.bench.SeckillLoadHarness
+ *      -Dbench.users=5000 -Dbench.stock=1000 -Dbench.rate=2000 -Dbench.concurrency=256
+ * Redis 地址/密码可用 -Dspring.redis.host / -Dspring.redis.password 覆盖
+ */
+public class SeckillLoadHarness {
+
+    // 压测用户id从一个不会和真实用户冲突的区间开始
+    private static final long USER_ID_BASE = 9_100_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("bench.users", 5000);
+        int stock = Integer.getInteger("bench.stock", 1000);
+        int rate = Integer.getInteger("bench.rate", 2000);
+        int concurrency = Integer.getInteger("bench.concurrency", 256);
+        int attempts = Integer.getInteger("bench.attempts", 2);
+        Integer buckets = Integer.getInteger("bench.buckets");
+        int drainTimeoutSeconds = Integer.getInteger("bench.drainTimeoutSeconds", 60);
+
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(YJSHZApplication.class)
+                .profiles("bench")
+                .run(args);
+        try {
+            StringRedisTemplate redis = ctx.getBean(StringRedisTemplate.class);
+            IVoucherService voucherService = ctx.getBean(IVoucherService.class);
+            ISeckillVoucherService seckillVoucherService = ctx.getBean(ISeckillVoucherService.class);
+            VoucherOrderMapper voucherOrderMapper = ctx.getBean(VoucherOrderMapper.class);
+            SeckillStockManager stockManager = ctx.getBean(SeckillStockManager.class);
+            int port = Integer.parseInt(ctx.getEnvironment().getProperty("local.server.port"));
+
+            Long voucherId = BenchSupport.createBenchVoucher(voucherService, stock, buckets);
+            List<String> tokens = login(redis, users);
+
+            // 发压
+            int total = users * attempts;
+            Outcomes outcomes = new Outcomes();
+            BenchSupport.LatencyRecorder latency = new BenchSupport.LatencyRecorder(total);
+            long elapsed = drive(port, voucherId, tokens, attempts, rate, concurrency, outcomes, latency);
+            long loadEnd = System.nanoTime();
+
+            // 等待落库
+            long accepted = outcomes.accepted.get();
+            long persisted = 0;
+            long deadline = loadEnd + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+            while (System.nanoTime() < deadline) {
+                persisted = voucherOrderMapper.selectCount(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+                if (persisted >= accepted) break;
+                Thread.sleep(50);
+            }
+            long drainNanos = System.nanoTime() - loadEnd;
+
+            // 校验
+            long distinctUsers = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                    .select("DISTINCT user_id").eq("voucher_id", voucherId)).size();
+            SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+            long redisStock = 0;
+            int k = stockManager.buckets(voucherId);
+            for (String value : redis.opsForValue().multiGet(stockManager.stockKeys(voucherId, k))) {
+                redisStock += value == null ? 0 : Long.parseLong(value);
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("users", users);
+            config.put("stock", stock);
+            config.put("targetRate", rate);
+            config.put("concurrency", concurrency);
+            config.put("attempts", attempts);
+            config.put("buckets", k);
+            report.put("config", config);
+
+            Map<String, Object> load = new LinkedHashMap<>();
+            load.put("requests", total);
+            load.put("elapsedMs", BenchSupport.round(elapsed / 1e6));
+            load.put("requestsPerSecond", BenchSupport.perSecond(total, elapsed));
+            load.put("acceptTps", BenchSupport.perSecond(accepted, elapsed));
+            load.put("outcomes", outcomes.toMap());
+            load.put("latency", latency.summary());
+            report.put("load", load);
+
+            Map<String, Object> drain = new LinkedHashMap<>();
+            drain.put("accepted", accepted);
+            drain.put("persisted", persisted);
+            drain.put("drainMs", BenchSupport.round(drainNanos / 1e6));
+            drain.put("drained", persisted >= accepted);
+            report.put("drain", drain);
+
+            Map<String, Object> checks = new LinkedHashMap<>();
+            checks.put("oversold", persisted > stock);
+            checks.put("duplicateOrders", persisted - distinctUsers);
+            checks.put("acceptedNotPersisted", Math.max(accepted - persisted, 0));
+            checks.put("dbStockLeft", seckillVoucher.getStock());
+            checks.put("dbStockConsistent", seckillVoucher.getStock() + persisted == stock);
+            checks.put("redisStockLeft", redisStock);
+            checks.put("redisStockConsistent", redisStock + accepted == stock);
+            report.put("checks", checks);
+
+            BenchSupport.writeReport("seckill-e2e", report);
+            cleanup(redis, tokens);
+        } finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * 开环发压：第 i 个请求计划在 start + i/rate 发出，并发数受 concurrency 限制
+     */
+    private static long drive(int port, Long voucherId, List<String> tokens, int attempts, int rate, int concurrency,
+                              Outcomes outcomes, BenchSupport.LatencyRecorder latency) throws InterruptedException {
+        ConnectionProvider provider = ConnectionProvider.builder("bench")
+                .maxConnections(concurrency)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        WebClient client = WebClient.builder()
+                .baseUrl("http://127.0.0.1:" + port)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider)))
+                .build();
+
+        // 打乱顺序，让同一个用户的多次请求分散开
+        List<String> schedule = new ArrayList<>(tokens.size() * attempts);
+        for (int a = 0; a < attempts; a++) {
+            schedule.addAll(tokens);
+        }
+        Collections.shuffle(schedule, new Random(42));
+
+        Semaphore inflight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(schedule.size());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(rate, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < schedule.size(); i++) {
+            long planned = start + i * intervalNanos;
+            long wait = planned - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            inflight.acquire();
+            client.post()
+                    .uri("/voucher-order/seckill/{id}", voucherId)
+                    .header("authorization", schedule.get(i))
+                    .exchangeToMono(response -> response.bodyToMono(String.class)
+                            .defaultIfEmpty("")
+                            .map(body -> {
+                                outcomes.record(response.rawStatusCode(), body);
+                                return body;
+                            }))
+                    .timeout(Duration.ofSeconds(30))
+                    .doOnError(e -> outcomes.errors.incrementAndGet())
+                    .doFinally(signal -> {
+                        latency.record(System.nanoTime() - planned);
+                        inflight.release();
+                        done.countDown();
+                    })
+                    .subscribe(body -> { }, e -> { });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        provider.dispose();
+        return elapsed;
+    }
+
+    /**
+     * 直接往 Redis 写登录态，跳过短信登录
+     */
+    private static List<String> login(StringRedisTemplate redis, int users) {
+        List<String> tokens = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            tokens.add("bench-" + UUID.randomUUID());
+        }
+        redis.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int i = 0; i < tokens.size(); i++) {
+                    String key = RedisConstants.LOGIN_USER_KEY + tokens.get(i);
+                    Map<String, String> user = new HashMap<>(4);
+                    user.put("id", String.valueOf(USER_ID_BASE + i));
+                    user.put("nickName", "bench_" + i);
+                    ops.opsForHash().putAll(key, user);
+                    ops.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+                }
+                return null;
+            }
+        });
+        return tokens;
+    }
+
+    private static void cleanup(StringRedisTemplate redis, List<String> tokens) {
+        List<String> keys = new ArrayList<>(tokens.size());
+        tokens.forEach(token -> keys.add(RedisConstants.LOGIN_USER_KEY + token));
+        redis.delete(keys);
+    }
+
+    /**
+     * 按返回结果分类计数
+     */
+    private static final class Outcomes {
+        final AtomicLong accepted = new AtomicLong();
+        final AtomicLong soldOut = new AtomicLong();
+        final AtomicLong duplicate = new AtomicLong();
+        final AtomicLong throttled = new AtomicLong();
+        final AtomicLong otherFailures = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        void record(int status, String body) {
+            if (status == 429) {
+                throttled.incrementAndGet();
+                return;
+            }
+            if (status != 200 || body.isEmpty()) {
+                errors.incrementAndGet();
+                return;
+            }
+            JSONObject result = JSONUtil.parseObj(body);
+            if (Boolean.TRUE.equals(result.getBool("success"))) {
+                accepted.incrementAndGet();
+                return;
+            }
+            String msg = String.valueOf(result.getStr("errorMsg"));
+            if (msg.contains("库存不足")) {
+                soldOut.incrementAndGet();
+            } else if (msg.contains("重复下单")) {
+                duplicate.incrementAndGet();
+            } else {
+                otherFailures.incrementAndGet();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("accepted", accepted.get());
+            map.put("soldOut", soldOut.get());
+            map.put("duplicate", duplicate.get());
+            map.put("throttled", throttled.get());
+            map.put("otherFailures", otherFailures.get());
+            map.put("errors", errors.get());
+            return map;
+        }
+    }
+}
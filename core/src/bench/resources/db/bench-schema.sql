@@ -0,0 +1,51 @@
+-- 压测用的精简表结构（H2 MySQL 兼容模式），只包含秒杀链路用到的表，字段与 db/yjshz.sql 保持一致
+
+DROP TABLE IF EXISTS `tb_voucher`;
+CREATE TABLE `tb_voucher` (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `shop_id` bigint NULL DEFAULT NULL,
+  `title` varchar(255) NOT NULL,
+  `sub_title` varchar(255) NULL DEFAULT NULL,
+  `rules` varchar(1024) NULL DEFAULT NULL,
+  `pay_value` bigint NOT NULL,
+  `actual_value` bigint NOT NULL,
+  `type` tinyint NOT NULL DEFAULT 0,
+  `status` tinyint NOT NULL DEFAULT 1,
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`)
+);
+
+DROP TABLE IF EXISTS `tb_seckill_voucher`;
+CREATE TABLE `tb_seckill_voucher` (
+  `voucher_id` bigint NOT NULL,
+  `stock` int NOT NULL,
+  `stock_buckets` int NOT NULL DEFAULT 1,
+  `per_user_limit` int NOT NULL DEFAULT 1,
+  `sale_mode` int NOT NULL DEFAULT 0,
+  `draw_status` int NOT NULL DEFAULT 0,
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `begin_time` timestamp NULL DEFAULT NULL,
+  `end_time` timestamp NULL DEFAULT NULL,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`voucher_id`)
+);
+
+DROP TABLE IF EXISTS `tb_voucher_order`;
+CREATE TABLE `tb_voucher_order` (
+  `id` bigint NOT NULL,
+  `user_id` bigint NOT NULL,
+  `voucher_id` bigint NOT NULL,
+  `buy_seq` int NOT NULL DEFAULT 1,
+  `pay_type` tinyint NOT NULL DEFAULT 1,
+  `status` tinyint NOT NULL DEFAULT 1,
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `pay_time` timestamp NULL DEFAULT NULL,
+  `use_time` timestamp NULL DEFAULT NULL,
+  `refund_time` timestamp NULL DEFAULT NULL,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  CONSTRAINT `uk_user_voucher_seq` UNIQUE (`user_id`, `voucher_id`, `buy_seq`)
+);
+CREATE INDEX `idx_user_id` ON `tb_voucher_order` (`user_id`, `id`);
+CREATE INDEX `idx_user_status_id` ON `tb_voucher_order` (`user_id`, `status`, `id`);
@@ -3,9 +3,11 @@ package com.yjshz;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.yjshz.mapper")
 @SpringBootApplication
+@EnableScheduling
 public class YJSHZApplication {
 
     public static void main(String[] args) {
@@ -1,7 +1,10 @@
 package com.yjshz.config;
 
+import com.yjshz.utils.AdminInterceptor;
 import com.yjshz.utils.LoginInterceptor;
 import com.yjshz.utils.RefreshTokenInterceptor;
+import com.yjshz.utils.SeckillAdmission;
+import com.yjshz.utils.SeckillAdmissionInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -14,6 +17,11 @@ public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -24,9 +32,18 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop-type/**",
                         "/upload/**",
                         "/voucher/**",
-                        "/user/login"
+                        "/user/login",
+                        "/health/**"
                 ).order(1);
 
+        // 秒杀准入：登录校验之后、进入下单逻辑之前限流
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
+
+        // 管理接口：登录之后再校验管理员名单
+        registry.addInterceptor(new AdminInterceptor(seckillProperties))
+                .addPathPatterns("/admin/**").order(2);
+
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
     }
 
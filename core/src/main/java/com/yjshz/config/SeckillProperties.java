@@ -0,0 +1,701 @@
+package com.yjshz.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 秒杀相关配置，对应 application.yaml 中的 seckill.*
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "seckill")
+public class SeckillProperties {
+
+    /**
+     * Stream 订单消费者配置
+     */
+    private final Consumer consumer = new Consumer();
+
+    /**
+     * 订单 Stream 分区配置
+     */
+    private final Stream stream = new Stream();
+
+    /**
+     * Redis 库存配置
+     */
+    private final Stock stock = new Stock();
+
+    /**
+     * 订单状态记录配置
+     */
+    private final OrderState orderState = new OrderState();
+
+    /**
+     * 秒杀预热配置
+     */
+    private final Prewarm prewarm = new Prewarm();
+
+    /**
+     * 订单消费失败重试 / 死信配置
+     */
+    private final Retry retry = new Retry();
+
+    /**
+     * 订单 Stream 裁剪 / 归档配置
+     */
+    private final Retention retention = new Retention();
+
+    /**
+     * 库存对账配置
+     */
+    private final Reconcile reconcile = new Reconcile();
+
+    /**
+     * 秒杀准入（限流 + 排队）配置
+     */
+    private final Admission admission = new Admission();
+
+    /**
+     * 未支付订单超时取消配置
+     */
+    private final Unpaid unpaid = new Unpaid();
+
+    /**
+     * 秒杀执行引擎配置
+     */
+    private final Engine engine = new Engine();
+
+    /**
+     * 停机（滚动发布）配置
+     */
+    private final Shutdown shutdown = new Shutdown();
+
+    /**
+     * 实时指标配置
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * 本地订单日志配置
+     */
+    private final Journal journal = new Journal();
+
+    /**
+     * 秒杀脚本微批执行配置
+     */
+    private final MicroBatch microBatch = new MicroBatch();
+
+    /**
+     * 节点库存租约配置（engine.mode = LEASE）
+     */
+    private final StockLease stockLease = new StockLease();
+
+    /**
+     * 预约抽签配置
+     */
+    private final Lottery lottery = new Lottery();
+
+    /**
+     * 管理接口鉴权配置
+     */
+    private final Admin admin = new Admin();
+
+    @Data
+    public static class Consumer {
+        /**
+         * 是否开启批量消费：一次 XREADGROUP 读多条，一个事务批量落库，一次 XACK
+         */
+        private boolean batchEnabled = false;
+
+        /**
+         * 每批最多读取的消息数
+         */
+        private int batchSize = 100;
+
+        /**
+         * 凑批最长等待时间：读到第一条后最多再等这么久来凑满一批
+         */
+        private Duration batchLinger = Duration.ofMillis(20);
+
+        /**
+         * 落库方式：LOCKED = Redisson锁 + count校验；IDEMPOTENT = 依赖 uk_user_voucher_seq 的 INSERT IGNORE
+         */
+        private PersistMode persistMode = PersistMode.LOCKED;
+
+        /**
+         * 落库工作线程数：默认 1，读线程直接落库；大于 1 时读线程按 hash(userId) 分发给工作线程（需要时显式开启）
+         */
+        private int workers = 1;
+
+        /**
+         * 每个工作线程的队列容量，满了读线程阻塞等待
+         */
+        private int workerQueueCapacity = 1024;
+
+        /**
+         * 工作线程是否使用虚拟线程（需要 JDK 21+，否则退回平台线程）
+         */
+        private boolean virtualThreads = false;
+    }
+
+    public enum PersistMode {
+        LOCKED,
+        IDEMPOTENT
+    }
+
+    @Data
+    public static class Stream {
+        /**
+         * 分区数：1 表示沿用单个 stream.orders；大于 1 时为 stream.orders:{p}
+         */
+        private int partitions = 1;
+
+        /**
+         * seckill.lua 的路由字段：voucher 按券分区，user 按用户分区
+         */
+        private String routeBy = "voucher";
+
+        /**
+         * 消费者名，为空时取 主机名:端口（重启后保持不变，才能接着处理自己的 pending-list）
+         */
+        private String consumerName;
+
+        /**
+         * 分区租约 / 节点心跳的有效期
+         */
+        private Duration claimTtl = Duration.ofSeconds(15);
+
+        /**
+         * 心跳、续约、再平衡的间隔
+         */
+        private Duration claimInterval = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Stock {
+        /**
+         * 新建秒杀券时默认的库存分桶数（1 表示不分桶），单个券可在新增时通过 stockBuckets 覆盖
+         */
+        private int defaultBuckets = 1;
+
+        /**
+         * 分桶数上限
+         */
+        private int maxBuckets = 64;
+
+        /**
+         * 一人一单的券用位图记录已购用户（按 userId 分段 SETBIT，每段 2^16 位、最多 8KB），已有的 hash 计数由预热任务迁移
+         */
+        private boolean buyerBitmap = true;
+
+        /**
+         * 改用位图的密度门槛：平均每个位图分段至少有这么多购买用户才迁移，否则继续用 hash
+         * 分段最多 8KB，hash 每个用户约 64 字节，低于 128 人 / 段时位图反而更占内存（userId 稀疏、跨度大的券）
+         */
+        private int bitmapMinBuyersPerChunk = 128;
+
+        /**
+         * 本地售罄标记的有效期：到期后放请求去 Redis 重新确认，清除广播丢失时节点最多多拒绝这么久
+         */
+        private Duration soldOutTtl = Duration.ofSeconds(5);
+
+        /**
+         * 下单用到的券元信息（分桶数 / 时间窗口 / 限购数 / 已购记录方式）在本节点的缓存时间，修改最多晚这么久生效
+         */
+        private Duration metaCacheTtl = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class OrderState {
+        /**
+         * 是否记录订单状态（ACCEPTED -> PERSISTED / FAILED）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 状态记录在 Redis 中的有效期
+         */
+        private Duration ttl = Duration.ofMinutes(30);
+
+        /**
+         * SSE 连接最长等待终态的时间，超时后客户端重连即可
+         */
+        private Duration sseTimeout = Duration.ofSeconds(25);
+    }
+
+    @Data
+    public static class Prewarm {
+        /**
+         * 是否开启启动预热和定时预热
+         */
+        private boolean enabled = true;
+
+        /**
+         * 定时预热间隔
+         */
+        private Duration interval = Duration.ofSeconds(30);
+
+        /**
+         * 提前多久预热即将开始的秒杀
+         */
+        private Duration lead = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Retry {
+        /**
+         * 最大投递次数，达到后转入死信队列 stream.orders.dlq
+         */
+        private int maxAttempts = 5;
+
+        /**
+         * 首次重试的退避时间，之后每次翻倍
+         */
+        private Duration backoff = Duration.ofMillis(200);
+
+        /**
+         * 退避时间上限
+         */
+        private Duration maxBackoff = Duration.ofSeconds(30);
+
+        /**
+         * 扫描自己 pending-list 的间隔
+         */
+        private Duration pendingScanInterval = Duration.ofSeconds(1);
+
+        /**
+         * 其他消费者的消息空闲超过该时间才会被接管
+         */
+        private Duration autoclaimMinIdle = Duration.ofSeconds(60);
+
+        /**
+         * XAUTOCLAIM 接管的执行间隔
+         */
+        private Duration autoclaimInterval = Duration.ofSeconds(30);
+
+        /**
+         * 每次扫描 / 接管的最大条数
+         */
+        private int scanCount = 100;
+    }
+
+    @Data
+    public static class Retention {
+        /**
+         * 是否定时裁剪已确认的订单消息
+         */
+        private boolean enabled = true;
+
+        /**
+         * 裁剪间隔
+         */
+        private Duration interval = Duration.ofSeconds(60);
+
+        /**
+         * 最近这段时间内的消息即使已确认也保留，方便排查
+         */
+        private Duration minAge = Duration.ofMinutes(5);
+
+        /**
+         * 每页归档 / 裁剪的条数（一个段文件）
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 裁剪前是否先归档到本地段文件
+         */
+        private boolean archiveEnabled = true;
+
+        /**
+         * 归档段文件目录
+         */
+        private String archiveDir = "./data/stream-archive";
+    }
+
+    @Data
+    public static class Reconcile {
+        /**
+         * 是否定时对账
+         */
+        private boolean enabled = true;
+
+        /**
+         * 对账间隔
+         */
+        private Duration interval = Duration.ofSeconds(5);
+
+        /**
+         * 订单id对应的时间早于 now - settleWindow、且小于订单 Stream 上最早一条还没 ACK 的订单id 才并入水位线（落库顺序与id顺序不完全一致）
+         */
+        private Duration settleWindow = Duration.ofMinutes(2);
+
+        /**
+         * 全量重算订单数的间隔，兜底沉淀窗口之后才落库的订单
+         */
+        private Duration resyncInterval = Duration.ofMinutes(30);
+
+        /**
+         * 结束后仍继续对账的时间
+         */
+        private Duration activeGrace = Duration.ofMinutes(10);
+
+        /**
+         * 没有在途订单时是否以数据库库存为准修正 Redis 库存
+         */
+        private boolean autoCorrect = false;
+    }
+
+    @Data
+    public static class Admission {
+        /**
+         * 是否开启秒杀准入
+         */
+        private boolean enabled = true;
+
+        /**
+         * 全局令牌桶速率（个/秒），必须大于 0
+         */
+        private double globalRate = 2000;
+
+        /**
+         * 全局令牌桶容量（允许的瞬时突发）
+         */
+        private double globalBurst = 2000;
+
+        /**
+         * 单用户令牌桶速率（个/秒），必须大于 0
+         */
+        private double userRate = 1;
+
+        /**
+         * 单用户令牌桶容量
+         */
+        private double userBurst = 3;
+
+        /**
+         * 等候室放行速率（人/秒），必须大于 0；全局令牌耗尽后按票号先来后到放行
+         */
+        private double admitRate = 500;
+
+        /**
+         * 令牌桶 / 等候室 key 的过期时间
+         */
+        private Duration keyTtl = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Unpaid {
+        /**
+         * 是否自动取消超时未支付的订单
+         */
+        private boolean enabled = true;
+
+        /**
+         * 未支付超时时间
+         */
+        private Duration timeout = Duration.ofMinutes(15);
+
+        /**
+         * 领取即将到期任务的间隔
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+
+        /**
+         * 每次领取到期时间在 now + horizon 之内的任务放进时间轮
+         */
+        private Duration horizon = Duration.ofSeconds(10);
+
+        /**
+         * 每次最多领取的任务数
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 领取后的租约（从到期时间算起），超时未完成会被放回待执行队列
+         */
+        private Duration lease = Duration.ofSeconds(60);
+
+        /**
+         * 时间轮每格的时长
+         */
+        private Duration tick = Duration.ofMillis(100);
+
+        /**
+         * 时间轮格数
+         */
+        private int wheelSize = 512;
+
+        /**
+         * 执行取消的线程数
+         */
+        private int cancelThreads = 2;
+
+        /**
+         * 到期时订单还没落库，隔多久再试
+         */
+        private Duration notPersistedRetry = Duration.ofSeconds(5);
+
+        /**
+         * 延迟队列分片数：订单按 orderId % shards 写入 seckill:delay:unpaid:{s}，1 表示沿用单个 seckill:delay:unpaid
+         */
+        private int shards = 8;
+
+        /**
+         * 分片领取权的租约：每个分片同时只有一个节点领取，节点下线后过期由其他节点接管
+         */
+        private Duration shardTtl = Duration.ofSeconds(15);
+    }
+
+    @Data
+    public static class Engine {
+        /**
+         * 执行方式：LUA = 每个请求一次 seckill.lua；MEMORY = 单线程内存引擎判定 + 批量写 Redis 日志；
+         * LEASE = 每个节点从中心库存租一段，本地计数，seckill.lua 从本节点租约里扣
+         */
+        private EngineMode mode = EngineMode.LUA;
+
+        /**
+         * 请求环形队列容量（取不小于它的 2 的幂），满了直接返回系统繁忙
+         */
+        private int ringSize = 65536;
+
+        /**
+         * 每次 pipeline 写入 Redis 的最多订单数
+         */
+        private int journalBatch = 512;
+
+        /**
+         * 等待写日志的订单队列容量
+         */
+        private int journalQueueCapacity = 65536;
+
+        /**
+         * 券所有权租约有效期
+         */
+        private Duration leaseTtl = Duration.ofSeconds(10);
+
+        /**
+         * 续约间隔
+         */
+        private Duration renewInterval = Duration.ofSeconds(3);
+
+        /**
+         * 本地认为租约有效的时间比实际到期提前多少（抵消节点间时钟误差和续约延迟）
+         */
+        private Duration leaseMargin = Duration.ofSeconds(2);
+
+        /**
+         * 等待引擎判定 + 写日志的最长时间
+         */
+        private Duration requestTimeout = Duration.ofSeconds(3);
+
+        /**
+         * 本节点对外地址（其他节点转发请求用），为空时取 http://本机IP:端口
+         */
+        private String advertiseUrl;
+
+        /**
+         * 节点间转发的共享口令：带正确口令的转发请求不再重复经过准入限流
+         */
+        private String forwardSecret;
+
+        /**
+         * 转发请求超时时间
+         */
+        private Duration forwardTimeout = Duration.ofSeconds(2);
+
+        /**
+         * 本地缓存其他节点所有权的时间，避免每个请求都查一次 Redis
+         */
+        private Duration ownerCacheTtl = Duration.ofSeconds(1);
+    }
+
+    public enum EngineMode {
+        LUA,
+        MEMORY,
+        LEASE
+    }
+
+    @Data
+    public static class Shutdown {
+        /**
+         * 停机时先把就绪状态置为不可用，等这段时间让负载均衡摘掉本节点，再开始拒绝新请求
+         */
+        private Duration readinessDelay = Duration.ofSeconds(5);
+
+        /**
+         * 订单消费者排空的最长时间：停止读取新消息后，已读到的消息在这段时间内落库 + ACK，超时的留在 pending-list
+         */
+        private Duration drainTimeout = Duration.ofSeconds(20);
+    }
+
+    @Data
+    public static class Metrics {
+        /**
+         * 是否按秒采样（计数本身始终开启，开销只是一次 LongAdder 累加）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 保留最近多少秒的样本
+         */
+        private int history = 600;
+    }
+
+    @Data
+    public static class Journal {
+        /**
+         * 是否把已受理的订单追加写入本地日志（Redis 丢数据时重启补落库）
+         */
+        private boolean enabled = false;
+
+        /**
+         * 日志目录
+         */
+        private String dir = "data/journal";
+
+        /**
+         * 每段文件大小（40 字节一条，每单意图 + 结果两条，64MB 约 80 万单）
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * 待写队列容量，满了该条不记日志（不影响下单）
+         */
+        private int queueCapacity = 65536;
+
+        /**
+         * 一次组提交（一次 fsync）最多的记录数
+         */
+        private int batchSize = 1024;
+
+        /**
+         * 下单请求等待意图 / 受理记录落盘的最长时间，0 表示不等（只保证写入页缓存）
+         */
+        private Duration syncWait = Duration.ofMillis(50);
+
+        /**
+         * 段文件保留时间，超过的在换段时删除
+         */
+        private Duration retention = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class MicroBatch {
+        /**
+         * 是否把并发的秒杀请求攒批执行（只对 LUA 模式生效）
+         */
+        private boolean enabled = false;
+
+        /**
+         * 一批最多的请求数
+         */
+        private int maxBatch = 64;
+
+        /**
+         * 拿到第一个请求后最多再等多久凑批
+         */
+        private Duration linger = Duration.ofMillis(1);
+
+        /**
+         * 待执行队列容量，满了直接返回繁忙
+         */
+        private int queueCapacity = 65536;
+
+        /**
+         * 同时在途的批数（执行线程数）
+         */
+        private int concurrency = 4;
+
+        /**
+         * 请求等待结果的最长时间
+         */
+        private Duration timeout = Duration.ofSeconds(3);
+    }
+
+    @Data
+    public static class StockLease {
+        /**
+         * 一次租多少件
+         */
+        private int chunk = 100;
+
+        /**
+         * 本地剩余件数低于一次租量的这个比例时，后台提前再租一段
+         */
+        private double lowWatermark = 0.2;
+
+        /**
+         * 租约有效期：节点宕机时，其他节点最晚过这么久把它没卖掉的件数收回中心库存
+         */
+        private Duration ttl = Duration.ofSeconds(10);
+
+        /**
+         * 续约间隔
+         */
+        private Duration renewInterval = Duration.ofSeconds(3);
+
+        /**
+         * 本地认为租约有效的时间比实际到期提前多少
+         */
+        private Duration margin = Duration.ofSeconds(2);
+
+        /**
+         * 多久没有卖出就把剩余件数还回中心库存，让其他节点去卖
+         */
+        private Duration idleRelease = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Lottery {
+        /**
+         * 是否执行开奖任务（登记不受影响）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 检查到期未开奖券的间隔
+         */
+        private Duration pollInterval = Duration.ofSeconds(10);
+
+        /**
+         * 登记截止后再等多久开奖（抵消节点间时钟误差，保证开奖时不会再有登记写入）
+         */
+        private Duration drawDelay = Duration.ofSeconds(5);
+
+        /**
+         * 中签订单每批插入的条数
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 登记位图、中签结果在开奖后保留多久（供用户查询）
+         */
+        private Duration resultTtl = Duration.ofDays(7);
+
+        /**
+         * 中签订单的支付期限：开奖后超过这么久未支付由未支付超时取消任务关单（名额不回到先到先得的 Redis 库存），0 表示不自动关单
+         */
+        private Duration payTimeout = Duration.ofHours(24);
+
+        /**
+         * 中签通知 stream（stream.lottery.notify）保留的大约条数，写入时近似裁剪
+         */
+        private long notifyMaxLen = 100000;
+    }
+
+    @Data
+    public static class Admin {
+        /**
+         * 允许访问 /admin/** 的用户 id，为空时所有管理接口都返回 403
+         */
+        private List<Long> userIds = new ArrayList<>();
+    }
+}
@@ -0,0 +1,31 @@
+package com.yjshz.controller;
+
+import com.yjshz.dto.Result;
+import com.yjshz.utils.SeckillReadiness;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+
+@RestController
+@RequestMapping("/health")
+public class HealthController {
+
+    @Resource
+    private SeckillReadiness seckillReadiness;
+
+    /**
+     * 就绪检查：可接收流量返回 200，停机摘流中返回 503
+     */
+    @GetMapping("readiness")
+    public ResponseEntity<Result> readiness() {
+        if (seckillReadiness.isReady()) {
+            return ResponseEntity.ok(Result.ok());
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Result.fail("节点停止接收流量"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.yjshz.controller;
+
+import com.yjshz.dto.Result;
+import com.yjshz.dto.SeckillMetricsDTO;
+import com.yjshz.service.IVoucherService;
+import com.yjshz.utils.SeckillLottery;
+import com.yjshz.utils.SeckillMetrics;
+import com.yjshz.utils.SeckillReconciler;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Optional;
+
+
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    @Resource
+    private SeckillReconciler seckillReconciler;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    @Resource
+    private SeckillLottery seckillLottery;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 秒杀券补库存
+     * @param voucherId 秒杀券id
+     * @param amount 补充数量
+     * @return 无
+     */
+    @PutMapping("{id}/stock")
+    public Result replenishSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        return voucherService.replenishSeckillStock(voucherId, amount);
+    }
+
+    /**
+     * 查询最近一轮库存对账结果
+     * @return 各秒杀券的对账结果
+     */
+    @GetMapping("reconcile")
+    public Result queryReconcileReport() {
+        return Result.ok(seckillReconciler.report());
+    }
+
+    /**
+     * 立即执行一轮库存对账
+     * @return 对账结果
+     */
+    @PostMapping("reconcile")
+    public Result reconcile() {
+        if (!seckillReconciler.reconcile()) {
+            return Result.fail("对账正在其他节点执行");
+        }
+        return Result.ok(seckillReconciler.report());
+    }
+
+    /**
+     * 本节点最近 seconds 秒的每秒指标
+     * @return 按时间先后排列的样本
+     */
+    @GetMapping("metrics")
+    public Result queryMetrics(@RequestParam(value = "seconds", defaultValue = "60") Integer seconds) {
+        return Result.ok(seckillMetrics.recent(seconds));
+    }
+
+    /**
+     * 订阅本节点的每秒指标（SSE），每秒推送一次最新样本
+     */
+    @GetMapping(value = "metrics/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<SeckillMetricsDTO>> watchMetrics() {
+        return Flux.interval(Duration.ZERO, Duration.ofSeconds(1))
+                .onBackpressureDrop()
+                .map(tick -> Optional.ofNullable(seckillMetrics.latest()))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .distinctUntilChanged(SeckillMetricsDTO::getTime)
+                .map(sample -> ServerSentEvent.builder(sample).event("metrics").build());
+    }
+
+    /**
+     * 立即给已截止登记的抽签券开奖（平时由定时任务执行）
+     * @return 无
+     */
+    @PostMapping("lottery/draw")
+    public Result drawLottery() {
+        if (!seckillLottery.draw()) {
+            return Result.fail("开奖正在其他节点执行");
+        }
+        return Result.ok();
+    }
+}
@@ -1,21 +1,33 @@
 package com.yjshz.controller;
 
 
+import com.yjshz.dto.OrderStateDTO;
 import com.yjshz.dto.Result;
+import com.yjshz.dto.SeckillBatchDTO;
 import com.yjshz.entity.SeckillVoucher;
 import com.yjshz.entity.VoucherOrder;
 import com.yjshz.service.ISeckillVoucherService;
 import com.yjshz.service.IVoucherOrderService;
 import com.yjshz.utils.RedisConstants;
 import com.yjshz.utils.RedisIDWorker;
+import com.yjshz.utils.SeckillAdmission;
 import com.yjshz.utils.UserHolder;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import reactor.core.publisher.Flux;
+
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.time.LocalDateTime;
 
 
@@ -25,11 +37,69 @@ public class VoucherOrderController {
 
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillAdmission seckillAdmission;
 
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
 
+    /**
+     * 一次抢多张券：{"voucherIds":[...], "allOrNothing":true} 全部成功才下单，否则逐张返回结果
+     * 内存引擎模式（seckill.engine.mode = memory）下不支持 allOrNothing，直接返回失败
+     */
+    @PostMapping("seckill/batch")
+    public Result seckillVouchers(@RequestBody SeckillBatchDTO batch, HttpServletRequest request, HttpServletResponse response) {
+        // 路径上没有券 id，准入拦截器不检查：这里按券数扣用户 / 全局令牌
+        Result rejected = seckillAdmission.admitBatch(request, response, batch.getVoucherIds());
+        if (rejected != null) {
+            return rejected;
+        }
+        return voucherOrderService.seckillVouchers(batch.getVoucherIds(), Boolean.TRUE.equals(batch.getAllOrNothing()));
+    }
+
+    /**
+     * 预约抽签登记：登记期内重复调用结果相同，截止后统一开奖
+     */
+    @PostMapping("lottery/{id}")
+    public Result registerLottery(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.registerLottery(voucherId);
+    }
+
+    /**
+     * 查询预约抽签结果：NONE（未登记） / REGISTERED（待开奖） / WON（中签，附订单id） / LOST（未中签）
+     */
+    @GetMapping("lottery/{id}")
+    public Result queryLotteryResult(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.queryLotteryResult(voucherId);
+    }
+
+    /**
+     * 我的订单，按下单先后倒序；翻页时传上一页返回的 lastId，status 可按订单状态过滤
+     */
+    @GetMapping("of/me")
+    public Result queryMyOrders(@RequestParam(value = "lastId", required = false) Long lastId,
+                                @RequestParam(value = "status", required = false) Integer status) {
+        return voucherOrderService.queryMyOrders(lastId, status);
+    }
+
+    /**
+     * 查询秒杀订单状态：ACCEPTED（待落库） / PERSISTED（已落库） / FAILED（落库失败）
+     */
+    @GetMapping("state/{orderId}")
+    public Result queryOrderState(@PathVariable("orderId") Long orderId) {
+        return voucherOrderService.queryOrderState(orderId);
+    }
+
+    /**
+     * 订阅秒杀订单状态（SSE），到达终态或超时后结束
+     */
+    @GetMapping(value = "state/{orderId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<OrderStateDTO>> watchOrderState(@PathVariable("orderId") Long orderId) {
+        return voucherOrderService.watchOrderState(orderId)
+                .map(state -> ServerSentEvent.builder(state).event("state").build());
+    }
+
 
 }
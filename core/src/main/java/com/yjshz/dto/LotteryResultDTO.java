@@ -0,0 +1,17 @@
+package com.yjshz.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 预约抽签结果：NONE（未登记） / REGISTERED（已登记，待开奖） / WON（中签，orderId 为订单id） / LOST（未中签）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LotteryResultDTO {
+    private Long voucherId;
+    private String state;
+    private Long orderId;
+}
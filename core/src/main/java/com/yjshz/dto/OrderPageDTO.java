@@ -0,0 +1,16 @@
+package com.yjshz.dto;
+
+import com.yjshz.entity.VoucherOrder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 订单列表的一页（按 id 倒序）：下一页把 lastId 作为参数传回来，hasMore = false 表示没有更多
+ */
+@Data
+public class OrderPageDTO {
+    private List<VoucherOrder> list;
+    private Long lastId;
+    private Boolean hasMore;
+}
@@ -0,0 +1,17 @@
+package com.yjshz.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀订单状态：ACCEPTED（已抢到，待落库） -> PERSISTED（已落库） / FAILED（落库失败）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStateDTO {
+    private Long orderId;
+    private Long voucherId;
+    private String state;
+}
@@ -0,0 +1,16 @@
+package com.yjshz.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一次下单多张券的请求
+ * - allOrNothing = true：全部能抢到才下单，任一张失败则都不扣库存
+ * - allOrNothing = false（默认）：能抢几张抢几张，逐张返回结果
+ */
+@Data
+public class SeckillBatchDTO {
+    private List<Long> voucherIds;
+    private Boolean allOrNothing;
+}
@@ -0,0 +1,17 @@
+package com.yjshz.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量秒杀中单张券的结果：成功时 orderId 非空，失败时 errorMsg 为原因；结果未知时两者都有（按 orderId 查询订单状态）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillBatchItemDTO {
+    private Long voucherId;
+    private Long orderId;
+    private String errorMsg;
+}
@@ -0,0 +1,28 @@
+package com.yjshz.dto;
+
+import lombok.Data;
+
+/**
+ * 秒杀每秒指标（单节点）：计数类为该秒内的增量，streamLag / pending 为该秒末的采样值
+ * - 拒绝原因与 seckill.lua 返回码对应：soldOut=1，quotaReached=2，notStarted=3，ended=4
+ * - forwarded：券由其他节点内存引擎持有被转发；busy：Redis 无响应 / 引擎队列满；throttled：准入限流拒绝
+ * - streamLag：消费组还没读到的消息数（Redis 7 以上才有，取不到为 -1）；pending：已读未 ACK 的消息数
+ */
+@Data
+public class SeckillMetricsDTO {
+    private Long time;
+    private Long accepted;
+    private Long soldOut;
+    private Long quotaReached;
+    private Long notStarted;
+    private Long ended;
+    private Long forwarded;
+    private Long busy;
+    private Long throttled;
+    private Long failed;
+    private Long persisted;
+    private Double persistAvgMs;
+    private Double persistMaxMs;
+    private Long streamLag;
+    private Long pending;
+}
@@ -0,0 +1,29 @@
+package com.yjshz.dto;
+
+import lombok.Data;
+
+/**
+ * 单个秒杀券的对账结果
+ * - abandoned：进了死信队列的订单数（Redis 已受理、库存已扣，不会落库）
+ * - persistLag = redisAccepted - abandoned - dbOrders：在途（还没落库）的订单数，售卖结束后应归零
+ * - cancelled：超时取消的订单数（仍在订单表和已下单集合里，库存已归还）
+ * - dbDrift = dbStock + dbOrders - cancelled - total：数据库库存与订单数不守恒
+ * - redisDrift = redisStock + redisAccepted - abandoned - cancelled - total：Redis 库存与已受理数不守恒
+ *   （死信订单的库存 Redis 已扣、数据库没扣，修正 Redis 库存后归零）
+ */
+@Data
+public class StockReconcileDTO {
+    private Long voucherId;
+    private Long total;
+    private Long redisStock;
+    private Long redisAccepted;
+    private Long dbStock;
+    private Long dbOrders;
+    private Long cancelled;
+    private Long abandoned;
+    private Long persistLag;
+    private Long dbDrift;
+    private Long redisDrift;
+    private Boolean corrected;
+    private Long checkedAt;
+}
@@ -30,6 +30,26 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * Redis库存分桶数，1表示不分桶
+     */
+    private Integer stockBuckets;
+
+    /**
+     * 每人限购数，1表示一人一单
+     */
+    private Integer perUserLimit;
+
+    /**
+     * 售卖方式：0 先到先得，1 预约抽签
+     */
+    private Integer saleMode;
+
+    /**
+     * 抽签状态：0 未开奖，1 已开奖
+     */
+    private Integer drawStatus;
+
     /**
      * 创建时间
      */
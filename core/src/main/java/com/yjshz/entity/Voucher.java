@@ -71,6 +71,24 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * Redis库存分桶数，不传则使用默认配置
+     */
+    @TableField(exist = false)
+    private Integer stockBuckets;
+
+    /**
+     * 每人限购数，不传则一人一单
+     */
+    @TableField(exist = false)
+    private Integer perUserLimit;
+
+    /**
+     * 售卖方式：0 先到先得（默认），1 预约抽签（生效时间内登记，失效后开奖）
+     */
+    @TableField(exist = false)
+    private Integer saleMode;
+
     /**
      * 生效时间
      */
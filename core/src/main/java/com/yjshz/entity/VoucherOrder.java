@@ -35,6 +35,11 @@ public class VoucherOrder implements Serializable {
      */
     private Long voucherId;
 
+    /**
+     * 该用户在这张券上的第几单（从 1 开始），与 user_id、voucher_id 组成唯一约束
+     */
+    private Integer buySeq;
+
     /**
      * 支付方式 1：余额支付；2：支付宝；3：微信
      */
@@ -2,8 +2,19 @@ package com.yjshz.mapper;
 
 import com.yjshz.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Map;
 
 
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    int insertBatch(@Param("list") List<VoucherOrder> voucherOrders);
+
+    int insertIgnore(@Param("o") VoucherOrder voucherOrder);
+
+    int insertIgnoreBatch(@Param("list") List<VoucherOrder> voucherOrders);
+
+    List<Map<String, Object>> countByVoucherSince(@Param("after") long afterId, @Param("settledUpTo") long settledUpTo);
 }
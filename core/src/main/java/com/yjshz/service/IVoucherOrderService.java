@@ -1,13 +1,46 @@
 package com.yjshz.service;
 
+import com.yjshz.dto.OrderStateDTO;
 import com.yjshz.dto.Result;
 import com.yjshz.entity.VoucherOrder;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
 public interface IVoucherOrderService {
 
     // 秒杀接口（同步：Lua + 入队）
     Result seckillVoucher(Long voucherId);
 
-    // 异步落库接口（给代理 + @Transactional 用）
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    // 一次下单多张券（一次 Lua：全部成功 / 尽量多抢）
+    Result seckillVouchers(List<Long> voucherIds, boolean allOrNothing);
+
+    // 预约抽签登记（一次 SETBIT，重复登记幂等）
+    Result registerLottery(Long voucherId);
+
+    // 查询预约抽签结果（NONE / REGISTERED / WON / LOST）
+    Result queryLotteryResult(Long voucherId);
+
+    // 查询订单状态（ACCEPTED / PERSISTED / FAILED）
+    Result queryOrderState(Long orderId);
+
+    // 订阅订单状态变化（SSE）
+    Flux<OrderStateDTO> watchOrderState(Long orderId);
+
+    // 我的订单：按 id 倒序的游标分页，第一页走 Redis 缓存
+    Result queryMyOrders(Long lastId, Integer status);
+
+    // 订单新增 / 状态变化后清掉这些用户的第一页缓存
+    void evictOrderPageCache(Collection<Long> userIds);
+
+    // 异步落库接口（给代理 + @Transactional 用），返回本次是否真正插入
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    // 批量落库接口：一个事务内多值插入 + 按券聚合扣库存，返回本次确认插入的订单id
+    Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    // 未支付超时取消：改状态 + 归还数据库库存，返回订单当前记录，未落库返回 null
+    VoucherOrder cancelUnpaidOrder(Long orderId);
 }
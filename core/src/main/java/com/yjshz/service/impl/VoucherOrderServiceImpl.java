@@ -1,45 +1,88 @@
 package com.yjshz.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.OrderPageDTO;
+import com.yjshz.dto.OrderStateDTO;
 import com.yjshz.dto.Result;
+import com.yjshz.dto.SeckillBatchItemDTO;
+import com.yjshz.entity.SeckillVoucher;
 import com.yjshz.entity.VoucherOrder;
 import com.yjshz.mapper.VoucherOrderMapper;
 import com.yjshz.service.ISeckillVoucherService;
 import com.yjshz.service.IVoucherOrderService;
+import com.yjshz.utils.OrderJournal;
+import com.yjshz.utils.OrderStateTracker;
+import com.yjshz.utils.OrderStreamManager;
+import com.yjshz.utils.OrderStreamRecovery;
+import com.yjshz.utils.OrderWorkerPool;
+import com.yjshz.utils.RedisConstants;
 import com.yjshz.utils.RedisIDWorker;
+import com.yjshz.utils.SeckillBatcher;
+import com.yjshz.utils.SeckillEngine;
+import com.yjshz.utils.SeckillForwarder;
+import com.yjshz.utils.SeckillLottery;
+import com.yjshz.utils.SeckillMetrics;
+import com.yjshz.utils.SeckillSoldOutGate;
+import com.yjshz.utils.SeckillStockLeaser;
+import com.yjshz.utils.SeckillStockManager;
+import com.yjshz.utils.SystemConstants;
+import com.yjshz.utils.UnpaidOrderCanceller;
 import com.yjshz.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.io.File;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 @Service
-public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder>
+        implements IVoucherOrderService, SmartLifecycle {
 
     @Resource private RedisIDWorker redisIDWorker;
     @Resource private ISeckillVoucherService seckillVoucherService;
     @Resource private StringRedisTemplate stringRedisTemplate;
     @Resource private RedissonClient redissonClient;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private OrderStreamManager orderStreamManager;
+    @Resource private SeckillSoldOutGate soldOutGate;
+    @Resource private OrderStateTracker orderStateTracker;
+    @Resource private OrderStreamRecovery orderStreamRecovery;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private SeckillEngine seckillEngine;
+    @Resource private SeckillForwarder seckillForwarder;
+    @Resource private SeckillMetrics seckillMetrics;
+    @Resource private SeckillBatcher seckillBatcher;
+    @Resource private SeckillStockLeaser seckillStockLeaser;
+    @Resource private SeckillLottery seckillLottery;
 
-    // ✅ 延迟获取事务代理：避免@PostConstruct阶段“取自己”导致循环依赖
+    // ✅ 延迟获取事务代理：避免初始化阶段“取自己”导致循环依赖
     @Resource
     private ObjectProvider<IVoucherOrderService> voucherOrderServiceProvider;
 
@@ -51,39 +94,248 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    // Stream 配置（跟你老版本一致）
-    private static final String STREAM_KEY = "stream.orders";
-    private static final String GROUP_NAME = "g1";
-    private static final String CONSUMER_NAME = "c1";
+    // 订单第一页缓存回写：版本号没变才写
+    private static final DefaultRedisScript<Long> CACHE_SET_IF_VERSION_SCRIPT;
+    static {
+        CACHE_SET_IF_VERSION_SCRIPT = new DefaultRedisScript<>();
+        CACHE_SET_IF_VERSION_SCRIPT.setLocation(new ClassPathResource("cache_set_if_version.lua"));
+        CACHE_SET_IF_VERSION_SCRIPT.setResultType(Long.class);
+    }
+
+    // 多券下单脚本：一次 EVAL 校验 / 扣减多张券，返回每张券的结果码
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SECKILL_BATCH_SCRIPT;
+    static {
+        SECKILL_BATCH_SCRIPT = SeckillBatcher.wrapSeckill("seckill_batch.lua");
+    }
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    private final AtomicBoolean running = new AtomicBoolean(true);
+    // 一次最多下单的券数，避免单个脚本执行过久阻塞 Redis
+    private static final int MAX_BATCH_VOUCHERS = 20;
+    // seckill.lua：本节点库存租约已用完 / 已到期
+    private static final int LEASE_EXHAUSTED = 6;
+    // seckill_batch.lua 中 all 模式下因其他券失败而未执行的结果码
+    private static final int BATCH_SKIPPED = 7;
 
-    @PostConstruct
-    private void init() {
-        // 1) 确保 stream + group 存在（避免 NOGROUP）
+    // Stream 消费组（分区 key 与消费者名由 OrderStreamManager 管理）
+    private static final String GROUP_NAME = OrderStreamManager.GROUP_NAME;
+
+    // 读线程：workers > 1 时只负责读取和分发，落库交给 OrderWorkerPool；每次 start() 新建，stop() 之后可以重新启动
+    private volatile ExecutorService orderExecutor;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private OrderWorkerPool workerPool;
+    private OrderJournal orderJournal;
+
+    /**
+     * 启动消费：在 Web 容器之前启动（见 getPhase），节点就绪时消费者已经在跑
+     */
+    @Override
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        // 先把本地日志里 Redis 可能丢掉的订单补落库，再开始消费
+        openJournal();
+        // stream + group 由 OrderStreamManager 按分区创建；这里先认领一次分区，再启动后台线程消费
         try {
-            // stream存在但group不存在 -> 创建group
-            stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), GROUP_NAME);
+            orderStreamManager.rebalance(this::hasPending);
         } catch (Exception e) {
-            // 可能是：stream不存在 或 group已存在
-            try {
-                // 如果 stream 不存在：先 XADD 一个初始化消息创建 stream，然后再创建 group
-                stringRedisTemplate.opsForStream().add(STREAM_KEY, Collections.singletonMap("init", "1"));
-                stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), GROUP_NAME);
-            } catch (Exception ignore) {
-                // group 已存在等情况直接忽略
+            log.warn("启动时认领分区失败，交给消费线程下一轮重试", e);
+        }
+        SeckillProperties.Consumer config = seckillProperties.getConsumer();
+        if (config.getWorkers() > 1) {
+            workerPool = new OrderWorkerPool(
+                    config.getWorkers(),
+                    config.getWorkerQueueCapacity(),
+                    config.isBatchEnabled() ? config.getBatchSize() : 1,
+                    config.isVirtualThreads(),
+                    this::handleRecords
+            );
+            log.info("订单落库工作线程数={}, 队列容量={}", workerPool.size(), config.getWorkerQueueCapacity());
+        }
+        orderExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "seckill-order-reader"));
+        orderExecutor.submit(new VoucherOrderHandler());
+    }
+
+    /**
+     * 排空停机（Web 容器停止之后、Redis / 数据源销毁之前执行）：
+     * 1) 停止读取新消息，等读线程处理完手上这一批
+     * 2) 工作线程把队列里已读到的消息落库 + ACK
+     * 3) 让出分区：pending-list 已清空，接手的节点不会重复投递
+     * 超过 drain-timeout 才中断线程，没处理完的消息留在 pending-list，由接手节点按重试规则处理
+     */
+    @Override
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        long timeout = seckillProperties.getShutdown().getDrainTimeout().toMillis();
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean drained = false;
+        try {
+            orderExecutor.shutdown();
+            drained = orderExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            if (workerPool != null) {
+                drained = workerPool.drain(Math.max(deadline - System.currentTimeMillis(), 0)) && drained;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!drained) {
+            log.warn("订单消费者未能在 {}ms 内排空，未处理的消息留在 pending-list", timeout);
+            orderExecutor.shutdownNow();
+            if (workerPool != null) {
+                workerPool.shutdown();
             }
         }
+        orderStreamManager.releaseAll();
+        if (orderJournal != null) {
+            orderJournal.close();
+        }
+        log.info("订单消费者已停止, drained={}", drained);
+    }
 
-        // 2) 启动后台线程：消费 stream
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 比 Web 容器（优雅停机 / 停止）更晚停止：先停止接收请求，再排空消费者
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 4096;
     }
 
     @PreDestroy
     private void shutdown() {
-        running.set(false);
-        SECKILL_ORDER_EXECUTOR.shutdownNow();
+        // 正常情况下已由 stop() 排空；上下文启动失败等没走生命周期停止时直接中断
+        if (running.compareAndSet(true, false)) {
+            if (orderExecutor != null) {
+                orderExecutor.shutdownNow();
+            }
+            if (workerPool != null) {
+                workerPool.shutdown();
+            }
+            orderStreamManager.releaseAll();
+            if (orderJournal != null) {
+                orderJournal.close();
+            }
+        }
+    }
+
+    /**
+     * 打开本地订单日志，并把上次运行记下、数据库里还没有的订单补落库
+     * - 有受理记录的按日志里的 buySeq 补；只有意图（结果未知）的先到 Redis 订单状态确认受理过才补，确认不了的不补
+     * - 补落库走 createVoucherOrder，和消费者重复处理同一订单时由主键 / 唯一约束去重
+     */
+    private void openJournal() {
+        SeckillProperties.Journal config = seckillProperties.getJournal();
+        if (!config.isEnabled()) {
+            return;
+        }
+        try {
+            orderJournal = new OrderJournal(new File(config.getDir()), config.getSegmentSize().toBytes(),
+                    config.getQueueCapacity(), config.getBatchSize(), config.getRetention().toMillis());
+            List<OrderJournal.Entry> entries = orderJournal.recover();
+            if (!entries.isEmpty()) {
+                int[] replayed = replayJournal(entries);
+                log.info("本地订单日志恢复完成, 记录数={}, 补落库={}, 结果未知且无法确认={}", entries.size(), replayed[0], replayed[1]);
+            }
+            orderJournal.deleteRecovered();
+        } catch (Exception e) {
+            // 恢复失败保留旧段，下次启动再试；不影响正常下单
+            log.error("本地订单日志恢复失败", e);
+        }
+    }
+
+    /**
+     * @return {补落库数, 结果未知且无法确认的订单数}
+     */
+    private int[] replayJournal(List<OrderJournal.Entry> entries) {
+        // 同一订单先有意图、后有结果：以结果为准；明确没有受理的跳过
+        Map<Long, OrderJournal.Entry> latest = new LinkedHashMap<>();
+        for (OrderJournal.Entry entry : entries) {
+            if (entry.kind == OrderJournal.INTENT) {
+                latest.putIfAbsent(entry.orderId, entry);
+            } else {
+                latest.put(entry.orderId, entry);
+            }
+        }
+        List<OrderJournal.Entry> pending = new ArrayList<>(latest.size());
+        for (OrderJournal.Entry entry : latest.values()) {
+            if (entry.kind != OrderJournal.REJECTED) {
+                pending.add(entry);
+            }
+        }
+
+        IVoucherOrderService proxy = voucherOrderServiceProvider.getObject();
+        int replayed = 0;
+        int unconfirmed = 0;
+        for (int from = 0; from < pending.size(); from += 500) {
+            List<OrderJournal.Entry> chunk = pending.subList(from, Math.min(from + 500, pending.size()));
+            List<Long> ids = new ArrayList<>(chunk.size());
+            chunk.forEach(entry -> ids.add(entry.orderId));
+            Set<Long> existing = new HashSet<>();
+            for (VoucherOrder order : query().select("id").in("id", ids).list()) {
+                existing.add(order.getId());
+            }
+            for (OrderJournal.Entry entry : chunk) {
+                if (existing.contains(entry.orderId)) continue;
+                int buySeq = entry.buySeq;
+                if (entry.kind == OrderJournal.INTENT) {
+                    // 结果未知：Redis 上有这张订单的受理记录才补，不能凭意图建单
+                    Map<Object, Object> state = orderStateTracker.get(entry.orderId);
+                    Object seq = state.get("buySeq");
+                    if (seq == null || !String.valueOf(entry.userId).equals(state.get("userId"))) {
+                        unconfirmed++;
+                        continue;
+                    }
+                    buySeq = Integer.parseInt(seq.toString());
+                }
+                VoucherOrder voucherOrder = new VoucherOrder()
+                        .setId(entry.orderId)
+                        .setUserId(entry.userId)
+                        .setVoucherId(entry.voucherId)
+                        .setBuySeq(buySeq);
+                if (proxy.createVoucherOrder(voucherOrder)) {
+                    replayed++;
+                }
+            }
+        }
+        if (unconfirmed > 0) {
+            log.warn("本地订单日志中有 {} 笔结果未知的订单在 Redis 上查不到受理记录，未补落库", unconfirmed);
+        }
+        return new int[]{replayed, unconfirmed};
+    }
+
+    /**
+     * 记下单结果：受理的带 buySeq；明确没有受理的记 REJECTED，恢复时跳过；
+     * 繁忙 / 结果未知不记，只留下意图，恢复时到 Redis 确认
+     */
+    private void journalOutcome(long orderId, Long userId, Long voucherId, int raw) {
+        int r = SeckillStockManager.resultCode(raw);
+        if (r == 0) {
+            journal(orderId, userId, voucherId, SeckillStockManager.buySeq(raw), OrderJournal.ACCEPTED);
+        } else if (r != SeckillEngine.BUSY && r != SeckillEngine.UNKNOWN) {
+            journal(orderId, userId, voucherId, 0, OrderJournal.REJECTED);
+        }
+    }
+
+    /**
+     * 记一条到本地日志（开启时）：意图和受理都等待组提交落盘，超时不影响下单结果；明确没有受理的只追加不等
+     * 意图在执行脚本之前落盘，宕机后重启才能按意图到 Redis 确认
+     */
+    private void journal(long orderId, Long userId, Long voucherId, int buySeq, int kind) {
+        if (orderJournal == null) {
+            return;
+        }
+        long wait = seckillProperties.getJournal().getSyncWait().toMillis();
+        if (wait <= 0 || kind == OrderJournal.REJECTED) {
+            orderJournal.append(orderId, userId, voucherId, buySeq, kind);
+        } else if (!orderJournal.appendAndWait(orderId, userId, voucherId, buySeq, kind, wait)) {
+            log.warn("订单未能及时写入本地日志, orderId={}", orderId);
+        }
     }
 
     /**
@@ -93,106 +345,615 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     public Result seckillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
 
+        // 本地售罄标记：已售罄直接拒绝，不再访问 Redis
+        if (soldOutGate.isSoldOut(voucherId)) {
+            seckillMetrics.record(SeckillMetrics.Outcome.SOLD_OUT);
+            return Result.fail("库存不足/未预热");
+        }
+        long startMillis = System.currentTimeMillis();
+
         // ✅ orderId 要先生成，传给Lua，让Lua把订单写进stream（老逻辑就是这样）
         long orderId = redisIDWorker.nextId("order");
 
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                String.valueOf(orderId)
-        );
-
-        if (result == null) return Result.fail("系统繁忙，请稍后重试");
+        // 先记意图：脚本执行了但这里没拿到结果（异常 / 超时 / 宕机）时，重启按意图到 Redis 确认
+        journal(orderId, userId, voucherId, 0, OrderJournal.INTENT);
 
-        int r = result.intValue();
-        if (r == 1) return Result.fail("库存不足/未预热");
-        if (r == 2) return Result.fail("不能重复下单");
-        if (r != 0) return Result.fail("下单失败");
+        // 内存引擎模式由本节点引擎判定；租约模式从本节点租到的库存里卖；否则执行 seckill.lua（开启微批时攒批执行）
+        int raw;
+        if (seckillEngine.isEnabled()) {
+            raw = seckillEngine.execute(voucherId, userId, orderId);
+        } else if (seckillStockLeaser.isEnabled()) {
+            raw = seckillStockLeaser.execute(voucherId, userId, orderId);
+        } else {
+            raw = executeScript(voucherId, userId, orderId);
+        }
 
+        int r = SeckillStockManager.resultCode(raw);
+        seckillMetrics.recordSeckill(r);
+        journalOutcome(orderId, userId, voucherId, raw);
+        if (r == SeckillEngine.BUSY) return Result.fail("系统繁忙，请稍后重试");
+        // 订单可能已经受理：带上订单号让用户查询订单状态，不提示重试
+        if (r == SeckillEngine.UNKNOWN) return new Result(false, "下单结果确认中，请稍后查询订单状态", orderId, null);
+        if (r == SeckillEngine.NOT_OWNER) return forwardToOwner(voucherId);
+        if (r == 1) {
+            soldOutGate.markSoldOut(voucherId, startMillis);
+            return Result.fail("库存不足/未预热");
+        }
+        if (r != 0) return Result.fail(seckillFailMessage(r));
         return Result.ok(orderId);
     }
 
     /**
-     * Stream消费者：读取 -> 落库 -> ACK；异常 -> 处理pending-list
+     * 执行 seckill.lua（开启微批时攒批执行）：分桶的券由这里选桶，从用户所在的桶开始，
+     * 返回 1 说明这个桶空了，换下一个桶再调一次，直到有结果或所有桶都空
+     */
+    private int executeScript(Long voucherId, Long userId, long orderId) {
+        SeckillStockManager.Meta meta = seckillStockManager.meta(voucherId);
+        List<String> args = seckillStockManager.seckillArgs(voucherId, userId, orderId, meta, false);
+        int code = 1;
+        for (int bucket : meta.bucketOrder(userId)) {
+            List<String> keys = seckillStockManager.seckillKeys(voucherId, userId, orderId, meta, bucket, null);
+            if (seckillBatcher.isEnabled()) {
+                code = seckillBatcher.execute(keys, args);
+            } else {
+                Long r = stringRedisTemplate.execute(SECKILL_SCRIPT, keys, args.toArray());
+                code = r == null ? SeckillEngine.BUSY : r.intValue();
+            }
+            if (code != 1) {
+                return code;
+            }
+            meta.markEmpty(bucket);
+        }
+        return code;
+    }
+
+    /**
+     * 一次下单多张券：一次号段分配 + 一次 seckill_batch.lua，所有订单在同一个脚本里写入 stream
+     * - allOrNothing：任一张失败则都不扣，整体返回失败（data 为逐张原因）；内存引擎模式（engine.mode = memory）下直接拒绝：
+     *   有过流量的券都被某个节点的引擎持有，seckill.lua 对它们总是返回 5（持有节点自己执行也一样），
+     *   而引擎是逐张判定、异步写入的，做不到多张券一起成功或一起不扣
+     * - 否则逐张返回结果；被内存引擎持有的券退回单券接口（由它交给本节点引擎或转发给持有节点）
+     */
+    @Override
+    public Result seckillVouchers(List<Long> voucherIds, boolean allOrNothing) {
+        if (voucherIds == null || voucherIds.isEmpty()) {
+            return Result.fail("请选择要抢购的券");
+        }
+        // 同一张券在一次请求里只下一单，重复的券 id 去掉
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(voucherIds));
+        if (ids.size() > MAX_BATCH_VOUCHERS) {
+            return Result.fail("一次最多抢购" + MAX_BATCH_VOUCHERS + "张券");
+        }
+        if (allOrNothing && seckillEngine.isEnabled()) {
+            return Result.fail("当前不支持全部成功才下单，请逐张抢购");
+        }
+        Long userId = UserHolder.getUser().getId();
+        long startMillis = System.currentTimeMillis();
+
+        // 本地售罄标记：已售罄的券不进脚本
+        Map<Long, Integer> codes = new HashMap<>();
+        List<Long> candidates = new ArrayList<>(ids.size());
+        for (Long voucherId : ids) {
+            if (soldOutGate.isSoldOut(voucherId)) {
+                codes.put(voucherId, 1);
+                seckillMetrics.record(SeckillMetrics.Outcome.SOLD_OUT);
+            } else {
+                candidates.add(voucherId);
+            }
+        }
+        if (allOrNothing && !codes.isEmpty()) {
+            candidates.clear();
+        }
+
+        Map<Long, Long> orderIds = new HashMap<>();
+        // 结果未知的券：订单可能已经受理，带上订单号让用户查询订单状态
+        Map<Long, Long> unknownIds = new HashMap<>();
+        if (!candidates.isEmpty()) {
+            // 内存引擎持有的券由引擎线程判定，脚本会返回 5
+            long[] allocated = redisIDWorker.nextIds("order", candidates.size());
+            // 租约模式只扣本节点租约（用完返回 6，由单券接口重新租）；本地计数不在这里调整，多扣的部分由单券接口遇到租约用完时重新校正
+            String leaseNode = seckillStockLeaser.isEnabled() ? seckillStockLeaser.node() : null;
+            List<String> keys = new ArrayList<>(candidates.size() * 7);
+            List<String> args = new ArrayList<>(3 + candidates.size() * 12);
+            args.add(allOrNothing ? "all" : "best");
+            args.add("");
+            args.add("");
+            for (int i = 0; i < candidates.size(); i++) {
+                Long voucherId = candidates.get(i);
+                SeckillStockManager.Meta meta = seckillStockManager.meta(voucherId);
+                // 分桶的券按桶传多组候选 key，用户所在的桶在前，脚本里遇到空桶换下一组
+                List<Integer> buckets = leaseNode != null ? Collections.singletonList(0) : meta.bucketOrder(userId);
+                for (int bucket : buckets) {
+                    List<String> voucherKeys = seckillStockManager.seckillKeys(voucherId, userId, allocated[i], meta, bucket, leaseNode);
+                    keys.addAll(voucherKeys);
+                    args.set(1, String.valueOf(voucherKeys.size()));
+                }
+                List<String> voucherArgs = seckillStockManager.seckillArgs(voucherId, userId, allocated[i], meta, leaseNode != null);
+                args.add(String.valueOf(buckets.size()));
+                args.addAll(voucherArgs);
+                args.set(2, String.valueOf(voucherArgs.size()));
+            }
+            // 意图依次追加，只等最后一条落盘：组提交按追加顺序落盘，最后一条落盘时前面的也已落盘
+            int last = candidates.size() - 1;
+            for (int i = 0; i < last && orderJournal != null; i++) {
+                orderJournal.append(allocated[i], userId, candidates.get(i), 0, OrderJournal.INTENT);
+            }
+            journal(allocated[last], userId, candidates.get(last), 0, OrderJournal.INTENT);
+            List<?> result = stringRedisTemplate.execute(SECKILL_BATCH_SCRIPT, keys, args.toArray());
+            if (result == null || result.size() != candidates.size()) {
+                seckillMetrics.record(SeckillMetrics.Outcome.BUSY);
+                return Result.fail("系统繁忙，请稍后重试");
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                Long voucherId = candidates.get(i);
+                int raw = ((Number) result.get(i)).intValue();
+                if (raw == SeckillBatcher.SCRIPT_ERROR) {
+                    // 脚本不回滚，这张券出错之前的写入可能已经生效
+                    log.warn("多券下单脚本执行出错: voucherId={}, orderId={}", voucherId, allocated[i]);
+                    raw = SeckillEngine.UNKNOWN;
+                }
+                journalOutcome(allocated[i], userId, voucherId, raw);
+                int r = SeckillStockManager.resultCode(raw);
+                codes.put(voucherId, r);
+                // 尽量多抢模式下持有节点的券、租约模式下中心库存已空的券退回单券接口，由单券接口计数
+                if (allOrNothing || !fallbackToSingle(r)) {
+                    seckillMetrics.recordSeckill(r);
+                }
+                if (r == 0) {
+                    orderIds.put(voucherId, allocated[i]);
+                } else if (r == SeckillEngine.UNKNOWN) {
+                    unknownIds.put(voucherId, allocated[i]);
+                } else if (r == 1 && !seckillStockLeaser.isEnabled()) {
+                    // 租约模式下中心库存空了，其他节点的租约里可能还有，不标记售罄
+                    soldOutGate.markSoldOut(voucherId, startMillis);
+                }
+            }
+        }
+
+        List<SeckillBatchItemDTO> items = new ArrayList<>(ids.size());
+        for (Long voucherId : ids) {
+            int r = codes.getOrDefault(voucherId, BATCH_SKIPPED);
+            if (r == 0) {
+                items.add(new SeckillBatchItemDTO(voucherId, orderIds.get(voucherId), null));
+            } else if (r == SeckillEngine.UNKNOWN) {
+                items.add(new SeckillBatchItemDTO(voucherId, unknownIds.get(voucherId), "下单结果确认中，请稍后查询订单状态"));
+            } else if (!allOrNothing && fallbackToSingle(r)) {
+                Result single = seckillVoucher(voucherId);
+                items.add(Boolean.TRUE.equals(single.getSuccess())
+                        ? new SeckillBatchItemDTO(voucherId, ((Number) single.getData()).longValue(), null)
+                        : new SeckillBatchItemDTO(voucherId, null, single.getErrorMsg()));
+            } else {
+                items.add(new SeckillBatchItemDTO(voucherId, null, seckillFailMessage(r)));
+            }
+        }
+        if (allOrNothing && !unknownIds.isEmpty()) {
+            // 出错的券可能已经扣减，不能说"未扣减任何库存"
+            return new Result(false, "部分券下单结果确认中，请稍后查询订单状态", items, null);
+        }
+        if (allOrNothing && orderIds.size() != ids.size()) {
+            return new Result(false, "部分券无法下单，本次未扣减任何库存", items, null);
+        }
+        return Result.ok(items);
+    }
+
+    /**
+     * 尽量多抢模式下退回单券接口的结果：券被其他节点内存引擎持有；租约模式下本节点租约已用完（由单券接口重新租）
+     */
+    private boolean fallbackToSingle(int code) {
+        return code == SeckillEngine.NOT_OWNER
+                || ((code == 1 || code == LEASE_EXHAUSTED) && seckillStockLeaser.isEnabled());
+    }
+
+    /**
+     * 预约抽签登记：只写登记位图，不扣库存、不建单，开奖后由开奖任务统一建单
+     */
+    @Override
+    public Result registerLottery(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        switch (seckillLottery.register(voucherId, userId)) {
+            case 0:
+            case 2:
+                // 重复登记按成功处理
+                return Result.ok();
+            case 3: return Result.fail("登记尚未开始");
+            case 4: return Result.fail("登记已经截止");
+            default: return Result.fail("该券不支持预约抽签");
+        }
+    }
+
+    @Override
+    public Result queryLotteryResult(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(seckillLottery.result(voucherId, userId));
+    }
+
+    private static String seckillFailMessage(int code) {
+        switch (code) {
+            case 1: return "库存不足/未预热";
+            case 2: return "已达到限购数量，不能重复下单";
+            case 3: return "秒杀尚未开始";
+            case 4: return "秒杀已经结束";
+            case SeckillEngine.NOT_OWNER:
+            case LEASE_EXHAUSTED:
+            case SeckillEngine.BUSY: return "系统繁忙，请稍后重试";
+            case BATCH_SKIPPED: return "其他券下单失败，本券未扣减";
+            default: return "下单失败";
+        }
+    }
+
+    /**
+     * 券被某个节点的内存引擎持有：转发给持有节点处理
+     */
+    private Result forwardToOwner(Long voucherId) {
+        String owner = seckillEngine.isEnabled() ? seckillEngine.owner(voucherId)
+                : stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId);
+        if (owner == null || owner.equals(seckillEngine.self())) {
+            // 所有权正在切换
+            return Result.fail("系统繁忙，请稍后重试");
+        }
+        // null 表示请求没有送到持有节点，可以重试；已送达但结果未知时 forward 返回"结果确认中"
+        Result forwarded = seckillForwarder.forward(owner, voucherId);
+        return forwarded != null ? forwarded : Result.fail("系统繁忙，请稍后重试");
+    }
+
+    private long unpaidTimeoutMillis() {
+        SeckillProperties.Unpaid config = seckillProperties.getUnpaid();
+        return config.isEnabled() ? config.getTimeout().toMillis() : 0;
+    }
+
+    /**
+     * 我的订单：WHERE user_id = ? [AND status = ?] [AND id < lastId] ORDER BY id DESC LIMIT n
+     * - 走 (user_id, id) / (user_id, status, id) 索引，每页只扫 n + 1 行，和表有多大、翻到第几页无关
+     * - 不带过滤条件的第一页（最常访问）缓存在 Redis，消费端落库 / 超时取消后删除
+     * - 删除时递增版本号，回写前比对查库前读到的版本：查库期间发生过失效就不写，避免旧页被写回缓存
+     */
+    @Override
+    public Result queryMyOrders(Long lastId, Integer status) {
+        Long userId = UserHolder.getUser().getId();
+        boolean firstPage = lastId == null && status == null;
+        String cacheKey = RedisConstants.CACHE_ORDER_PAGE_KEY + userId;
+        String versionKey = RedisConstants.CACHE_ORDER_PAGE_VERSION_KEY + userId;
+        String version = null;
+        if (firstPage) {
+            List<String> cached = stringRedisTemplate.opsForValue().multiGet(Arrays.asList(cacheKey, versionKey));
+            if (cached != null && cached.get(0) != null) {
+                return Result.ok(JSONUtil.toBean(cached.get(0), OrderPageDTO.class));
+            }
+            version = cached == null || cached.get(1) == null ? "0" : cached.get(1);
+        }
+
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<VoucherOrder> orders = query()
+                .eq("user_id", userId)
+                .eq(status != null, "status", status)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("limit " + (size + 1))
+                .list();
+        OrderPageDTO page = new OrderPageDTO();
+        page.setHasMore(orders.size() > size);
+        if (orders.size() > size) {
+            orders = orders.subList(0, size);
+        }
+        page.setList(orders);
+        page.setLastId(orders.isEmpty() ? null : orders.get(orders.size() - 1).getId());
+
+        if (firstPage) {
+            stringRedisTemplate.execute(CACHE_SET_IF_VERSION_SCRIPT, Arrays.asList(cacheKey, versionKey),
+                    version, JSONUtil.toJsonStr(page), String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_ORDER_PAGE_TTL)));
+        }
+        return Result.ok(page);
+    }
+
+    @Override
+    public void evictOrderPageCache(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (Long userId : userIds) {
+                    // 先递增版本号（让查库中的请求放弃回写）再删除；版本号比缓存多保留一个有效期
+                    String versionKey = RedisConstants.CACHE_ORDER_PAGE_VERSION_KEY + userId;
+                    ops.opsForValue().increment(versionKey);
+                    ops.expire(versionKey, RedisConstants.CACHE_ORDER_PAGE_TTL * 2, TimeUnit.MINUTES);
+                    ops.delete(RedisConstants.CACHE_ORDER_PAGE_KEY + userId);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 查询订单状态：优先读 Redis 状态记录，记录过期时回查一次数据库
+     */
+    @Override
+    public Result queryOrderState(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(loadOrderState(orderId, userId));
+    }
+
+    /**
+     * 订阅订单状态（SSE）：先推当前状态，未到终态则等待消费端推送，超时后结束由客户端重连
+     */
+    @Override
+    public Flux<OrderStateDTO> watchOrderState(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        Duration timeout = seckillProperties.getOrderState().getSseTimeout();
+        return Flux.defer(() -> {
+            // 先登记再读当前状态，避免读完到订阅之间的推送丢失
+            OrderStateTracker.Waiter waiter = orderStateTracker.register(orderId);
+            return Mono.fromCallable(() -> loadOrderState(orderId, userId))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapMany(current -> {
+                        if (!OrderStateTracker.ACCEPTED.equals(current.getState())) {
+                            return Flux.just(current);
+                        }
+                        return Flux.concat(
+                                Mono.just(current),
+                                waiter.mono()
+                                        .timeout(timeout, Mono.empty())
+                                        .map(state -> new OrderStateDTO(orderId, current.getVoucherId(), state))
+                        );
+                    })
+                    .doFinally(signal -> orderStateTracker.release(orderId, waiter));
+        });
+    }
+
+    private OrderStateDTO loadOrderState(Long orderId, Long userId) {
+        Map<Object, Object> record = orderStateTracker.get(orderId);
+        if (!record.isEmpty()) {
+            // 只能看自己的订单
+            if (!String.valueOf(userId).equals(record.get("userId"))) {
+                return new OrderStateDTO(orderId, null, OrderStateTracker.UNKNOWN);
+            }
+            return new OrderStateDTO(orderId, Long.valueOf(record.get("voucherId").toString()),
+                    record.get("state").toString());
+        }
+        VoucherOrder voucherOrder = getById(orderId);
+        if (voucherOrder == null || !userId.equals(voucherOrder.getUserId())) {
+            return new OrderStateDTO(orderId, null, OrderStateTracker.UNKNOWN);
+        }
+        return new OrderStateDTO(orderId, voucherOrder.getVoucherId(), OrderStateTracker.PERSISTED);
+    }
+
+    /**
+     * Stream消费者：读取 -> 落库 -> ACK；异常 -> 留在pending-list，退避重试 / 转死信
+     * 批量模式下一次读多条、一个事务落库、一次XACK
      */
     private class VoucherOrderHandler implements Runnable {
+        private long nextPendingScan;
+        private long nextAutoClaim;
+
         @Override
         public void run() {
+            long nextRebalance = System.currentTimeMillis() + seckillProperties.getStream().getClaimInterval().toMillis();
             while (running.get() && !Thread.currentThread().isInterrupted()) {
                 try {
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from(GROUP_NAME, CONSUMER_NAME),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed())
-                    );
-
-                    if (list == null || list.isEmpty()) continue;
-
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    VoucherOrder voucherOrder = toVoucherOrder(record);
+                    // 定期心跳 + 续约 + 再平衡分区
+                    if (System.currentTimeMillis() >= nextRebalance) {
+                        orderStreamManager.rebalance(VoucherOrderServiceImpl.this::hasPending);
+                        nextRebalance = System.currentTimeMillis() + seckillProperties.getStream().getClaimInterval().toMillis();
+                    }
 
-                    // 脏消息（比如 init）直接ACK清理
-                    if (voucherOrder == null) {
-                        stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP_NAME, record.getId());
+                    List<String> streamKeys = orderStreamManager.ownedStreamKeys();
+                    if (streamKeys.isEmpty()) {
+                        // 暂时没有认领到分区，等下一轮再平衡
+                        sleepQuietly(500);
                         continue;
                     }
 
-                    // ✅ 关键：通过代理调用事务方法
-                    IVoucherOrderService proxy = voucherOrderServiceProvider.getObject();
-                    proxy.createVoucherOrder(voucherOrder);
+                    recoverIfDue();
 
-                    // ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP_NAME, record.getId());
+                    List<MapRecord<String, Object, Object>> list = readNewRecords(streamKeys);
 
+                    if (list == null || list.isEmpty()) continue;
+
+                    process(list);
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 } catch (IllegalStateException e) {
                     // 通常是应用关闭/重启，Redis连接工厂销毁
                     log.warn("Redis连接不可用（应用可能在关闭/重启），订单处理线程退出");
                     break;
                 } catch (Exception e) {
-                    log.error("处理订单异常，准备处理pending-list", e);
-                    try {
-                        handlePendingList();
-                    } catch (Exception ex) {
-                        log.error("处理pending-list异常", ex);
-                    }
+                    // 失败的消息留在pending-list，按投递次数退避后由 recoverIfDue 重试，超过上限转死信
+                    log.error("处理订单异常，留待退避重试", e);
                     // 防刷屏
                     sleepQuietly(50);
                 }
             }
         }
 
-        private void handlePendingList() {
-            while (running.get() && !Thread.currentThread().isInterrupted()) {
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from(GROUP_NAME, CONSUMER_NAME),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(STREAM_KEY, ReadOffset.from("0"))
-                );
+        /**
+         * 单线程模式直接落库；工作线程模式按 userId 分发，由工作线程落库 + ACK
+         */
+        private void process(List<MapRecord<String, Object, Object>> records) throws InterruptedException {
+            if (workerPool == null) {
+                handleRecords(records);
+            } else {
+                workerPool.dispatch(records);
+            }
+        }
 
-                if (list == null || list.isEmpty()) break;
+        /**
+         * 读新消息（一次 XREADGROUP 同时读所有持有的分区）：
+         * 单线程非批量模式一次1条，工作线程模式一次读一批喂给各个工作线程；批量模式读到第一条后在linger时间内继续凑批
+         */
+        private List<MapRecord<String, Object, Object>> readNewRecords(List<String> streamKeys) {
+            SeckillProperties.Consumer config = seckillProperties.getConsumer();
+            int batchSize = config.isBatchEnabled() || workerPool != null ? Math.max(config.getBatchSize(), 1) : 1;
+            StreamOffset<String>[] offsets = toOffsets(streamKeys, ReadOffset.lastConsumed());
 
-                MapRecord<String, Object, Object> record = list.get(0);
-                VoucherOrder voucherOrder = toVoucherOrder(record);
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer(),
+                    StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                    offsets
+            );
+            if (!config.isBatchEnabled() || batchSize == 1 || list == null || list.isEmpty() || list.size() >= batchSize) {
+                return list;
+            }
 
-                if (voucherOrder == null) {
-                    stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP_NAME, record.getId());
-                    continue;
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(list);
+            long deadline = System.currentTimeMillis() + config.getBatchLinger().toMillis();
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                // 注意：block(0) 表示无限阻塞，所以剩余时间用完直接退出
+                if (remaining <= 0) break;
+                List<MapRecord<String, Object, Object>> more = stringRedisTemplate.opsForStream().read(
+                        consumer(),
+                        StreamReadOptions.empty().count(batchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                        offsets
+                );
+                if (more == null || more.isEmpty()) break;
+                batch.addAll(more);
+            }
+            return batch;
+        }
+
+        /**
+         * 重试 / 死信 / 接管，都按时间间隔触发，不阻塞正常消费
+         */
+        private void recoverIfDue() throws InterruptedException {
+            long now = System.currentTimeMillis();
+            SeckillProperties.Retry config = seckillProperties.getRetry();
+            if (now >= nextPendingScan) {
+                nextPendingScan = now + config.getPendingScanInterval().toMillis();
+                if (workerPool == null) {
+                    orderStreamRecovery.retryPending((stream, id) -> false, VoucherOrderServiceImpl.this::handleRecords);
+                } else {
+                    // 重试也按 userId 分发，保证单用户顺序；还在工作线程里的消息不算失败
+                    orderStreamRecovery.retryPending(workerPool::isInflight, records -> {
+                        try {
+                            workerPool.dispatch(records);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
                 }
+            }
+            if (now >= nextAutoClaim) {
+                nextAutoClaim = now + config.getAutoclaimInterval().toMillis();
+                orderStreamRecovery.autoClaim();
+            }
+        }
+    }
 
-                try {
-                    IVoucherOrderService proxy = voucherOrderServiceProvider.getObject();
-                    proxy.createVoucherOrder(voucherOrder);
-                    stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP_NAME, record.getId());
-                } catch (Exception e) {
-                    log.error("处理pending订单异常", e);
-                    sleepQuietly(50);
+    /**
+     * 落库 + ACK：单条走 createVoucherOrder，多条走 createVoucherOrders，最后每个分区一次XACK整批确认
+     */
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        Map<String, List<String>> recordIdsByStream = new LinkedHashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            recordIdsByStream.computeIfAbsent(record.getStream(), k -> new ArrayList<>())
+                    .add(record.getId().getValue());
+            // 脏消息（比如 init）不落库，随整批一起ACK清理
+            VoucherOrder voucherOrder = toVoucherOrder(record);
+            if (voucherOrder != null) {
+                voucherOrders.add(voucherOrder);
+            }
+        }
+
+        // ✅ 关键：通过代理调用事务方法
+        IVoucherOrderService proxy = voucherOrderServiceProvider.getObject();
+        Set<Long> inserted = Collections.emptySet();
+        long persistStart = System.nanoTime();
+        if (voucherOrders.size() == 1) {
+            VoucherOrder voucherOrder = voucherOrders.get(0);
+            if (proxy.createVoucherOrder(voucherOrder)) {
+                inserted = Collections.singleton(voucherOrder.getId());
+            }
+        } else if (!voucherOrders.isEmpty()) {
+            inserted = proxy.createVoucherOrders(voucherOrders);
+        }
+        if (!voucherOrders.isEmpty()) {
+            seckillMetrics.recordPersist(inserted.size(), System.nanoTime() - persistStart);
+        }
+
+        // ACK确认
+        for (Map.Entry<String, List<String>> entry : recordIdsByStream.entrySet()) {
+            stringRedisTemplate.opsForStream().acknowledge(
+                    entry.getKey(), GROUP_NAME, entry.getValue().toArray(new String[0]));
+        }
+
+        // 新落库的订单让用户的第一页缓存失效（事务已提交）
+        if (!inserted.isEmpty()) {
+            Set<Long> userIds = new HashSet<>();
+            for (VoucherOrder order : voucherOrders) {
+                if (inserted.contains(order.getId())) {
+                    userIds.add(order.getUserId());
                 }
             }
+            try {
+                evictOrderPageCache(userIds);
+            } catch (Exception e) {
+                log.warn("清理订单列表缓存失败, users={}", userIds.size(), e);
+            }
+        }
+
+        // 更新订单状态（失败不影响已ACK的订单，客户端查不到终态时会回查数据库）
+        try {
+            updateOrderStates(voucherOrders, inserted);
+        } catch (Exception e) {
+            log.warn("更新订单状态失败, size={}", voucherOrders.size(), e);
         }
     }
 
+    /**
+     * 本次没确认插入的订单（重投 / 重复 / 库存不足）回查一次主键，区分"早已落库"和"落库失败"
+     */
+    private void updateOrderStates(List<VoucherOrder> voucherOrders, Set<Long> inserted) {
+        if (!orderStateTracker.isEnabled() || voucherOrders.isEmpty()) {
+            return;
+        }
+        List<VoucherOrder> persisted = new ArrayList<>(voucherOrders.size());
+        List<VoucherOrder> unknown = new ArrayList<>();
+        for (VoucherOrder order : voucherOrders) {
+            (inserted.contains(order.getId()) ? persisted : unknown).add(order);
+        }
+        List<VoucherOrder> failed = new ArrayList<>();
+        if (!unknown.isEmpty()) {
+            Set<Long> existing = new HashSet<>();
+            List<Long> unknownIds = new ArrayList<>(unknown.size());
+            unknown.forEach(order -> unknownIds.add(order.getId()));
+            for (VoucherOrder order : query().select("id").in("id", unknownIds).list()) {
+                existing.add(order.getId());
+            }
+            for (VoucherOrder order : unknown) {
+                (existing.contains(order.getId()) ? persisted : failed).add(order);
+            }
+        }
+        orderStateTracker.update(persisted, failed);
+    }
+
+    /**
+     * 当前消费者在某个分区上是否还有未ACK的消息
+     */
+    private boolean hasPending(String streamKey) {
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(streamKey, consumer(), Range.unbounded(), 1L);
+        return pending != null && !pending.isEmpty();
+    }
+
+    private Consumer consumer() {
+        return Consumer.from(GROUP_NAME, orderStreamManager.getConsumerName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamOffset<String>[] toOffsets(List<String> streamKeys, ReadOffset readOffset) {
+        StreamOffset<String>[] offsets = new StreamOffset[streamKeys.size()];
+        for (int i = 0; i < streamKeys.size(); i++) {
+            offsets[i] = StreamOffset.create(streamKeys.get(i), readOffset);
+        }
+        return offsets;
+    }
+
     private VoucherOrder toVoucherOrder(MapRecord<String, Object, Object> record) {
         Map<Object, Object> value = record.getValue();
         VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
@@ -204,6 +965,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             log.warn("订单字段缺失，直接ACK跳过: recordId={}, value={}", record.getId(), value);
             return null;
         }
+        // 升级前写入 Stream 的消息没有 buySeq，按一人一单的第 1 单处理
+        if (voucherOrder.getBuySeq() == null) {
+            voucherOrder.setBuySeq(1);
+        }
         return voucherOrder;
     }
 
@@ -216,11 +981,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     /**
-     * 事务：1) Redisson防重（兜底） 2) 防重复下单 3) 扣MySQL库存 4) 保存订单
+     * 事务：1) Redisson防重（兜底） 2) 限购校验 3) 扣MySQL库存 4) 保存订单
+     * 幂等模式下改为：INSERT IGNORE（唯一约束 (user_id, voucher_id, buy_seq) 去重）+ 扣MySQL库存
      */
     @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
+        // 幂等模式：靠唯一约束去重，不加锁也不查 count
+        if (isIdempotentMode()) {
+            return createVoucherOrderIdempotent(voucherOrder);
+        }
+
         Long userId = voucherOrder.getUserId();
         Long voucherId = voucherOrder.getVoucherId();
 
@@ -229,15 +1000,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         boolean isLock = lock.tryLock();
         if (!isLock) {
             log.warn("不允许重复下单(抢锁失败), userId={}", userId);
-            return;
+            return false;
         }
 
         try {
-            // 1) 一人一单校验
-            Integer count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-            if (count != null && count > 0) {
-                log.warn("该用户已经购买过一次, userId={}, voucherId={}", userId, voucherId);
-                return;
+            // 1) 限购校验：同一个订单 id / buySeq 已落库说明是重复消息（或已由本地日志补落库），已购数达到限购数说明超买
+            List<VoucherOrder> bought = query().select("id", "buy_seq").eq("user_id", userId).eq("voucher_id", voucherId).list();
+            if (bought.stream().anyMatch(order -> voucherOrder.getId().equals(order.getId())
+                    || voucherOrder.getBuySeq().equals(order.getBuySeq()))
+                    || bought.size() >= perUserLimits(Collections.singleton(voucherId)).get(voucherId)) {
+                log.warn("该用户已达到限购数量, userId={}, voucherId={}, buySeq={}", userId, voucherId, voucherOrder.getBuySeq());
+                return false;
             }
 
             // 2) 扣减 MySQL 库存（乐观条件：stock > 0）
@@ -249,14 +1022,208 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
             if (!success) {
                 log.warn("扣减MySQL库存失败, voucherId={}", voucherId);
-                return;
+                return false;
             }
 
             // 3) 保存订单
             save(voucherOrder);
+            return true;
 
         } finally {
             lock.unlock();
         }
     }
+
+    /**
+     * 批量事务：1) 批内去重 2) 一次查询过滤已达限购数的用户 3) 按券聚合扣MySQL库存 4) 多值插入订单
+     * 只由消费线程调用，Redis侧Lua已保证限购，这里的校验只是兜底
+     * @return 本次确认插入的订单id（幂等模式下部分插入时无法区分具体是哪几条，由调用方回查）
+     */
+    @Override
+    @Transactional
+    public Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1) 批内按 (userId, voucherId, buySeq) 去重，按券分组
+        Map<Long, List<VoucherOrder>> ordersByVoucher = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (!seen.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId() + ":" + voucherOrder.getBuySeq())) {
+                log.warn("批内重复订单, 跳过: {}", voucherOrder);
+                continue;
+            }
+            userIds.add(voucherOrder.getUserId());
+            ordersByVoucher.computeIfAbsent(voucherOrder.getVoucherId(), k -> new ArrayList<>()).add(voucherOrder);
+        }
+
+        if (isIdempotentMode()) {
+            return createVoucherOrdersIdempotent(ordersByVoucher);
+        }
+
+        // 2) 限购校验：一次查询查出本批用户已有的订单，按 (userId, voucherId) 统计已购数
+        List<VoucherOrder> existing = query()
+                .select("id", "user_id", "voucher_id", "buy_seq")
+                .in("voucher_id", ordersByVoucher.keySet())
+                .in("user_id", userIds)
+                .list();
+        Set<String> boughtSeqs = new HashSet<>();
+        Set<Long> existingIds = new HashSet<>();
+        Map<String, Integer> boughtCounts = new HashMap<>();
+        for (VoucherOrder order : existing) {
+            existingIds.add(order.getId());
+            boughtSeqs.add(order.getUserId() + ":" + order.getVoucherId() + ":" + order.getBuySeq());
+            boughtCounts.merge(order.getUserId() + ":" + order.getVoucherId(), 1, Integer::sum);
+        }
+
+        Map<Long, Integer> quotas = perUserLimits(ordersByVoucher.keySet());
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            int quota = quotas.get(voucherId);
+            List<VoucherOrder> orders = new ArrayList<>(entry.getValue().size());
+            for (VoucherOrder order : entry.getValue()) {
+                String userVoucher = order.getUserId() + ":" + voucherId;
+                if (existingIds.contains(order.getId()) || boughtSeqs.contains(userVoucher + ":" + order.getBuySeq())
+                        || boughtCounts.getOrDefault(userVoucher, 0) >= quota) {
+                    log.warn("该用户已达到限购数量, userId={}, voucherId={}, buySeq={}", order.getUserId(), voucherId, order.getBuySeq());
+                    continue;
+                }
+                boughtCounts.merge(userVoucher, 1, Integer::sum);
+                orders.add(order);
+            }
+            if (orders.isEmpty()) continue;
+
+            // 3) 按券聚合扣减 MySQL 库存（乐观条件：stock >= n）
+            if (!decreaseStock(voucherId, orders.size())) {
+                // 库存不够整批扣：按剩余库存截断后再扣一次
+                SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+                int stock = seckillVoucher == null || seckillVoucher.getStock() == null ? 0 : seckillVoucher.getStock();
+                log.warn("扣减MySQL库存失败, voucherId={}, need={}, stock={}", voucherId, orders.size(), stock);
+                if (stock <= 0) continue;
+                orders = orders.subList(0, Math.min(stock, orders.size()));
+                if (!decreaseStock(voucherId, orders.size())) continue;
+            }
+            toSave.addAll(orders);
+        }
+
+        // 4) 一条多值 INSERT 保存订单
+        Set<Long> inserted = new HashSet<>();
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+            for (VoucherOrder order : toSave) {
+                inserted.add(order.getId());
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * 幂等落库（单条）：INSERT IGNORE 命中 uk_user_voucher_seq 即视为重复；插入成功才扣库存，扣不动则删掉刚插入的订单
+     * @return 是否真正落库
+     */
+    private boolean createVoucherOrderIdempotent(VoucherOrder voucherOrder) {
+        if (getBaseMapper().insertIgnore(voucherOrder) == 0) {
+            log.warn("重复订单已忽略, orderId={}, userId={}, voucherId={}",
+                    voucherOrder.getId(), voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            return false;
+        }
+        if (!decreaseStock(voucherOrder.getVoucherId(), 1)) {
+            log.warn("扣减MySQL库存失败, voucherId={}", voucherOrder.getVoucherId());
+            removeById(voucherOrder.getId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 幂等落库（批量）：每个券一条 INSERT IGNORE 多值插入，按实际插入行数聚合扣库存；
+     * 库存不够整批扣时回滚到保存点，改为逐条落库直到库存扣完
+     */
+    private Set<Long> createVoucherOrdersIdempotent(Map<Long, List<VoucherOrder>> ordersByVoucher) {
+        TransactionStatus status = TransactionAspectSupport.currentTransactionStatus();
+        Set<Long> confirmed = new HashSet<>();
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+
+            Object savepoint = status.createSavepoint();
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            if (inserted < orders.size()) {
+                log.warn("批内有重复订单已忽略, voucherId={}, total={}, inserted={}", voucherId, orders.size(), inserted);
+            }
+            if (inserted == 0 || decreaseStock(voucherId, inserted)) {
+                status.releaseSavepoint(savepoint);
+                if (inserted == orders.size()) {
+                    orders.forEach(order -> confirmed.add(order.getId()));
+                }
+                continue;
+            }
+
+            log.warn("扣减MySQL库存失败, 改为逐条落库, voucherId={}, need={}", voucherId, inserted);
+            status.rollbackToSavepoint(savepoint);
+            for (VoucherOrder order : orders) {
+                if (getBaseMapper().insertIgnore(order) == 0) continue;
+                if (!decreaseStock(voucherId, 1)) {
+                    // 库存已扣完，剩下的订单不再落库
+                    removeById(order.getId());
+                    break;
+                }
+                confirmed.add(order.getId());
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * 未支付超时取消：状态 1（未支付） -> 4（已取消），同一事务内归还数据库库存
+     * @return 订单当前记录（已取消的 status 为 4），订单还没落库返回 null
+     */
+    @Override
+    @Transactional
+    public VoucherOrder cancelUnpaidOrder(Long orderId) {
+        VoucherOrder voucherOrder = getById(orderId);
+        if (voucherOrder == null) {
+            return null;
+        }
+        boolean cancelled = update()
+                .set("status", 4)
+                .eq("id", orderId)
+                .eq("status", 1)
+                .update();
+        if (cancelled) {
+            seckillVoucherService.update()
+                    .setSql("stock = stock + 1")
+                    .eq("voucher_id", voucherOrder.getVoucherId())
+                    .update();
+            voucherOrder.setStatus(4);
+        }
+        return voucherOrder;
+    }
+
+    private boolean isIdempotentMode() {
+        return seckillProperties.getConsumer().getPersistMode() == SeckillProperties.PersistMode.IDEMPOTENT;
+    }
+
+    /**
+     * 在落库事务里从 tb_seckill_voucher 读每人限购数（不依赖 Redis 元信息：Redis 被清空后 meta 可能还没预热）
+     * @return voucherId -> 限购数，券不存在按 1 处理
+     */
+    private Map<Long, Integer> perUserLimits(Collection<Long> voucherIds) {
+        Map<Long, Integer> quotas = new HashMap<>();
+        for (SeckillVoucher voucher : seckillVoucherService.query()
+                .select("voucher_id", "per_user_limit").in("voucher_id", voucherIds).list()) {
+            quotas.put(voucher.getVoucherId(), SeckillStockManager.normalizeQuota(voucher.getPerUserLimit()));
+        }
+        for (Long voucherId : voucherIds) {
+            quotas.putIfAbsent(voucherId, 1);
+        }
+        return quotas;
+    }
+
+    private boolean decreaseStock(Long voucherId, int count) {
+        return seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
+    }
 }
@@ -7,10 +7,12 @@ import com.yjshz.entity.Voucher;
 import com.yjshz.mapper.VoucherMapper;
 import com.yjshz.service.ISeckillVoucherService;
 import com.yjshz.service.IVoucherService;
-import com.yjshz.utils.RedisConstants;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.yjshz.utils.SeckillSoldOutGate;
+import com.yjshz.utils.SeckillStockManager;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -22,7 +24,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillSoldOutGate soldOutGate;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -49,13 +54,59 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
             SeckillVoucher seckillVoucher = new SeckillVoucher();
             seckillVoucher.setVoucherId(voucher.getId());
             seckillVoucher.setStock(voucher.getStock());
+            int buckets = seckillStockManager.normalizeBuckets(voucher.getStockBuckets());
+            seckillVoucher.setStockBuckets(buckets);
+            seckillVoucher.setPerUserLimit(SeckillStockManager.normalizeQuota(voucher.getPerUserLimit()));
+            // 预约抽签：生效时间内登记，失效后按库存开奖；Redis 库存写 0，不参与先到先得
+            seckillVoucher.setSaleMode(Integer.valueOf(SeckillStockManager.SALE_MODE_LOTTERY).equals(voucher.getSaleMode())
+                    ? SeckillStockManager.SALE_MODE_LOTTERY : 0);
             seckillVoucher.setBeginTime(voucher.getBeginTime());
             seckillVoucher.setEndTime(voucher.getEndTime());
             seckillVoucherService.save(seckillVoucher);
 
-            // 2.2 预热 Redis 库存（Lua 扣减用的就是它）
-            String stockKey = RedisConstants.SECKILL_STOCK_KEY + voucher.getId();
-            stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(voucher.getStock()));
+            // 2.2 预热 Redis 库存（Lua 扣减用的就是它），热点券可拆成多个桶
+            seckillStockManager.initStock(seckillVoucher);
+            soldOutGate.reset(voucher.getId());
+        }
+    }
+
+    /**
+     * 秒杀券补库存：先加 MySQL 库存，事务提交后再加 Redis 库存并清除各节点的本地售罄标记
+     * （提交失败时 Redis 不能多出数据库没有的库存）
+     */
+    @Override
+    @Transactional
+    public Result replenishSeckillStock(Long voucherId, Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("补充库存数量必须大于0");
         }
+        // 1) 先加 MySQL 库存，券不存在 / 抽签券已开奖直接失败
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .select("voucher_id", "sale_mode")
+                .eq("voucher_id", voucherId)
+                .one();
+        boolean success = voucher != null && seckillVoucherService.update()
+                .setSql("stock = stock + " + amount)
+                .eq("voucher_id", voucherId)
+                .eq("draw_status", 0)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在或已开奖");
+        }
+        // 抽签券的名额在开奖时按数据库库存发放，Redis 库存保持为 0
+        // 以数据库的 sale_mode 为准：Redis 元信息被清空 / 过期时不能误把抽签券当成先到先得
+        if (SeckillStockManager.isLottery(voucher)) {
+            return Result.ok();
+        }
+
+        // 2) 提交后再加 Redis 库存（Lua 扣减用的就是它，分桶时均分到各桶），有库存了清除售罄标记
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                seckillStockManager.addStock(voucherId, amount);
+                soldOutGate.reset(voucherId);
+            }
+        });
+        return Result.ok();
     }
 }
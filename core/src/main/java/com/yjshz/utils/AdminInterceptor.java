@@ -0,0 +1,34 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 管理接口（/admin/**）鉴权：登录用户必须在 seckill.admin.user-ids 里，名单为空时拒绝所有请求
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final SeckillProperties seckillProperties;
+
+    public AdminInterceptor(SeckillProperties seckillProperties) {
+        this.seckillProperties = seckillProperties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        if (!seckillProperties.getAdmin().getUserIds().contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package com.yjshz.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单层哈希时间轮：每 tick 前进一格，到期任务交给 executor 执行
+ * - 添加任务 O(1)（先进无锁队列，由时间轮线程放入对应格子），每 tick 只处理当前格子
+ * - 超过一圈的任务记录剩余圈数，每经过一次减一
+ * - 精度为一个 tick，只适合"到点附近执行"的场景（比如订单超时取消）
+ */
+@Slf4j
+public class HashedTimingWheel {
+
+    private final long tickMillis;
+    private final Queue<Timeout>[] wheel;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Executor executor;
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long startMillis;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String name, long tickMillis, int wheelSize, Executor executor) {
+        this.tickMillis = Math.max(tickMillis, 1);
+        this.wheel = new Queue[Math.max(wheelSize, 1)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new LinkedList<>();
+        }
+        this.executor = executor;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        startMillis = System.currentTimeMillis();
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * 在 deadlineMillis（毫秒时间戳）执行任务，已过期的任务在下一个 tick 执行
+     */
+    public void schedule(long deadlineMillis, Runnable task) {
+        pending.add(new Timeout(deadlineMillis, task));
+    }
+
+    private void run() {
+        while (running) {
+            long tickDeadline = startMillis + (tick + 1) * tickMillis;
+            long sleep = tickDeadline - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            transferPending();
+            expire(wheel[(int) (tick % wheel.length)]);
+            tick++;
+        }
+    }
+
+    /**
+     * 把新任务放进格子：按到期 tick 计算格子和剩余圈数
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            long deadlineTick = Math.max((timeout.deadline - startMillis) / tickMillis, tick);
+            timeout.rounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick % wheel.length)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            it.remove();
+            try {
+                executor.execute(timeout.task);
+            } catch (Exception e) {
+                log.error("时间轮任务提交失败", e);
+            }
+        }
+    }
+
+    private static final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private long rounds;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.yjshz.utils;
+
+/**
+ * long -> int 的开放寻址哈希表（线性探测），键值都是基本类型，不产生装箱对象
+ * - 只支持 get / increment，适合"用户已购件数"这种只增不删的计数
+ * - 非线程安全，只在单个线程里使用
+ */
+public class LongIntHashMap {
+
+    // 0 作为空槽标记，key 为 0 单独存
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasZero;
+    private int zeroValue;
+
+    public LongIntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < expected) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public int get(long key) {
+        if (key == 0) {
+            return hasZero ? zeroValue : 0;
+        }
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return values[i];
+            if (k == 0) return 0;
+        }
+    }
+
+    /**
+     * 计数 +delta，返回新值
+     */
+    public int increment(long key, int delta) {
+        if (key == 0) {
+            hasZero = true;
+            return zeroValue += delta;
+        }
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i] += delta;
+            }
+            if (k == 0) {
+                keys[i] = key;
+                values[i] = delta;
+                if (++size > keys.length * 3 / 4) {
+                    resize();
+                }
+                return delta;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new int[oldValues.length << 1];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k == 0) continue;
+            int i = index(k, mask);
+            while (keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+    }
+
+    private static int index(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
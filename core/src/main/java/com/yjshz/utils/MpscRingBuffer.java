@@ -0,0 +1,71 @@
+package com.yjshz.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者单消费者的无锁环形队列
+ * - 生产者 CAS 抢占写入位置，再把元素写进槽位（槽位非空即表示已发布）
+ * - 只有一个消费线程按顺序读取，读完把槽位清空并推进读指针
+ * - 队列满时 offer 直接返回 false，由调用方决定拒绝还是重试
+ */
+public class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    public MpscRingBuffer(int capacity) {
+        int size = 1;
+        while (size < Math.max(capacity, 2)) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public boolean offer(E e) {
+        while (true) {
+            long t = tail.get();
+            if (t - head.get() >= capacity()) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                slots.lazySet((int) (t & mask), e);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 只能由消费线程调用；返回本次取出的条数
+     */
+    public int drain(Consumer<E> consumer, int limit) {
+        long h = head.get();
+        int n = 0;
+        while (n < limit) {
+            int index = (int) (h & mask);
+            E e = slots.get(index);
+            if (e == null) {
+                // 还没有元素，或者生产者已抢到位置但还没写进来
+                break;
+            }
+            slots.lazySet(index, null);
+            h++;
+            head.lazySet(h);
+            consumer.accept(e);
+            n++;
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
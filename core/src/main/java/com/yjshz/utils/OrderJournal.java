@@ -0,0 +1,305 @@
+package com.yjshz.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * 本地订单日志：把下单意图和结果追加写入本机的内存映射文件，Redis 丢了已受理的订单（故障切换丢掉最后一段写入等）、
+ * 或者脚本执行了但应用没拿到结果（异常 / 超时 / 宕机）时，重启后据此补落库
+ * - 记录定长 40 字节：魔数 | orderId | userId | voucherId | buySeq | 类型 | CRC32(魔数之后、校验之前的字段)
+ * - 类型：INTENT 执行下单脚本之前写；ACCEPTED 受理后写（带 buySeq）；REJECTED 明确没有受理；只有意图的订单结果未知
+ * - 分段：{dir}/{创建时间毫秒}.journal，每段预分配 segmentSize 并整段映射，写满换新段；创建超过 retention 的旧段删除
+ * - 组提交：请求线程把记录放进无锁队列，写线程一次取一批写进映射区，只 force 一次，再统一通知这批请求
+ * - 只追加不改写；恢复时按段顺序扫描，遇到全零 / 魔数不对 / 校验失败就认为该段到此结束
+ * 非线程安全的部分（映射区、CRC）只由写线程访问
+ */
+@Slf4j
+public class OrderJournal {
+
+    public static final int RECORD_SIZE = 40;
+    private static final int MAGIC = 0x4A524E32;
+
+    // 记录类型
+    public static final int INTENT = 1;
+    public static final int ACCEPTED = 2;
+    public static final int REJECTED = 3;
+    private static final String SUFFIX = ".journal";
+
+    /**
+     * 日志中的一条记录；buySeq 只有 ACCEPTED 有，0 表示未知
+     */
+    public static class Entry {
+        public final long orderId;
+        public final long userId;
+        public final long voucherId;
+        public final int buySeq;
+        public final int kind;
+
+        Entry(long orderId, long userId, long voucherId, int buySeq, int kind) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.voucherId = voucherId;
+            this.buySeq = buySeq;
+            this.kind = kind;
+        }
+    }
+
+    private static class Append extends Entry {
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        Append(long orderId, long userId, long voucherId, int buySeq, int kind) {
+            super(orderId, userId, voucherId, buySeq, kind);
+        }
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final int batchSize;
+    private final long retentionMillis;
+    private final MpscRingBuffer<Append> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // 写线程独占
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE - 8);
+    private final List<Append> batch;
+    private final File[] recovered;
+    private File currentFile;
+    private FileChannel currentChannel;
+    private MappedByteBuffer current;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+
+    /**
+     * @param dir             日志目录，不存在会创建
+     * @param segmentSize     每段文件大小（字节），按记录大小向下取整
+     * @param queueCapacity   待写队列容量，满了 append 直接返回失败
+     * @param batchSize       一次组提交最多的记录数
+     * @param retentionMillis 段文件保留时间
+     */
+    public OrderJournal(File dir, long segmentSize, int queueCapacity, int batchSize, long retentionMillis) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建订单日志目录: " + dir);
+        }
+        this.dir = dir;
+        long size = Math.min(Math.max(segmentSize, RECORD_SIZE), Integer.MAX_VALUE);
+        this.segmentSize = (int) (size / RECORD_SIZE * RECORD_SIZE);
+        this.batchSize = Math.max(batchSize, 1);
+        this.retentionMillis = retentionMillis;
+        this.queue = new MpscRingBuffer<>(queueCapacity);
+        this.batch = new ArrayList<>(this.batchSize);
+        // 上次运行留下的段，恢复时只读这些
+        this.recovered = segments();
+        roll();
+        this.writer = new Thread(this::writeLoop, "order-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 追加一条记录，返回的 future 在记录落盘（force）后完成：true 成功，false 队列满 / 写入失败 / 已关闭
+     */
+    public CompletableFuture<Boolean> append(long orderId, long userId, long voucherId, int buySeq, int kind) {
+        Append append = new Append(orderId, userId, voucherId, buySeq, kind);
+        if (!running || !queue.offer(append)) {
+            append.done.complete(false);
+        }
+        return append.done;
+    }
+
+    /**
+     * 追加并等待落盘，最多等 timeoutMillis；超时返回 false（记录仍会写入，只是没等到）
+     */
+    public boolean appendAndWait(long orderId, long userId, long voucherId, int buySeq, int kind, long timeoutMillis) {
+        CompletableFuture<Boolean> done = append(orderId, userId, voucherId, buySeq, kind);
+        try {
+            return done.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取上次运行留下的全部记录（按写入顺序）
+     */
+    public List<Entry> recover() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (File file : recovered) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                CRC32 check = new CRC32();
+                ByteBuffer checkScratch = ByteBuffer.allocate(RECORD_SIZE - 8);
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    if (buffer.getInt() != MAGIC) break;
+                    long orderId = buffer.getLong();
+                    long userId = buffer.getLong();
+                    long voucherId = buffer.getLong();
+                    int buySeq = buffer.getInt();
+                    int kind = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (checksum != checksum(check, checkScratch, orderId, userId, voucherId, buySeq, kind)) {
+                        log.warn("订单日志校验失败，该段后续记录丢弃: file={}, offset={}", file.getName(), buffer.position() - RECORD_SIZE);
+                        break;
+                    }
+                    entries.add(new Entry(orderId, userId, voucherId, buySeq, kind));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 上次运行留下的段已经补落库完成，可以删除
+     */
+    public void deleteRecovered() {
+        for (File file : recovered) {
+            if (file.exists() && !file.delete()) {
+                log.warn("删除订单日志段失败: {}", file);
+            }
+        }
+    }
+
+    public long appended() {
+        return appended.sum();
+    }
+
+    public long forces() {
+        return forces.sum();
+    }
+
+    /**
+     * 停止写线程：队列里剩下的记录写完再退出
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            currentChannel.close();
+        } catch (IOException e) {
+            log.warn("关闭订单日志失败", e);
+        }
+    }
+
+    private void writeLoop() {
+        int idle = 0;
+        while (running || !queue.isEmpty()) {
+            int n = queue.drain(batch::add, batchSize);
+            if (n == 0) {
+                // 空闲策略：先自旋让出，再短暂休眠
+                if (++idle < 100) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(50_000);
+                }
+                continue;
+            }
+            idle = 0;
+            boolean ok = true;
+            try {
+                for (Append append : batch) {
+                    write(append);
+                }
+                current.force();
+                forces.increment();
+                appended.add(n);
+            } catch (Exception e) {
+                log.error("写订单日志失败, size={}", n, e);
+                ok = false;
+            }
+            for (Append append : batch) {
+                append.done.complete(ok);
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        if (current.remaining() < RECORD_SIZE) {
+            current.force();
+            roll();
+        }
+        current.putInt(MAGIC);
+        current.putLong(entry.orderId);
+        current.putLong(entry.userId);
+        current.putLong(entry.voucherId);
+        current.putInt(entry.buySeq);
+        current.putInt(entry.kind);
+        current.putInt(checksum(crc, scratch, entry.orderId, entry.userId, entry.voucherId, entry.buySeq, entry.kind));
+    }
+
+    /**
+     * 新建一段并整段映射；顺带删除过期的旧段（上次运行留下、还没恢复的段不删）
+     */
+    private void roll() throws IOException {
+        if (currentChannel != null) {
+            currentChannel.close();
+        }
+        long now = System.currentTimeMillis();
+        File file = new File(dir, now + SUFFIX);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(dir, (now + i) + SUFFIX);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(segmentSize);
+        currentChannel = raf.getChannel();
+        current = currentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        currentFile = file;
+
+        List<File> keep = Arrays.asList(recovered);
+        for (File old : segments()) {
+            if (!old.equals(currentFile) && !keep.contains(old) && now - createdAt(old) > retentionMillis && !old.delete()) {
+                log.warn("删除过期订单日志段失败: {}", old);
+            }
+        }
+    }
+
+    private File[] segments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(createdAt(a), createdAt(b)));
+        return files;
+    }
+
+    private static long createdAt(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return file.lastModified();
+        }
+    }
+
+    private static int checksum(CRC32 crc, ByteBuffer scratch, long orderId, long userId, long voucherId, int buySeq, int kind) {
+        scratch.clear();
+        scratch.putLong(orderId).putLong(userId).putLong(voucherId).putInt(buySeq).putInt(kind);
+        crc.reset();
+        crc.update(scratch.array(), 0, scratch.position());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,150 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀订单状态记录：seckill:order:state:{orderId} = {state, userId, voucherId}
+ * - ACCEPTED 由 seckill.lua 在入队时写入
+ * - PERSISTED / FAILED 由消费端落库后写入，并通过发布订阅推给正在等待的 SSE 连接
+ */
+@Slf4j
+@Component
+public class OrderStateTracker implements MessageListener {
+
+    public static final String ACCEPTED = "ACCEPTED";
+    public static final String PERSISTED = "PERSISTED";
+    public static final String FAILED = "FAILED";
+    public static final String UNKNOWN = "UNKNOWN";
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource private SeckillProperties seckillProperties;
+
+    // 本节点上正在等待终态的订单
+    private final Map<Long, Waiter> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_ORDER_STATE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return seckillProperties.getOrderState().isEnabled();
+    }
+
+    /**
+     * 给 seckill.lua 的状态记录有效期（秒），0 表示不记录
+     */
+    public long ttlSeconds() {
+        return isEnabled() ? seckillProperties.getOrderState().getTtl().getSeconds() : 0;
+    }
+
+    public static boolean isTerminal(String state) {
+        return PERSISTED.equals(state) || FAILED.equals(state);
+    }
+
+    /**
+     * 读状态记录，不存在（未开启 / 已过期）返回空 map
+     */
+    public Map<Object, Object> get(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(RedisConstants.SECKILL_ORDER_STATE_KEY + orderId);
+    }
+
+    /**
+     * 批量更新终态：一次 pipeline 完成 HSET + EXPIRE + PUBLISH
+     */
+    public void update(Collection<VoucherOrder> persisted, Collection<VoucherOrder> failed) {
+        if (!isEnabled() || (persisted.isEmpty() && failed.isEmpty())) {
+            return;
+        }
+        long ttl = ttlSeconds();
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (VoucherOrder order : persisted) {
+                    write(ops, order, PERSISTED, ttl);
+                }
+                for (VoucherOrder order : failed) {
+                    write(ops, order, FAILED, ttl);
+                }
+                return null;
+            }
+        });
+    }
+
+    private void write(RedisOperations<String, String> ops, VoucherOrder order, String state, long ttl) {
+        String key = RedisConstants.SECKILL_ORDER_STATE_KEY + order.getId();
+        Map<String, String> fields = new HashMap<>(4);
+        fields.put("state", state);
+        fields.put("userId", String.valueOf(order.getUserId()));
+        fields.put("voucherId", String.valueOf(order.getVoucherId()));
+        ops.opsForHash().putAll(key, fields);
+        ops.expire(key, ttl, TimeUnit.SECONDS);
+        ops.convertAndSend(RedisConstants.SECKILL_ORDER_STATE_CHANNEL, order.getId() + ":" + state);
+    }
+
+    /**
+     * 登记等待某个订单的终态；必须在读取当前状态之前登记，避免漏掉中间的推送
+     */
+    public Waiter register(Long orderId) {
+        return waiters.compute(orderId, (k, w) -> {
+            Waiter waiter = w == null ? new Waiter() : w;
+            waiter.refs.incrementAndGet();
+            return waiter;
+        });
+    }
+
+    public void release(Long orderId, Waiter waiter) {
+        waiters.computeIfPresent(orderId, (k, w) -> w == waiter && w.refs.decrementAndGet() <= 0 ? null : w);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息格式：orderId:state
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int i = body.indexOf(':');
+        if (i <= 0) return;
+        try {
+            Waiter waiter = waiters.get(Long.valueOf(body.substring(0, i)));
+            if (waiter != null) {
+                waiter.sink.tryEmitValue(body.substring(i + 1));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的订单状态推送: {}", body);
+        }
+    }
+
+    public static final class Waiter {
+        private final Sinks.One<String> sink = Sinks.one();
+        private final AtomicInteger refs = new AtomicInteger();
+
+        public Mono<String> mono() {
+            return sink.asMono();
+        }
+    }
+}
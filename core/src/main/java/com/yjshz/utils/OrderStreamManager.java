@@ -0,0 +1,212 @@
+package com.yjshz.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 订单 Stream 分区管理：
+ * 1) 分区布局：partitions=1 时沿用 stream.orders，否则为 stream.orders:{p}，由 seckill.lua 按 voucherId/userId 路由
+ * 2) 节点身份：每个节点一个唯一且重启稳定的消费者名（默认 主机名:端口）
+ * 3) 分区认领：节点心跳注册到 stream.orders:nodes，按 ceil(分区数/存活节点数) 认领分区租约，多的让出
+ */
+@Slf4j
+@Component
+public class OrderStreamManager {
+
+    public static final String STREAM_KEY = "stream.orders";
+    public static final String GROUP_NAME = "g1";
+
+    private static final String NODES_KEY = STREAM_KEY + ":nodes";
+    private static final String OWNER_KEY_PREFIX = STREAM_KEY + ":owner:";
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private Environment environment;
+
+    private String consumerName;
+
+    // 当前节点持有的分区
+    private final Set<Integer> ownedPartitions = new ConcurrentSkipListSet<>();
+
+    @PostConstruct
+    private void init() {
+        String configured = seckillProperties.getStream().getConsumerName();
+        consumerName = StrUtil.isNotBlank(configured) ? configured : defaultConsumerName();
+
+        // 确保每个分区的 stream + group 都存在（避免 NOGROUP）
+        for (int p = 0; p < partitions(); p++) {
+            createGroupIfAbsent(streamKey(p));
+        }
+        log.info("订单Stream分区数={}, 路由={}, 当前消费者={}",
+                partitions(), seckillProperties.getStream().getRouteBy(), consumerName);
+    }
+
+    public String getConsumerName() {
+        return consumerName;
+    }
+
+    public int partitions() {
+        return Math.max(seckillProperties.getStream().getPartitions(), 1);
+    }
+
+    /**
+     * 分区对应的 stream key，规则与 seckill.lua 保持一致
+     */
+    public String streamKey(int partition) {
+        return partitions() == 1 ? STREAM_KEY : STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 订单应写入的 stream key，按 route-by 取 voucherId 或 userId 对分区数取模，规则与 seckill.lua 保持一致
+     */
+    public String streamKeyFor(Long voucherId, Long userId) {
+        if (partitions() == 1) {
+            return STREAM_KEY;
+        }
+        long routeId = "user".equals(seckillProperties.getStream().getRouteBy()) ? userId : voucherId;
+        return streamKey((int) (routeId % partitions()));
+    }
+
+    /**
+     * 最近心跳过的节点数（至少为 1），用来计算每个节点应领取的份额
+     */
+    public int liveNodes() {
+        Long live = stringRedisTemplate.opsForZSet().zCard(NODES_KEY);
+        return live == null || live < 1 ? 1 : live.intValue();
+    }
+
+    /**
+     * 当前节点持有的 stream key 列表
+     */
+    public List<String> ownedStreamKeys() {
+        List<String> keys = new ArrayList<>(ownedPartitions.size());
+        for (Integer p : ownedPartitions) {
+            keys.add(streamKey(p));
+        }
+        return keys;
+    }
+
+    /**
+     * 心跳 + 续约 + 再平衡，由消费线程定期调用
+     * @param hasPending 判断某个分区上当前消费者是否还有未ACK消息（有则暂不让出）
+     */
+    public void rebalance(Predicate<String> hasPending) {
+        SeckillProperties.Stream config = seckillProperties.getStream();
+        long now = System.currentTimeMillis();
+        long ttl = config.getClaimTtl().toMillis();
+
+        // 1) 心跳注册，清理过期节点
+        stringRedisTemplate.opsForZSet().add(NODES_KEY, consumerName, now);
+        stringRedisTemplate.opsForZSet().removeRangeByScore(NODES_KEY, 0, now - ttl);
+        int liveNodes = liveNodes();
+        int fairShare = (partitions() + liveNodes - 1) / liveNodes;
+
+        // 2) 续约已持有的分区，丢失的移除
+        for (Integer p : new ArrayList<>(ownedPartitions)) {
+            if (!lease(p, "renew", ttl)) {
+                log.warn("分区租约丢失: partition={}, consumer={}", p, consumerName);
+                ownedPartitions.remove(p);
+            }
+        }
+
+        // 3) 持有过多：让出没有pending的分区
+        for (Integer p : new ArrayList<>(ownedPartitions)) {
+            if (ownedPartitions.size() <= fairShare) break;
+            if (hasPending.test(streamKey(p))) continue;
+            if (lease(p, "release", ttl)) {
+                ownedPartitions.remove(p);
+                log.info("让出分区: partition={}, consumer={}", p, consumerName);
+            }
+        }
+
+        // 4) 持有不足：认领无主分区（从自己的起始位置开始，减少节点间抢同一个分区）
+        int start = Math.abs(consumerName.hashCode() % partitions());
+        for (int i = 0; i < partitions() && ownedPartitions.size() < fairShare; i++) {
+            int p = (start + i) % partitions();
+            if (ownedPartitions.contains(p)) continue;
+            Boolean ok = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(OWNER_KEY_PREFIX + p, consumerName, ttl, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(ok)) {
+                ownedPartitions.add(p);
+                log.info("认领分区: partition={}, consumer={}", p, consumerName);
+            }
+        }
+    }
+
+    /**
+     * 停机时让出所有分区，其他节点下一轮即可接管
+     */
+    public void releaseAll() {
+        long ttl = seckillProperties.getStream().getClaimTtl().toMillis();
+        for (Integer p : new ArrayList<>(ownedPartitions)) {
+            try {
+                lease(p, "release", ttl);
+            } catch (Exception e) {
+                log.warn("让出分区失败: partition={}", p, e);
+            }
+            ownedPartitions.remove(p);
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(NODES_KEY, consumerName);
+        } catch (Exception e) {
+            log.warn("注销节点失败: consumer={}", consumerName, e);
+        }
+    }
+
+    private boolean lease(int partition, String op, long ttl) {
+        Long r = stringRedisTemplate.execute(
+                LEASE_SCRIPT,
+                Collections.singletonList(OWNER_KEY_PREFIX + partition),
+                consumerName, op, String.valueOf(ttl)
+        );
+        return r != null && r == 1L;
+    }
+
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            // stream存在但group不存在 -> 创建group
+            stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), GROUP_NAME);
+        } catch (Exception e) {
+            // 可能是：stream不存在 或 group已存在
+            try {
+                // 如果 stream 不存在：先 XADD 一个初始化消息创建 stream，然后再创建 group
+                stringRedisTemplate.opsForStream().add(streamKey, Collections.singletonMap("init", "1"));
+                stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), GROUP_NAME);
+            } catch (Exception ignore) {
+                // group 已存在等情况直接忽略
+            }
+        }
+    }
+
+    private String defaultConsumerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + environment.getProperty("server.port", "8080");
+    }
+}
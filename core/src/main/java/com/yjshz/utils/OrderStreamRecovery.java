@@ -0,0 +1,178 @@
+package com.yjshz.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.entity.VoucherOrder;
+import com.yjshz.mapper.VoucherOrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * 订单 Stream 的失败恢复：
+ * 1) 重试：按 XPENDING 的投递次数做指数退避，空闲时间够了才 XCLAIM 给自己重新处理，不再原地死循环
+ * 2) 死信：投递次数达到上限的消息转入 stream.orders.dlq 并 ACK，毒消息不会卡住整个分区
+ * 3) 接管：定期 XAUTOCLAIM 本分区上其他（已下线）消费者空闲过久的消息，并清理没有 pending 的旧消费者
+ */
+@Slf4j
+@Component
+public class OrderStreamRecovery {
+
+    public static final String DLQ_KEY = OrderStreamManager.STREAM_KEY + ".dlq";
+
+    private static final DefaultRedisScript<List> AUTOCLAIM_SCRIPT;
+    static {
+        AUTOCLAIM_SCRIPT = new DefaultRedisScript<>();
+        AUTOCLAIM_SCRIPT.setLocation(new ClassPathResource("autoclaim.lua"));
+        AUTOCLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private OrderStreamManager orderStreamManager;
+    @Resource private OrderStateTracker orderStateTracker;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private VoucherOrderMapper voucherOrderMapper;
+
+    /**
+     * 扫描当前消费者在各分区的 pending-list：超过重试上限的转死信，到了退避时间的逐条重新处理
+     * @param inflight 判断消息是否还在本地处理中（在工作线程队列里的消息不算失败，不重投也不转死信）
+     * @param handler 落库 + ACK，抛异常表示本次重试失败
+     */
+    public void retryPending(BiPredicate<String, RecordId> inflight,
+                             Consumer<List<MapRecord<String, Object, Object>>> handler) {
+        SeckillProperties.Retry config = seckillProperties.getRetry();
+        String consumerName = orderStreamManager.getConsumerName();
+        org.springframework.data.redis.connection.stream.Consumer consumer =
+                org.springframework.data.redis.connection.stream.Consumer.from(OrderStreamManager.GROUP_NAME, consumerName);
+
+        for (String streamKey : orderStreamManager.ownedStreamKeys()) {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, consumer, Range.unbounded(), (long) config.getScanCount());
+            if (pending == null || pending.isEmpty()) continue;
+
+            for (PendingMessage message : pending) {
+                if (inflight.test(streamKey, message.getId())) continue;
+                long deliveries = message.getTotalDeliveryCount();
+                if (deliveries >= config.getMaxAttempts()) {
+                    deadLetter(streamKey, message.getId(), deliveries);
+                    continue;
+                }
+                long backoff = backoffMillis(deliveries);
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < backoff) continue;
+
+                // XCLAIM 给自己：投递次数 +1，同时拿到消息内容
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                        .claim(streamKey, OrderStreamManager.GROUP_NAME, consumerName, Duration.ofMillis(backoff), message.getId());
+                if (records == null || records.isEmpty()) {
+                    // 消息体已不存在（被删除），直接ACK清理
+                    stringRedisTemplate.opsForStream().acknowledge(streamKey, OrderStreamManager.GROUP_NAME, message.getId());
+                    continue;
+                }
+                try {
+                    handler.accept(records);
+                } catch (Exception e) {
+                    log.error("重试订单失败: stream={}, id={}, deliveries={}", streamKey, message.getId(), deliveries + 1, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 接管本节点持有分区上其他消费者空闲过久的消息，接管后由 retryPending 按退避规则处理
+     */
+    public void autoClaim() {
+        SeckillProperties.Retry config = seckillProperties.getRetry();
+        String consumerName = orderStreamManager.getConsumerName();
+        for (String streamKey : orderStreamManager.ownedStreamKeys()) {
+            String cursor = "0-0";
+            long claimed = 0;
+            // 每轮最多扫 10 页，避免一次占用消费线程太久
+            for (int page = 0; page < 10; page++) {
+                List<?> res = stringRedisTemplate.execute(
+                        AUTOCLAIM_SCRIPT,
+                        Collections.singletonList(streamKey),
+                        OrderStreamManager.GROUP_NAME,
+                        consumerName,
+                        String.valueOf(config.getAutoclaimMinIdle().toMillis()),
+                        cursor,
+                        String.valueOf(config.getScanCount())
+                );
+                if (res == null || res.size() < 2) break;
+                cursor = String.valueOf(res.get(0));
+                claimed += ((Number) res.get(1)).longValue();
+                if ("0-0".equals(cursor)) break;
+            }
+            if (claimed > 0) {
+                log.warn("接管其他消费者的空闲消息: stream={}, count={}", streamKey, claimed);
+            }
+            removeIdleConsumers(streamKey, consumerName);
+        }
+    }
+
+    /**
+     * 清理没有 pending 且长时间不活跃的旧消费者（比如已下线节点）
+     */
+    private void removeIdleConsumers(String streamKey, String self) {
+        long minIdle = seckillProperties.getRetry().getAutoclaimMinIdle().toMillis();
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream()
+                .consumers(streamKey, OrderStreamManager.GROUP_NAME);
+        for (int i = 0; i < consumers.size(); i++) {
+            StreamInfo.XInfoConsumer info = consumers.get(i);
+            if (self.equals(info.consumerName()) || info.pendingCount() > 0 || info.idleTimeMs() < minIdle) continue;
+            stringRedisTemplate.opsForStream().deleteConsumer(streamKey,
+                    org.springframework.data.redis.connection.stream.Consumer.from(OrderStreamManager.GROUP_NAME, info.consumerName()));
+            log.info("清理空闲消费者: stream={}, consumer={}", streamKey, info.consumerName());
+        }
+    }
+
+    /**
+     * 转入死信队列：保留原消息字段，附带来源分区、原消息id和投递次数，然后ACK
+     */
+    private void deadLetter(String streamKey, RecordId recordId, long deliveries) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(streamKey, Range.closed(recordId.getValue(), recordId.getValue()));
+        if (records != null && !records.isEmpty()) {
+            Map<Object, Object> value = records.get(0).getValue();
+            Map<String, String> fields = new LinkedHashMap<>();
+            value.forEach((k, v) -> fields.put(String.valueOf(k), String.valueOf(v)));
+            fields.put("sourceStream", streamKey);
+            fields.put("sourceId", recordId.getValue());
+            fields.put("deliveries", String.valueOf(deliveries));
+            fields.put("failedAt", String.valueOf(System.currentTimeMillis()));
+            stringRedisTemplate.opsForStream().add(DLQ_KEY, fields);
+
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+            if (voucherOrder.getId() != null && voucherOrderMapper.selectById(voucherOrder.getId()) == null) {
+                orderStateTracker.update(Collections.emptyList(), Collections.singletonList(voucherOrder));
+                // 已受理但不会落库：对账时从 Redis 已受理数里扣掉，否则 accepted 永远大于落库数、自动修正永远不触发
+                if (voucherOrder.getVoucherId() != null) {
+                    seckillStockManager.addAbandoned(voucherOrder.getVoucherId(), 1);
+                }
+            }
+        }
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, OrderStreamManager.GROUP_NAME, recordId);
+        log.error("订单重试次数耗尽，已转入死信队列: stream={}, id={}, deliveries={}", streamKey, recordId, deliveries);
+    }
+
+    /**
+     * 第 n 次投递失败后的等待时间：base * 2^(n-1)，不超过 maxBackoff
+     */
+    private long backoffMillis(long deliveries) {
+        SeckillProperties.Retry config = seckillProperties.getRetry();
+        long base = config.getBackoff().toMillis();
+        long max = config.getMaxBackoff().toMillis();
+        int shift = (int) Math.min(Math.max(deliveries - 1, 0), 20);
+        return Math.min(base << shift, max);
+    }
+}
@@ -0,0 +1,236 @@
+package com.yjshz.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 订单 Stream 保留策略：
+ * 1) 安全边界 = min(消费组 last-delivered-id, 消费组最早的 pending id, 当前时间 - minAge)，边界之前的消息都已ACK
+ * 2) 边界之前的消息分页 XRANGE 出来，压缩写入本地段文件（{firstId}_{lastId}.jsonl.gz），写成功后再 XTRIM MINID
+ * 3) 只有分区持有者裁剪自己的分区，多节点不会重复归档
+ * 4) replay 按ID顺序读取段文件，可以重放到任意 stream（落库是幂等的，重复投递不会多扣库存）
+ */
+@Slf4j
+@Component
+public class OrderStreamRetention {
+
+    private static final String SEGMENT_SUFFIX = ".jsonl.gz";
+
+    // 每轮最多归档的页数，避免一次占用太久
+    private static final int MAX_PAGES_PER_RUN = 100;
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("trim.lua"));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private OrderStreamManager orderStreamManager;
+
+    @Scheduled(fixedDelayString = "#{@seckillProperties.retention.interval.toMillis()}")
+    public void trimOwnedStreams() {
+        if (!seckillProperties.getRetention().isEnabled()) return;
+        for (String streamKey : orderStreamManager.ownedStreamKeys()) {
+            try {
+                long trimmed = trim(streamKey);
+                if (trimmed > 0) {
+                    log.info("订单Stream裁剪完成: stream={}, trimmed={}", streamKey, trimmed);
+                }
+            } catch (Exception e) {
+                log.error("订单Stream裁剪失败: stream={}", streamKey, e);
+            }
+        }
+    }
+
+    /**
+     * 归档并裁剪安全边界之前的消息，返回裁剪条数
+     */
+    public long trim(String streamKey) throws IOException {
+        SeckillProperties.Retention config = seckillProperties.getRetention();
+        StreamId boundary = safeBoundary(streamKey);
+        if (boundary == null) return 0;
+
+        long trimmed = 0;
+        for (int page = 0; page < MAX_PAGES_PER_RUN; page++) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                    streamKey, Range.of(Range.Bound.unbounded(), Range.Bound.inclusive(boundary.toString())), Limit.limit().count(config.getBatchSize()));
+            if (records == null) break;
+            // 边界本身不裁剪
+            records = records.stream()
+                    .filter(r -> StreamId.parse(r.getId().getValue()).compareTo(boundary) < 0)
+                    .collect(Collectors.toList());
+            if (records.isEmpty()) break;
+
+            if (config.isArchiveEnabled()) {
+                writeSegment(streamKey, records);
+            }
+            StreamId minId = StreamId.parse(records.get(records.size() - 1).getId().getValue()).next();
+            Long n = stringRedisTemplate.execute(
+                    TRIM_SCRIPT, Collections.singletonList(streamKey), minId.toString());
+            trimmed += n == null ? 0 : n;
+            if (records.size() < config.getBatchSize()) break;
+        }
+        return trimmed;
+    }
+
+    /**
+     * 按ID顺序读取归档消息
+     * @param fromId 只读取 ID >= fromId 的消息，null 表示全部
+     */
+    public long readArchive(String streamKey, String fromId, Consumer<MapRecord<String, String, String>> handler) throws IOException {
+        StreamId from = fromId == null ? null : StreamId.parse(fromId);
+        long count = 0;
+        for (Path segment : segments(streamKey)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(segment)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    JSONObject json = JSONUtil.parseObj(line);
+                    String id = json.getStr("id");
+                    if (from != null && StreamId.parse(id).compareTo(from) < 0) continue;
+                    Map<String, String> fields = new LinkedHashMap<>();
+                    json.getJSONObject("fields").forEach((k, v) -> fields.put(k, String.valueOf(v)));
+                    handler.accept(StreamRecords.newRecord().in(streamKey).withId(id).ofMap(fields));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 把归档消息重新投递到目标 stream（使用新ID），返回投递条数
+     */
+    public long replay(String streamKey, String fromId, String targetStream) throws IOException {
+        return readArchive(streamKey, fromId,
+                record -> stringRedisTemplate.opsForStream().add(targetStream, record.getValue()));
+    }
+
+    /**
+     * 安全边界：消费组还没投递或还没ACK的消息都不能删；另外保留最近 minAge 的消息方便排查
+     */
+    private StreamId safeBoundary(String streamKey) {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        StreamId boundary = null;
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            if (!OrderStreamManager.GROUP_NAME.equals(group.groupName())) continue;
+            boundary = StreamId.parse(group.lastDeliveredId());
+        }
+        // 没有消费组时不裁剪（消息可能还没被消费）
+        if (boundary == null) return null;
+
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream()
+                .pending(streamKey, OrderStreamManager.GROUP_NAME);
+        if (pending != null && pending.getTotalPendingMessages() > 0) {
+            boundary = min(boundary, StreamId.parse(pending.minMessageId()));
+        }
+
+        long keepAfter = System.currentTimeMillis() - seckillProperties.getRetention().getMinAge().toMillis();
+        return min(boundary, new StreamId(keepAfter, 0));
+    }
+
+    private void writeSegment(String streamKey, List<MapRecord<String, Object, Object>> records) throws IOException {
+        Path dir = archiveDir(streamKey);
+        Files.createDirectories(dir);
+        String name = fileId(records.get(0).getId().getValue()) + "_"
+                + fileId(records.get(records.size() - 1).getId().getValue()) + SEGMENT_SUFFIX;
+        Path target = dir.resolve(name);
+        Path tmp = dir.resolve(name + ".tmp");
+
+        try (Writer writer = new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8)) {
+            for (MapRecord<String, Object, Object> record : records) {
+                JSONObject json = new JSONObject();
+                json.set("id", record.getId().getValue());
+                json.set("fields", record.getValue());
+                writer.write(json.toString());
+                writer.write('\n');
+            }
+        }
+        // 写完再改名，段文件要么完整要么不存在
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Path> segments(String streamKey) throws IOException {
+        Path dir = archiveDir(streamKey);
+        if (!Files.isDirectory(dir)) return Collections.emptyList();
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparing(p -> StreamId.parse(
+                            p.getFileName().toString().split("_")[0].replace('.', '-'))))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path archiveDir(String streamKey) {
+        // ':' 在部分文件系统上不合法
+        return Paths.get(seckillProperties.getRetention().getArchiveDir(), streamKey.replace(':', '_'));
+    }
+
+    private static String fileId(String id) {
+        return id.replace('-', '.');
+    }
+
+    private static StreamId min(StreamId a, StreamId b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * Stream 消息ID：毫秒时间戳-序号
+     */
+    private static final class StreamId implements Comparable<StreamId> {
+        private final long millis;
+        private final long seq;
+
+        StreamId(long millis, long seq) {
+            this.millis = millis;
+            this.seq = seq;
+        }
+
+        static StreamId parse(String id) {
+            int i = id.indexOf('-');
+            if (i < 0) return new StreamId(Long.parseLong(id), 0);
+            return new StreamId(Long.parseLong(id.substring(0, i)), Long.parseLong(id.substring(i + 1)));
+        }
+
+        StreamId next() {
+            return seq == Long.MAX_VALUE ? new StreamId(millis + 1, 0) : new StreamId(millis, seq + 1);
+        }
+
+        @Override
+        public int compareTo(StreamId o) {
+            int c = Long.compare(millis, o.millis);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+
+        @Override
+        public String toString() {
+            return millis + "-" + seq;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.yjshz.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * 订单落库工作线程池：读线程按 hash(userId) 把消息分发给 N 个工作线程
+ * - 同一用户的消息总是落到同一个线程，保证单用户内按顺序处理（LOCKED 模式下也不会互相抢同一把用户锁）
+ * - 每个工作线程一个有界队列，队列满时读线程阻塞，自然形成背压
+ * - 工作线程自己调用 handler 落库 + ACK，ACK 一定发生在落库之后
+ * - 已在队列中/处理中的消息不会重复分发（pending 重试扫描可能再次拿到还没处理完的消息）
+ * - 支持虚拟线程（JDK 21+，通过反射创建，低版本自动退回平台线程）
+ */
+@Slf4j
+public class OrderWorkerPool {
+
+    private final List<BlockingQueue<MapRecord<String, Object, Object>>> queues;
+    private final List<Thread> threads;
+    private final Consumer<List<MapRecord<String, Object, Object>>> handler;
+    private final int batchSize;
+    private final Set<String> inflight = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    /**
+     * @param workers       工作线程数
+     * @param queueCapacity 每个工作线程的队列容量
+     * @param batchSize     每个工作线程一次最多处理的条数
+     * @param virtual       是否使用虚拟线程
+     * @param handler       落库 + ACK，抛异常表示失败（消息留在 pending-list 等待重试）
+     */
+    public OrderWorkerPool(int workers, int queueCapacity, int batchSize, boolean virtual,
+                           Consumer<List<MapRecord<String, Object, Object>>> handler) {
+        this.handler = handler;
+        this.batchSize = Math.max(batchSize, 1);
+        int n = Math.max(workers, 1);
+        this.queues = new ArrayList<>(n);
+        this.threads = new ArrayList<>(n);
+        ThreadFactory factory = threadFactory(virtual);
+        for (int i = 0; i < n; i++) {
+            BlockingQueue<MapRecord<String, Object, Object>> queue = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+            queues.add(queue);
+            Thread thread = factory.newThread(() -> work(queue));
+            thread.setName("order-worker-" + i);
+            threads.add(thread);
+        }
+        threads.forEach(Thread::start);
+    }
+
+    public int size() {
+        return queues.size();
+    }
+
+    /**
+     * 分发一批消息，队列满时阻塞等待
+     */
+    public void dispatch(List<MapRecord<String, Object, Object>> records) throws InterruptedException {
+        for (MapRecord<String, Object, Object> record : records) {
+            // 已在某个工作线程的队列里，跳过
+            if (!inflight.add(inflightKey(record))) continue;
+            queues.get(indexOf(record)).put(record);
+        }
+    }
+
+    /**
+     * 消息是否还在某个工作线程的队列里或正在处理
+     */
+    public boolean isInflight(String streamKey, RecordId recordId) {
+        return inflight.contains(streamKey + "/" + recordId.getValue());
+    }
+
+    public void shutdown() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+    }
+
+    /**
+     * 排空：调用前读线程必须已经停止分发；工作线程处理完各自队列里的消息后退出
+     * 超过 timeoutMillis 还没处理完的线程会被中断，剩下的消息留在 pending-list
+     * @return 是否全部处理完
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread thread : threads) {
+            thread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+        }
+        boolean drained = true;
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                drained = false;
+                thread.interrupt();
+            }
+        }
+        return drained;
+    }
+
+    private void work(BlockingQueue<MapRecord<String, Object, Object>> queue) {
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+        // 停止后继续处理队列里剩下的消息，处理完才退出
+        while (running || !queue.isEmpty()) {
+            try {
+                MapRecord<String, Object, Object> first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                handler.accept(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // 没ACK的消息留在 pending-list，由重试扫描按退避规则重新投递
+                log.error("工作线程落库失败, size={}", batch.size(), e);
+            } finally {
+                for (MapRecord<String, Object, Object> record : batch) {
+                    inflight.remove(inflightKey(record));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private int indexOf(MapRecord<String, Object, Object> record) {
+        Object userId = record.getValue().get("userId");
+        if (userId == null) return 0;
+        return Math.floorMod(userId.toString().hashCode(), queues.size());
+    }
+
+    private static String inflightKey(MapRecord<String, Object, Object> record) {
+        return record.getStream() + "/" + record.getId().getValue();
+    }
+
+    private static ThreadFactory threadFactory(boolean virtual) {
+        if (virtual) {
+            try {
+                // Thread.ofVirtual().factory()，JDK 21 之前没有这个方法
+                Method ofVirtual = Thread.class.getMethod("ofVirtual");
+                Object builder = ofVirtual.invoke(null);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                return (ThreadFactory) factory.invoke(builder);
+            } catch (Exception e) {
+                log.warn("当前JDK不支持虚拟线程，改用平台线程");
+            }
+        }
+        return r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
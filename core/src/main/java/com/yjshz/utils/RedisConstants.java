@@ -13,10 +13,24 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_ORDER_PAGE_KEY = "cache:order:first:";
+    public static final Long CACHE_ORDER_PAGE_TTL = 10L;
+    // 订单第一页缓存的版本号：每次失效 INCR，回写缓存前比对，避免并发查询把失效前的旧页写回去
+    public static final String CACHE_ORDER_PAGE_VERSION_KEY = "cache:order:ver:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_BUYERS_KEY = "seckill:buyers:";
+    public static final String SECKILL_META_KEY = "seckill:meta:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_ORDER_STATE_KEY = "seckill:order:state:";
+    public static final String SECKILL_ORDER_STATE_CHANNEL = "seckill:order:state";
+    public static final String SECKILL_RECON_KEY = "seckill:recon:";
+    public static final String SECKILL_ENGINE_OWNER_KEY = "seckill:engine:owner:";
+    public static final String SECKILL_LEASE_KEY = "seckill:lease:";
+    public static final String SECKILL_LOTTERY_KEY = "seckill:lottery:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
 
     public static final String USER_FOLLOW_KEY = "user:follows:";
@@ -25,6 +25,14 @@ public class RedisIDWorker {
     private StringRedisTemplate stringRedisTemplate;
 
 
+    /**
+     * 某个时刻能生成的最大id（该秒内序列号取满），id 不大于它的订单都是在这个时刻之前生成的
+     */
+    public static long maxIdAt(LocalDateTime time) {
+        long timestamp = time.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        return timestamp << COUNT_BITS | ((1L << COUNT_BITS) - 1);
+    }
+
     public long nextId(String keyPrefix){
         //生成时间戳
         LocalDateTime now = LocalDateTime.now();//取得系统当前本地时间（不带时区）
@@ -40,6 +48,23 @@ public class RedisIDWorker {
         return timestamp << COUNT_BITS | count;
     }
 
+    /**
+     * 一次分配 n 个连续的 id：INCRBY n 拿到一段序列号，只访问一次 Redis
+     */
+    public long[] nextIds(String keyPrefix, int n) {
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        Long last = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, n);
+
+        // 序列号段为 (last - n, last]
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = timestamp << COUNT_BITS | (last - n + 1 + i);
+        }
+        return ids;
+    }
+
 
 
 }
@@ -0,0 +1,144 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.Result;
+import com.yjshz.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 秒杀准入检查（admission.lua）：用户令牌桶 + 全局令牌桶 + 排队等候室，一次往返
+ * - 单券接口由 SeckillAdmissionInterceptor 按路径上的券 id 检查，每次扣一个令牌
+ * - 多券接口路径上没有券 id，由 controller 读到请求体后按券数扣令牌，排队使用单独的等候室
+ * - 被拒绝时设置 429 + Retry-After，返回的 body 里带建议等待毫秒数和排队位置
+ * - 准入脚本异常时放行（宁可退化为不限流，也不能把秒杀整个挡掉）
+ * - 其他节点带正确口令转发过来的请求已经在入口节点检查过，直接放行
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    private static final String KEY_PREFIX = "seckill:admit:";
+    // 多券下单共用的等候室
+    private static final String BATCH_ROOM = "batch";
+
+    private static final DefaultRedisScript<List> ADMISSION_SCRIPT;
+    static {
+        ADMISSION_SCRIPT = new DefaultRedisScript<>();
+        ADMISSION_SCRIPT.setLocation(new ClassPathResource("admission.lua"));
+        ADMISSION_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private SeckillSoldOutGate soldOutGate;
+    @Resource private SeckillForwarder seckillForwarder;
+    @Resource private SeckillMetrics seckillMetrics;
+
+    /**
+     * 速率在 admission.lua 里做除数（算建议等待时间），不大于 0 时启动即失败，不能等到请求进来才除零
+     */
+    @PostConstruct
+    private void checkConfig() {
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        if (!config.isEnabled()) {
+            return;
+        }
+        if (!(config.getGlobalRate() > 0) || !(config.getUserRate() > 0) || !(config.getAdmitRate() > 0)) {
+            throw new IllegalStateException("seckill.admission 的 global-rate / user-rate / admit-rate 必须大于 0: globalRate="
+                    + config.getGlobalRate() + ", userRate=" + config.getUserRate() + ", admitRate=" + config.getAdmitRate());
+        }
+    }
+
+    /**
+     * 单券准入：放行返回 null；拒绝时已设置好响应状态，返回要写给客户端的 body
+     * 本地已售罄的券直接放行，由 seckillVoucher 在本地快速失败，不再消耗 Redis
+     */
+    public Result admit(HttpServletRequest request, HttpServletResponse response, Long voucherId) {
+        if (voucherId == null || soldOutGate.isSoldOut(voucherId)) {
+            return null;
+        }
+        return admit(request, response, voucherId.toString(), 1);
+    }
+
+    /**
+     * 多券准入：本地已售罄的券不计，其余每张券扣一个用户令牌和一个全局令牌
+     */
+    public Result admitBatch(HttpServletRequest request, HttpServletResponse response, Collection<Long> voucherIds) {
+        if (voucherIds == null) {
+            return null;
+        }
+        int cost = 0;
+        for (Long voucherId : new HashSet<>(voucherIds)) {
+            if (voucherId != null && !soldOutGate.isSoldOut(voucherId)) {
+                cost++;
+            }
+        }
+        return cost == 0 ? null : admit(request, response, BATCH_ROOM, cost);
+    }
+
+    private Result admit(HttpServletRequest request, HttpServletResponse response, String room, int cost) {
+        SeckillProperties.Admission config = seckillProperties.getAdmission();
+        UserDTO user = UserHolder.getUser();
+        if (!config.isEnabled() || user == null || seckillForwarder.isTrusted(request)) {
+            return null;
+        }
+
+        List<?> r;
+        try {
+            r = stringRedisTemplate.execute(
+                    ADMISSION_SCRIPT,
+                    Arrays.asList(
+                            KEY_PREFIX + "global",
+                            KEY_PREFIX + "user:" + user.getId(),
+                            KEY_PREFIX + "room:" + room,
+                            KEY_PREFIX + "ticket:" + room
+                    ),
+                    user.getId().toString(),
+                    String.valueOf(config.getGlobalRate()),
+                    String.valueOf(config.getGlobalBurst()),
+                    String.valueOf(config.getUserRate()),
+                    String.valueOf(config.getUserBurst()),
+                    String.valueOf(config.getAdmitRate()),
+                    String.valueOf(config.getKeyTtl().getSeconds()),
+                    String.valueOf(cost)
+            );
+        } catch (Exception e) {
+            log.warn("秒杀准入检查失败，直接放行: room={}", room, e);
+            return null;
+        }
+        if (r == null || ((Number) r.get(0)).longValue() == 1L) {
+            return null;
+        }
+
+        seckillMetrics.record(SeckillMetrics.Outcome.THROTTLED);
+        return reject(response, ((Number) r.get(1)).longValue(), ((Number) r.get(2)).longValue());
+    }
+
+    private static Result reject(HttpServletResponse response, long retryAfterMillis, long position) {
+        Map<String, Object> data = new HashMap<>(4);
+        data.put("retryAfterMillis", retryAfterMillis);
+        data.put("position", position);
+        Result result = Result.fail(position > 0 ? "排队中，请稍后重试" : "请求过于频繁，请稍后重试");
+        result.setData(data);
+
+        response.setStatus(429);
+        // Retry-After 只支持整秒，向上取整
+        response.setHeader("Retry-After", String.valueOf(Math.max((retryAfterMillis + 999) / 1000, 1)));
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package com.yjshz.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.yjshz.dto.Result;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀准入：在进入 seckillVoucher 之前限流，保护 Redis 连接池和 Tomcat 线程
+ * - 按路径上的券 id 执行 SeckillAdmission（用户令牌桶 + 全局令牌桶 + 排队等候室）
+ * - 被拒绝的请求直接返回 429 + Retry-After，body 里带建议等待毫秒数和排队位置
+ * - 多券下单（/seckill/batch）路径上没有券 id，这里放行，由 controller 读到请求体后按券数检查
+ */
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private final SeckillAdmission seckillAdmission;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission) {
+        this.seckillAdmission = seckillAdmission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        Result rejected = seckillAdmission.admit(request, response, voucherId(request));
+        if (rejected == null) {
+            return true;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(rejected));
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Long voucherId(HttpServletRequest request) {
+        Map<String, String> vars = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (vars == null || vars.get("id") == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(vars.get("id"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.yjshz.utils;
+
+import cn.hutool.core.io.IoUtil;
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 秒杀微批：把并发的 seckill.lua 调用攒成一批，一次 EVAL 执行（seckill_micro_batch.lua），减少 Redis 的命令 / 网络开销
+ * - 请求线程把请求放进无锁队列后等待自己的结果
+ * - 攒批线程拿到第一个请求后，最多再等 linger 或攒满 max-batch 就交给执行线程，执行线程可以同时有多批在途
+ * - 批内按入队顺序逐个执行 seckill.lua 原文（各请求自己的 KEYS / ARGV），每个请求的返回码与单独执行完全相同
+ * - 没能提交（队列满 / 执行线程池拒绝）返回 SeckillEngine.BUSY，脚本一定没有执行，可以让用户重试
+ * - 已提交但拿不到确定结果（等待超时 / 整批执行异常 / 批内单个请求出错）返回 SeckillEngine.UNKNOWN：
+ *   脚本可能已经写入订单，调用方带上订单号让用户查询订单状态
+ * - 批内单个请求出错（脚本里 pcall 捕获，返回 -2）只影响这个请求，前面已提交的请求照常返回各自的结果
+ */
+@Slf4j
+@Component
+public class SeckillBatcher {
+
+    // seckill_micro_batch.lua / seckill_batch.lua：批内这一个请求执行出错（脚本不回滚，可能已部分执行）
+    public static final int SCRIPT_ERROR = -2;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> BATCH_SCRIPT;
+    static {
+        BATCH_SCRIPT = wrapSeckill("seckill_micro_batch.lua");
+    }
+
+    private static class Request {
+        // seckill.lua 的 KEYS / ARGV（SeckillStockManager.seckillKeys / seckillArgs）
+        final List<String> keys;
+        final List<String> args;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        Request(List<String> keys, List<String> args) {
+            this.keys = keys;
+            this.args = args;
+        }
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+
+    private MpscRingBuffer<Request> queue;
+    private ExecutorService executor;
+    private Thread collector;
+    private volatile boolean running;
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.MicroBatch config = seckillProperties.getMicroBatch();
+        if (!config.isEnabled()) {
+            return;
+        }
+        queue = new MpscRingBuffer<>(config.getQueueCapacity());
+        executor = Executors.newFixedThreadPool(Math.max(config.getConcurrency(), 1), r -> {
+            Thread thread = new Thread(r, "seckill-batch-exec");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        collector = new Thread(this::collectLoop, "seckill-batch-collect");
+        collector.setDaemon(true);
+        collector.start();
+        log.info("秒杀微批已开启, maxBatch={}, linger={}", config.getMaxBatch(), config.getLinger());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            collector.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * 提交一次秒杀判定并等待结果，返回码与 seckill.lua 相同；队列满返回 SeckillEngine.BUSY，
+     * 已提交但结果未知（超时 / 异常）返回 SeckillEngine.UNKNOWN
+     */
+    public int execute(List<String> keys, List<String> args) {
+        Request request = new Request(keys, args);
+        if (!queue.offer(request)) {
+            return SeckillEngine.BUSY;
+        }
+        try {
+            return request.future.get(seckillProperties.getMicroBatch().getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return SeckillEngine.UNKNOWN;
+        } catch (ExecutionException | TimeoutException e) {
+            // 已经入队：脚本可能仍会执行成功，不能让用户当作失败重试
+            return SeckillEngine.UNKNOWN;
+        }
+    }
+
+    private void collectLoop() {
+        SeckillProperties.MicroBatch config = seckillProperties.getMicroBatch();
+        int maxBatch = Math.max(config.getMaxBatch(), 1);
+        long lingerNanos = config.getLinger().toNanos();
+        List<Request> batch = new ArrayList<>(maxBatch);
+        int idle = 0;
+        while (running || !queue.isEmpty()) {
+            if (queue.drain(batch::add, maxBatch) == 0) {
+                // 空闲策略：先自旋让出，再短暂休眠
+                if (++idle < 100) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(50_000);
+                }
+                continue;
+            }
+            idle = 0;
+            // 拿到第一批后在 linger 内继续攒，攒满就立即提交
+            long deadline = System.nanoTime() + lingerNanos;
+            while (batch.size() < maxBatch && System.nanoTime() < deadline) {
+                if (queue.drain(batch::add, maxBatch - batch.size()) == 0) {
+                    Thread.yield();
+                }
+            }
+            List<Request> submitted = new ArrayList<>(batch);
+            batch.clear();
+            try {
+                executor.execute(() -> run(submitted));
+            } catch (RejectedExecutionException e) {
+                submitted.forEach(request -> request.future.complete(SeckillEngine.BUSY));
+            }
+        }
+    }
+
+    private void run(List<Request> batch) {
+        int keyCount = batch.get(0).keys.size();
+        int argCount = batch.get(0).args.size();
+        List<String> keys = new ArrayList<>(batch.size() * keyCount);
+        List<String> args = new ArrayList<>(2 + batch.size() * argCount);
+        args.add(String.valueOf(keyCount));
+        args.add(String.valueOf(argCount));
+        for (Request request : batch) {
+            keys.addAll(request.keys);
+            args.addAll(request.args);
+        }
+        try {
+            List<?> results = stringRedisTemplate.execute(BATCH_SCRIPT, keys, args.toArray());
+            for (int i = 0; i < batch.size(); i++) {
+                Object r = results == null || i >= results.size() ? null : results.get(i);
+                int code = r == null ? SeckillEngine.UNKNOWN : ((Number) r).intValue();
+                if (code == SCRIPT_ERROR) {
+                    // 脚本不回滚，出错之前的写入可能已经生效
+                    log.warn("秒杀微批中单个请求执行失败: voucherId={}, orderId={}", batch.get(i).args.get(0), batch.get(i).args.get(2));
+                    code = SeckillEngine.UNKNOWN;
+                }
+                batch.get(i).future.complete(code);
+            }
+        } catch (Exception e) {
+            // 单个请求的错误已在脚本里捕获，到这里的是连接 / 超时等整批失败，无法区分哪些已执行
+            log.warn("秒杀微批执行失败, size={}", batch.size(), e);
+            batch.forEach(request -> request.future.complete(SeckillEngine.UNKNOWN));
+        }
+    }
+
+    /**
+     * 把 seckill.lua 原文嵌进包装脚本的占位行（微批 / 多券下单），判定规则只有 seckill.lua 一份
+     */
+    @SuppressWarnings("rawtypes")
+    public static DefaultRedisScript<List> wrapSeckill(String wrapper) {
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setScriptText(readResource(wrapper).replace("--@SECKILL_BODY@", readResource("seckill.lua")));
+        script.setResultType(List.class);
+        return script;
+    }
+
+    private static String readResource(String name) {
+        try (InputStream in = new ClassPathResource(name).getInputStream()) {
+            return IoUtil.read(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("读取脚本失败: " + name, e);
+        }
+    }
+}
@@ -0,0 +1,671 @@
+package com.yjshz.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单线程内存秒杀引擎（seckill.engine.mode = MEMORY）：
+ * 1) 券归属：每张券同一时间只属于一个节点，第一次收到请求的节点用 SET NX 认领租约 seckill:engine:owner:{voucherId}，定期续约
+ *    认领后 seckill.lua 对这张券返回 5，其他节点（不管哪种模式）把请求转发给持有节点
+ * 2) 判定：请求进入无锁环形队列，由唯一的判定线程在内存里检查时间窗口、限购、库存（基本类型结构，不加锁、不访问 Redis）
+ * 3) 日志：受理的订单交给日志线程，按券分批用 engine_journal.lua 写入 Redis：扣库存、已购计数、XADD stream.orders、
+ *    订单状态、未支付延迟队列，key 布局与 seckill.lua 完全一致，消费、对账、超时取消都不用区分两种模式；
+ *    脚本先确认 Redis 上的持有者仍是本节点、库存够扣，否则整批不写，不会和接手的节点重复卖
+ * 4) 写完日志才回复请求；租约快到期、租约被接管、库存被外部修改（补库存 / 超时取消归还）时作废内存状态，下一个请求从 Redis 重新加载；
+ *    写日志时 Redis 异常返回 UNKNOWN（订单可能已写入）
+ */
+@Slf4j
+@Component
+public class SeckillEngine {
+
+    // 判定结果，与 seckill.lua 相同
+    public static final int NOT_OWNER = 5;
+    public static final int BUSY = -1;
+    // 写日志时 Redis 异常：订单可能已经写入，由调用方提示用户查询订单状态，不能让用户重试
+    public static final int UNKNOWN = -3;
+    private static final int RETRY = -2;
+    private static final int MAX_RETRIES = 3;
+
+    // engine_journal.lua：券已不归本节点持有 / Redis 库存不够扣，本批什么都没写
+    private static final int JOURNAL_NOT_OWNER = 1;
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> JOURNAL_SCRIPT;
+    static {
+        JOURNAL_SCRIPT = new DefaultRedisScript<>();
+        JOURNAL_SCRIPT.setLocation(new ClassPathResource("engine_journal.lua"));
+        JOURNAL_SCRIPT.setResultType(Long.class);
+    }
+
+    // 没有预热的券：不认领，直接按库存不足处理
+    private static final Book NOT_WARMED = new Book(0L, 1);
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private OrderStreamManager orderStreamManager;
+    @Resource private OrderStateTracker orderStateTracker;
+    @Resource private Environment environment;
+
+    private final Map<Long, Book> books = new ConcurrentHashMap<>();
+    private final Map<Long, Object> claimLocks = new ConcurrentHashMap<>();
+    private final Map<Long, Owner> ownerCache = new ConcurrentHashMap<>();
+
+    private MpscRingBuffer<Request> ring;
+    private BlockingQueue<Accepted> journalQueue;
+    private Thread decider;
+    private Thread journaler;
+    private ScheduledExecutorService renewer;
+    private volatile boolean accepting;
+    private volatile boolean running;
+    private String self;
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Engine config = seckillProperties.getEngine();
+        if (config.getMode() != SeckillProperties.EngineMode.MEMORY) return;
+
+        self = StrUtil.isNotBlank(config.getAdvertiseUrl()) ? config.getAdvertiseUrl() : defaultAdvertiseUrl();
+        ring = new MpscRingBuffer<>(config.getRingSize());
+        journalQueue = new ArrayBlockingQueue<>(Math.max(config.getJournalQueueCapacity(), 1));
+        running = true;
+        accepting = true;
+
+        decider = new Thread(this::decideLoop, "seckill-engine");
+        decider.setDaemon(true);
+        decider.setPriority(Thread.MAX_PRIORITY);
+        decider.start();
+        journaler = new Thread(this::journalLoop, "seckill-journal");
+        journaler.setDaemon(true);
+        journaler.start();
+
+        renewer = Executors.newSingleThreadScheduledExecutor();
+        long interval = config.getRenewInterval().toMillis();
+        renewer.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("秒杀内存引擎已启动: node={}, ringSize={}", self, ring.capacity());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (!running) return;
+        // 1) 不再接收新请求 2) 等判定线程和日志线程处理完手上的请求 3) 释放租约，其他节点马上可以接手
+        accepting = false;
+        long deadline = System.currentTimeMillis() + seckillProperties.getEngine().getRequestTimeout().toMillis();
+        while ((!ring.isEmpty() || !journalQueue.isEmpty()) && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        running = false;
+        renewer.shutdownNow();
+        try {
+            journaler.join(seckillProperties.getEngine().getRequestTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Long voucherId : books.keySet()) {
+            release(voucherId);
+        }
+        books.clear();
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    public String self() {
+        return self;
+    }
+
+    /**
+     * 执行一次下单判定，返回码与 seckill.lua 相同（受理为 100 + buySeq）；NOT_OWNER 表示券在其他节点，BUSY 表示队列满 / 没有受理，
+     * UNKNOWN 表示已交给引擎但结果未知（等待超时 / 写日志时 Redis 异常），订单可能已经写入
+     */
+    public int execute(Long voucherId, Long userId, long orderId) {
+        long timeout = seckillProperties.getEngine().getRequestTimeout().toMillis();
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            CompletableFuture<Integer> future = submit(voucherId, userId, orderId);
+            int code;
+            try {
+                code = future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 请求仍在队列 / 日志线程里，之后可能被写入
+                log.warn("秒杀引擎处理超时: voucherId={}, userId={}, orderId={}", voucherId, userId, orderId);
+                return UNKNOWN;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return BUSY;
+            } catch (ExecutionException e) {
+                log.error("秒杀引擎处理失败: voucherId={}", voucherId, e.getCause());
+                return BUSY;
+            }
+            // 内存状态已作废（租约到期 / 需要重新加载），换一个新状态再判定一次
+            if (code != RETRY) return code;
+        }
+        return BUSY;
+    }
+
+    /**
+     * 券当前的持有节点地址，没有持有者返回 null（本地缓存 owner-cache-ttl）
+     */
+    public String owner(Long voucherId) {
+        Owner cached = ownerCache.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (cached != null && cached.expireAt > now) {
+            return cached.url;
+        }
+        String url = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId);
+        ownerCache.put(voucherId, new Owner(url, now + seckillProperties.getEngine().getOwnerCacheTtl().toMillis()));
+        return url;
+    }
+
+    private CompletableFuture<Integer> submit(Long voucherId, Long userId, long orderId) {
+        if (!accepting) {
+            return CompletableFuture.completedFuture(BUSY);
+        }
+        Book book = books.get(voucherId);
+        if (book == null || !book.valid) {
+            book = claim(voucherId);
+            if (book == null) return CompletableFuture.completedFuture(NOT_OWNER);
+            if (book == NOT_WARMED) return CompletableFuture.completedFuture(1);
+        }
+        Request request = new Request(book, userId, orderId);
+        if (!ring.offer(request)) {
+            return CompletableFuture.completedFuture(BUSY);
+        }
+        return request.future;
+    }
+
+    // ---------------------------------------------------------------- 认领 / 加载 / 续约
+
+    /**
+     * 认领券并从 Redis 加载状态；同一张券同一时间只有一个线程在认领
+     * @return 本节点的状态；null 表示券属于其他节点
+     */
+    private Book claim(Long voucherId) {
+        synchronized (claimLocks.computeIfAbsent(voucherId, k -> new Object())) {
+            Book existing = books.get(voucherId);
+            if (existing != null && existing.valid) {
+                return existing;
+            }
+            String owner = owner(voucherId);
+            if (owner != null && !self.equals(owner)) {
+                return null;
+            }
+
+            SeckillProperties.Engine config = seckillProperties.getEngine();
+            long start = System.currentTimeMillis();
+            String ownerKey = RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId;
+            if (owner == null) {
+                Boolean ok = stringRedisTemplate.opsForValue()
+                        .setIfAbsent(ownerKey, self, config.getLeaseTtl().toMillis(), TimeUnit.MILLISECONDS);
+                if (!Boolean.TRUE.equals(ok)) {
+                    ownerCache.remove(voucherId);
+                    return self.equals(owner(voucherId)) ? claim(voucherId) : null;
+                }
+            } else if (!lease(voucherId, "renew")) {
+                // 缓存里还是自己，实际租约已经丢了
+                ownerCache.remove(voucherId);
+                return null;
+            }
+            ownerCache.put(voucherId, new Owner(self, Long.MAX_VALUE));
+
+            // 旧状态还有没写完的日志，等写完再从 Redis 加载，否则会漏掉这部分扣减
+            if (existing != null) {
+                long deadline = start + config.getRequestTimeout().toMillis();
+                while (existing.pending.get() > 0 && System.currentTimeMillis() < deadline) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                if (existing.pending.get() > 0) {
+                    return null;
+                }
+                books.remove(voucherId, existing);
+            }
+
+            Book book = load(voucherId);
+            if (book == null) {
+                books.remove(voucherId);
+                release(voucherId);
+                return NOT_WARMED;
+            }
+            book.leaseUntil = start + config.getLeaseTtl().toMillis() - config.getLeaseMargin().toMillis();
+            books.put(voucherId, book);
+            log.info("秒杀引擎认领券: voucherId={}, stock={}, buyers={}, node={}",
+                    voucherId, Arrays.toString(book.stock), book.bought.size(), self);
+            return book;
+        }
+    }
+
+    /**
+     * 从 Redis 加载库存（分桶）、时间窗口、限购数、已购计数；库存未预热返回 null
+     */
+    private Book load(Long voucherId) {
+        int buckets = seckillStockManager.buckets(voucherId);
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(seckillStockManager.stockKeys(voucherId, buckets));
+        if (stocks == null || stocks.contains(null)) {
+            return null;
+        }
+        List<Object> meta = stringRedisTemplate.opsForHash().multiGet(RedisConstants.SECKILL_META_KEY + voucherId,
+                Arrays.asList("begin", "end", SeckillStockManager.META_QUOTA,
+                        SeckillStockManager.META_TOTAL, SeckillStockManager.META_CANCELLED, SeckillStockManager.META_DEDUP));
+
+        Book book = new Book(voucherId, buckets);
+        for (int b = 0; b < buckets; b++) {
+            book.stock[b] = Integer.parseInt(stocks.get(b));
+        }
+        book.beginAt = meta.get(0) == null ? Long.MIN_VALUE : Long.parseLong(meta.get(0).toString());
+        book.endAt = meta.get(1) == null ? Long.MAX_VALUE : Long.parseLong(meta.get(1).toString());
+        book.quota = meta.get(2) == null ? 1 : Math.max(Integer.parseInt(meta.get(2).toString()), 1);
+        book.stockVersion = stockVersion(meta.get(3), meta.get(4));
+        // 与 seckill.lua 相同：bitmap / migrating 都写位图，限购数大于 1 时件数仍记在 hash
+        book.bitmap = meta.get(5) != null;
+        book.useHash = !book.bitmap || book.quota > 1;
+
+        // 已购计数可能很大，用 HSCAN 分批读，不阻塞 Redis
+        for (String key : seckillStockManager.buyersKeys(voucherId, buckets)) {
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                    .scan(key, ScanOptions.scanOptions().count(1000).build())) {
+                while (cursor.hasNext()) {
+                    Map.Entry<Object, Object> entry = cursor.next();
+                    if (SeckillStockManager.BUYERS_TOTAL.equals(entry.getKey())) continue;
+                    book.bought.increment(Long.parseLong(entry.getKey().toString()),
+                            Integer.parseInt(entry.getValue().toString()));
+                }
+            }
+        }
+        if (book.bitmap) {
+            loadBitmap(book);
+        }
+        return book;
+    }
+
+    /**
+     * 按分段号集合读出所有位图分段，置位的用户记为已购 1 件（hash 里已有件数的用户不重复计）
+     */
+    private void loadBitmap(Book book) {
+        Set<String> chunks = stringRedisTemplate.opsForSet().members(seckillStockManager.bitmapChunksKey(book.voucherId));
+        if (chunks == null) {
+            return;
+        }
+        for (String chunk : chunks) {
+            long base = SeckillStockManager.bitmapChunkBase(Long.parseLong(chunk));
+            String key = seckillStockManager.bitmapChunkKey(book.voucherId, Long.parseLong(chunk));
+            byte[] bits = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key.getBytes()));
+            if (bits == null) continue;
+            for (int i = 0; i < bits.length; i++) {
+                if (bits[i] == 0) continue;
+                for (int j = 0; j < 8; j++) {
+                    // Redis 位图按字节从高位到低位编号
+                    if ((bits[i] & (0x80 >>> j)) == 0) continue;
+                    long userId = base + i * 8L + j;
+                    if (book.bought.get(userId) == 0) {
+                        book.bought.increment(userId, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 续约所有持有的券；租约丢失、秒杀结束、库存被外部修改时作废内存状态
+     */
+    private void renew() {
+        SeckillProperties.Engine config = seckillProperties.getEngine();
+        for (Book book : books.values()) {
+            try {
+                long start = System.currentTimeMillis();
+                if (start > book.endAt && book.pending.get() == 0) {
+                    book.valid = false;
+                    books.remove(book.voucherId, book);
+                    release(book.voucherId);
+                    log.info("秒杀已结束，释放券: voucherId={}", book.voucherId);
+                    continue;
+                }
+                if (!lease(book.voucherId, "renew")) {
+                    book.valid = false;
+                    books.remove(book.voucherId, book);
+                    ownerCache.remove(book.voucherId);
+                    log.warn("秒杀引擎租约丢失: voucherId={}, node={}", book.voucherId, self);
+                    continue;
+                }
+                book.leaseUntil = start + config.getLeaseTtl().toMillis() - config.getLeaseMargin().toMillis();
+
+                // 补库存 / 超时取消会直接改 Redis 库存并更新 total / cancelled，内存里的库存需要重新加载
+                List<Object> meta = stringRedisTemplate.opsForHash().multiGet(RedisConstants.SECKILL_META_KEY + book.voucherId,
+                        Arrays.asList(SeckillStockManager.META_TOTAL, SeckillStockManager.META_CANCELLED));
+                if (stockVersion(meta.get(0), meta.get(1)) != book.stockVersion) {
+                    book.valid = false;
+                    log.info("券库存已被外部修改，重新加载: voucherId={}", book.voucherId);
+                }
+            } catch (Exception e) {
+                log.error("秒杀引擎续约失败: voucherId={}", book.voucherId, e);
+            }
+        }
+    }
+
+    private boolean lease(Long voucherId, String op) {
+        Long ok = stringRedisTemplate.execute(
+                LEASE_SCRIPT,
+                Collections.singletonList(RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId),
+                self, op, String.valueOf(seckillProperties.getEngine().getLeaseTtl().toMillis())
+        );
+        return ok != null && ok == 1L;
+    }
+
+    private void release(Long voucherId) {
+        try {
+            lease(voucherId, "release");
+        } catch (Exception e) {
+            log.warn("释放秒杀引擎租约失败: voucherId={}", voucherId, e);
+        }
+        ownerCache.remove(voucherId);
+    }
+
+    private static long stockVersion(Object total, Object cancelled) {
+        return (total == null ? 0 : Long.parseLong(total.toString())) * 31
+                + (cancelled == null ? 0 : Long.parseLong(cancelled.toString()));
+    }
+
+    // ---------------------------------------------------------------- 判定线程
+
+    private void decideLoop() {
+        int idle = 0;
+        while (running) {
+            int n = ring.drain(this::decide, 1024);
+            if (n > 0) {
+                idle = 0;
+                continue;
+            }
+            // 空闲策略：先自旋让出，再短暂休眠，兼顾延迟和 CPU 占用
+            if (++idle < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+        // 停止后剩下的请求直接回复繁忙
+        ring.drain(request -> request.future.complete(BUSY), Integer.MAX_VALUE);
+    }
+
+    private void decide(Request request) {
+        Book book = request.book;
+        long now = System.currentTimeMillis();
+        if (!book.valid || now >= book.leaseUntil) {
+            book.valid = false;
+            request.future.complete(RETRY);
+            return;
+        }
+        if (now < book.beginAt) {
+            request.future.complete(3);
+            return;
+        }
+        if (now > book.endAt) {
+            request.future.complete(4);
+            return;
+        }
+        long userId = request.userId;
+        if (book.bought.get(userId) >= book.quota) {
+            request.future.complete(2);
+            return;
+        }
+        // 与 seckill.lua 相同：从用户所在的桶开始，找第一个还有库存的桶
+        int home = (int) (userId % book.stock.length);
+        int bucket = -1;
+        for (int i = 0; i < book.stock.length; i++) {
+            int b = (home + i) % book.stock.length;
+            if (book.stock[b] > 0) {
+                bucket = b;
+                break;
+            }
+        }
+        if (bucket < 0) {
+            request.future.complete(1);
+            return;
+        }
+
+        book.stock[bucket]--;
+        int buySeq = book.bought.increment(userId, 1);
+        book.pending.incrementAndGet();
+        if (!journalQueue.offer(new Accepted(request, bucket, buySeq))) {
+            // 日志积压：撤销本次扣减
+            book.stock[bucket]++;
+            book.bought.increment(userId, -1);
+            book.pending.decrementAndGet();
+            request.future.complete(BUSY);
+        }
+    }
+
+    // ---------------------------------------------------------------- 日志线程
+
+    private void journalLoop() {
+        int batchSize = Math.max(seckillProperties.getEngine().getJournalBatch(), 1);
+        List<Accepted> batch = new ArrayList<>(batchSize);
+        while (running || !journalQueue.isEmpty()) {
+            try {
+                Accepted first = journalQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                journalQueue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 一批订单按券分组写入，每张券一次 engine_journal.lua；租约已经不可靠的不写
+     */
+    private void write(List<Accepted> batch) {
+        long now = System.currentTimeMillis();
+        Map<Book, List<Accepted>> byBook = new LinkedHashMap<>();
+        for (Accepted accepted : batch) {
+            Book book = accepted.request.book;
+            if (book.valid && now < book.leaseUntil) {
+                byBook.computeIfAbsent(book, k -> new ArrayList<>()).add(accepted);
+            } else {
+                // 租约已经不可靠：不写，内存状态作废后从 Redis 重新加载，这笔扣减自然不存在
+                book.valid = false;
+                complete(accepted, RETRY);
+            }
+        }
+        byBook.forEach((book, live) -> write(book, live, now));
+    }
+
+    /**
+     * 一张券的一批订单在一次 EVAL 里写入：脚本先确认 Redis 上的持有者仍是本节点、库存够扣，要么全部生效，要么全部不生效
+     * （本地时钟的 leaseUntil 挡不住 GC 停顿 / 时钟漂移，真正的防护在脚本里）
+     */
+    private void write(Book book, List<Accepted> live, long now) {
+        List<String> keys = new ArrayList<>();
+        Map<String, Integer> keyIndex = new HashMap<>();
+        keyIndex(keys, keyIndex, RedisConstants.SECKILL_ENGINE_OWNER_KEY + book.voucherId);
+
+        // 扣库存、订单总数按 key 聚合
+        Map<String, Long> stockDecr = new LinkedHashMap<>();
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (Accepted accepted : live) {
+            stockDecr.merge(seckillStockManager.stockKey(book.voucherId, book.stock.length, accepted.bucket), 1L, Long::sum);
+            totals.merge(buyersKey(book, accepted.request.userId), 1L, Long::sum);
+        }
+        Set<String> chunks = new LinkedHashSet<>();
+        if (book.bitmap) {
+            for (Accepted accepted : live) {
+                chunks.add(String.valueOf(SeckillStockManager.bitmapChunk(accepted.request.userId)));
+            }
+        }
+        SeckillProperties.Unpaid unpaid = seckillProperties.getUnpaid();
+        List<String> args = new ArrayList<>(9 + 2 * (stockDecr.size() + totals.size()) + chunks.size() + 9 * live.size());
+        args.add(self);
+        args.add(book.voucherId.toString());
+        args.add(String.valueOf(orderStateTracker.ttlSeconds()));
+        args.add(String.valueOf(unpaid.isEnabled() ? now + unpaid.getTimeout().toMillis() : 0));
+        args.add(book.bitmap ? String.valueOf(keyIndex(keys, keyIndex, seckillStockManager.bitmapChunksKey(book.voucherId))) : "0");
+        for (Map<String, Long> counts : Arrays.asList(stockDecr, totals)) {
+            args.add(String.valueOf(counts.size()));
+            counts.forEach((key, n) -> {
+                args.add(String.valueOf(keyIndex(keys, keyIndex, key)));
+                args.add(String.valueOf(n));
+            });
+        }
+        args.add(String.valueOf(chunks.size()));
+        args.addAll(chunks);
+        for (Accepted accepted : live) {
+            long userId = accepted.request.userId;
+            long orderId = accepted.request.orderId;
+            args.add(String.valueOf(orderId));
+            args.add(String.valueOf(userId));
+            args.add(String.valueOf(accepted.buySeq));
+            args.add(book.bitmap ? String.valueOf(keyIndex(keys, keyIndex, seckillStockManager.bitmapKey(book.voucherId, userId))) : "0");
+            args.add(String.valueOf(SeckillStockManager.bitmapOffset(userId)));
+            args.add(book.useHash ? String.valueOf(keyIndex(keys, keyIndex, buyersKey(book, userId))) : "0");
+            args.add(String.valueOf(keyIndex(keys, keyIndex, orderStreamManager.streamKeyFor(book.voucherId, userId))));
+            args.add(String.valueOf(keyIndex(keys, keyIndex, RedisConstants.SECKILL_ORDER_STATE_KEY + orderId)));
+            args.add(String.valueOf(keyIndex(keys, keyIndex, UnpaidOrderCanceller.delayKey(orderId, unpaid.getShards()))));
+        }
+
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(JOURNAL_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            // 脚本可能已经执行：作废内存状态以 Redis 为准重新加载；请求方拿到 UNKNOWN，按订单状态确认，不能让用户重试
+            log.error("秒杀引擎写日志结果未知: voucherId={}, size={}", book.voucherId, live.size(), e);
+            book.valid = false;
+            live.forEach(accepted -> complete(accepted, UNKNOWN));
+            return;
+        }
+        int code = result == null ? UNKNOWN : result.intValue();
+        if (code == 0) {
+            live.forEach(accepted -> complete(accepted, SeckillStockManager.accepted(accepted.buySeq)));
+            return;
+        }
+        if (code == UNKNOWN) {
+            live.forEach(accepted -> complete(accepted, UNKNOWN));
+            return;
+        }
+        // 脚本什么都没写：作废内存状态，重新认领 / 加载后再判定
+        book.valid = false;
+        if (code == JOURNAL_NOT_OWNER) {
+            ownerCache.remove(book.voucherId);
+            log.warn("秒杀引擎租约已被其他节点接管，本批未写入: voucherId={}, size={}", book.voucherId, live.size());
+        } else {
+            log.warn("Redis 库存不够扣（被外部修改过），本批未写入: voucherId={}, size={}", book.voucherId, live.size());
+        }
+        live.forEach(accepted -> complete(accepted, RETRY));
+    }
+
+    /**
+     * key 在 KEYS 里的下标（从 1 开始），同一个 key 只传一次
+     */
+    private static int keyIndex(List<String> keys, Map<String, Integer> keyIndex, String key) {
+        return keyIndex.computeIfAbsent(key, k -> {
+            keys.add(k);
+            return keys.size();
+        });
+    }
+
+    private String buyersKey(Book book, long userId) {
+        int buckets = book.stock.length;
+        return seckillStockManager.buyersKey(book.voucherId, buckets, (int) (userId % buckets));
+    }
+
+    private static void complete(Accepted accepted, int code) {
+        accepted.request.book.pending.decrementAndGet();
+        accepted.request.future.complete(code);
+    }
+
+    private String defaultAdvertiseUrl() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostAddress();
+        } catch (Exception e) {
+            host = "127.0.0.1";
+        }
+        return "http://" + host + ":" + environment.getProperty("server.port", "8080");
+    }
+
+    // ---------------------------------------------------------------- 数据结构
+
+    /**
+     * 一张券的内存状态：发布到 books 之后只由判定线程修改（valid / leaseUntil 除外）
+     */
+    private static final class Book {
+        private final Long voucherId;
+        private final int[] stock;
+        private final LongIntHashMap bought = new LongIntHashMap(1024);
+        private final AtomicInteger pending = new AtomicInteger();
+        private int quota = 1;
+        private boolean bitmap;
+        private boolean useHash = true;
+        private long beginAt = Long.MIN_VALUE;
+        private long endAt = Long.MAX_VALUE;
+        private long stockVersion;
+        private volatile long leaseUntil;
+        private volatile boolean valid = true;
+
+        private Book(Long voucherId, int buckets) {
+            this.voucherId = voucherId;
+            this.stock = new int[Math.max(buckets, 1)];
+        }
+    }
+
+    private static final class Request {
+        private final Book book;
+        private final long userId;
+        private final long orderId;
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        private Request(Book book, long userId, long orderId) {
+            this.book = book;
+            this.userId = userId;
+            this.orderId = orderId;
+        }
+    }
+
+    private static final class Accepted {
+        private final Request request;
+        private final int bucket;
+        private final int buySeq;
+
+        private Accepted(Request request, int bucket, int buySeq) {
+            this.request = request;
+            this.bucket = bucket;
+            this.buySeq = buySeq;
+        }
+    }
+
+    private static final class Owner {
+        private final String url;
+        private final long expireAt;
+
+        private Owner(String url, long expireAt) {
+            this.url = url;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.yjshz.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * 秒杀请求转发：券被其他节点的内存引擎持有时，把请求原样（带登录 token）转发给持有节点
+ * - 只转发一跳：已经是转发过来的请求不再转发，避免所有权切换期间来回转
+ * - 带正确转发口令的请求在持有节点上跳过准入限流（入口节点已经检查过）
+ * - 负载均衡按券做粘性路由时基本不会走到这里，转发只是兜底
+ * - 连不上持有节点（请求没有发出去）可以让用户重试；请求已经发出但没拿到响应（读超时 / 连接中断 / 持有节点报错）时
+ *   持有节点可能已经受理，返回"结果确认中"，不能让用户当作失败重试
+ */
+@Slf4j
+@Component
+public class SeckillForwarder {
+
+    public static final String FORWARD_HEADER = "X-Seckill-Forward";
+
+    @Resource private SeckillProperties seckillProperties;
+
+    private RestTemplate restTemplate;
+
+    @PostConstruct
+    private void init() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        int timeout = (int) seckillProperties.getEngine().getForwardTimeout().toMillis();
+        factory.setConnectTimeout(timeout);
+        factory.setReadTimeout(timeout);
+        restTemplate = new RestTemplate(factory);
+    }
+
+    /**
+     * 当前请求是不是其他节点转发过来的
+     */
+    public static boolean isForwarded(HttpServletRequest request) {
+        return request != null && request.getHeader(FORWARD_HEADER) != null;
+    }
+
+    /**
+     * 转发口令是否正确（未配置口令时一律不认）
+     */
+    public boolean isTrusted(HttpServletRequest request) {
+        String secret = seckillProperties.getEngine().getForwardSecret();
+        return StrUtil.isNotBlank(secret) && secret.equals(request.getHeader(FORWARD_HEADER));
+    }
+
+    /**
+     * 把当前的秒杀请求转发给 ownerUrl；不能转发（不在请求线程 / 已转发过一次）或连不上持有节点返回 null（可以重试），
+     * 请求已发出但结果未知时返回"结果确认中"的失败结果
+     */
+    public Result forward(String ownerUrl, Long voucherId) {
+        HttpServletRequest request = currentRequest();
+        if (request == null || isForwarded(request)) {
+            return null;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("authorization", request.getHeader("authorization"));
+        String secret = seckillProperties.getEngine().getForwardSecret();
+        headers.set(FORWARD_HEADER, StrUtil.isNotBlank(secret) ? secret : "1");
+        try {
+            return restTemplate.postForObject(ownerUrl + "/voucher-order/seckill/{id}",
+                    new HttpEntity<>(headers), Result.class, voucherId);
+        } catch (Exception e) {
+            if (notSent(e)) {
+                log.warn("秒杀请求转发失败，持有节点连不上: owner={}, voucherId={}, {}", ownerUrl, voucherId, e.getMessage());
+                return null;
+            }
+            // 订单号由持有节点生成，这里拿不到，让用户到"我的订单"查看
+            log.warn("秒杀请求已转发但结果未知: owner={}, voucherId={}, {}", ownerUrl, voucherId, e.getMessage());
+            return new Result(false, "下单结果确认中，请稍后在我的订单中查看", null, null);
+        }
+    }
+
+    /**
+     * 请求确定没有送到持有节点：连接被拒绝 / 连接超时 / 地址无法解析
+     */
+    private static boolean notSent(Exception e) {
+        if (!(e instanceof ResourceAccessException)) {
+            return false;
+        }
+        Throwable cause = e.getCause();
+        if (cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+            return true;
+        }
+        // HttpURLConnection 的连接超时和读超时都是 SocketTimeoutException，只能按消息区分
+        return cause instanceof SocketTimeoutException
+                && cause.getMessage() != null && cause.getMessage().toLowerCase().contains("connect");
+    }
+
+    private static HttpServletRequest currentRequest() {
+        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+        return attributes == null ? null : attributes.getRequest();
+    }
+}
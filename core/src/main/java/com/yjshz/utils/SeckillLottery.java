@@ -0,0 +1,301 @@
+package com.yjshz.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.LotteryResultDTO;
+import com.yjshz.entity.SeckillVoucher;
+import com.yjshz.entity.VoucherOrder;
+import com.yjshz.mapper.VoucherOrderMapper;
+import com.yjshz.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预约抽签（tb_seckill_voucher.sale_mode = 1）：把秒杀开始那一秒的洪峰换成可调度的平稳负载
+ * 1) 登记：生效时间内用户登记意向，lottery_register.lua 一次 SETBIT，重复登记幂等；券的 Redis 库存固定为 0，先到先得的接口买不到
+ * 2) 开奖：失效时间过后（再等 draw-delay），拿到锁的节点读出登记位图，按券上保存的随机种子洗牌，取前 stock 个为中签用户
+ * 3) 建单：中签用户按 batch-size 分批多值 INSERT IGNORE 进 tb_voucher_order（buy_seq = 1，靠唯一约束幂等），
+ *    每批写完按数据库里的订单id写中签结果 seckill:lottery:result:{voucherId}，把订单放进未支付延迟队列（支付期限 pay-timeout），
+ *    并向 stream.lottery.notify 追加一条中签消息
+ * 4) 收尾：扣数据库库存并置为已开奖（draw_status = 0 才更新，只扣一次）
+ * 中途失败时下一轮整体重做：种子和登记名单不变，中签用户相同，已插入的订单被唯一约束忽略，延迟队列 ZADD NX 不会推迟期限；消息为至少一次
+ * stream.lottery.notify 是发件箱：本服务只写不读，由外部推送服务（短信 / App 推送）用消费组读取后发给用户；
+ * 写入时按 notify-max-len 近似裁剪，推送服务长时间不消费时最旧的消息会被丢掉，用户仍可通过中签结果查询
+ * 中签订单超时未支付由 UnpaidOrderCanceller 关单：只归还数据库库存，不归还 Redis 库存（抽签券的 Redis 库存固定为 0，不能变成先到先得）
+ */
+@Slf4j
+@Component
+public class SeckillLottery {
+
+    public static final String NONE = "NONE";
+    public static final String REGISTERED = "REGISTERED";
+    public static final String WON = "WON";
+    public static final String LOST = "LOST";
+
+    public static final String NOTIFY_STREAM = "stream.lottery.notify";
+
+    private static final String LOCK_KEY = "lock:seckill:lottery";
+    private static final String REG_KEY = RedisConstants.SECKILL_LOTTERY_KEY + "reg:";
+    private static final String CHUNKS_KEY = RedisConstants.SECKILL_LOTTERY_KEY + "chunks:";
+    private static final String RESULT_KEY = RedisConstants.SECKILL_LOTTERY_KEY + "result:";
+    private static final String META_SEED = "drawSeed";
+    private static final String META_DRAWN = "drawn";
+    private static final String META_REGISTERED = "registered";
+
+    private static final DefaultRedisScript<Long> REGISTER_SCRIPT;
+    static {
+        REGISTER_SCRIPT = new DefaultRedisScript<>();
+        REGISTER_SCRIPT.setLocation(new ClassPathResource("lottery_register.lua"));
+        REGISTER_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private ISeckillVoucherService seckillVoucherService;
+    @Resource private VoucherOrderMapper voucherOrderMapper;
+    @Resource private RedisIDWorker redisIDWorker;
+    @Resource private RedissonClient redissonClient;
+
+    /**
+     * 登记，返回码见 lottery_register.lua
+     */
+    public int register(Long voucherId, Long userId) {
+        long chunk = SeckillStockManager.bitmapChunk(userId);
+        Long r = stringRedisTemplate.execute(REGISTER_SCRIPT,
+                Arrays.asList(RedisConstants.SECKILL_META_KEY + voucherId, REG_KEY + voucherId + ":" + chunk, CHUNKS_KEY + voucherId),
+                String.valueOf(chunk), String.valueOf(SeckillStockManager.bitmapOffset(userId)));
+        return r == null ? 1 : r.intValue();
+    }
+
+    /**
+     * 查询用户在某张抽签券上的状态
+     */
+    public LotteryResultDTO result(Long voucherId, Long userId) {
+        Object orderId = stringRedisTemplate.opsForHash().get(RESULT_KEY + voucherId, userId.toString());
+        if (orderId != null) {
+            return new LotteryResultDTO(voucherId, WON, Long.valueOf(orderId.toString()));
+        }
+        boolean registered = Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                .getBit(REG_KEY + voucherId + ":" + SeckillStockManager.bitmapChunk(userId),
+                        SeckillStockManager.bitmapOffset(userId)));
+        if (!registered) {
+            return new LotteryResultDTO(voucherId, NONE, null);
+        }
+        boolean drawn = stringRedisTemplate.opsForHash().hasKey(RedisConstants.SECKILL_META_KEY + voucherId, META_DRAWN);
+        return new LotteryResultDTO(voucherId, drawn ? LOST : REGISTERED, null);
+    }
+
+    @Scheduled(fixedDelayString = "#{@seckillProperties.lottery.pollInterval.toMillis()}")
+    public void scheduledDraw() {
+        if (!seckillProperties.getLottery().isEnabled()) return;
+        draw();
+    }
+
+    /**
+     * 给所有已截止登记、还没开奖的券开奖，没拿到锁（其他节点正在执行）返回 false
+     */
+    public boolean draw() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            LocalDateTime closedBefore = LocalDateTime.now().minus(seckillProperties.getLottery().getDrawDelay());
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id", "stock")
+                    .eq("sale_mode", SeckillStockManager.SALE_MODE_LOTTERY)
+                    .eq("draw_status", 0)
+                    .le("end_time", closedBefore)
+                    .list();
+            for (SeckillVoucher voucher : vouchers) {
+                try {
+                    drawOne(voucher.getVoucherId(), voucher.getStock() == null ? 0 : voucher.getStock());
+                } catch (Exception e) {
+                    log.error("抽签开奖失败，下一轮重试: voucherId={}", voucher.getVoucherId(), e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private void drawOne(Long voucherId, int stock) {
+        long start = System.currentTimeMillis();
+        long[] registrants = registrants(voucherId);
+        long[] winners = pick(registrants, Math.max(stock, 0), seed(voucherId));
+
+        int batchSize = Math.max(seckillProperties.getLottery().getBatchSize(), 1);
+        int inserted = 0;
+        for (int from = 0; from < winners.length; from += batchSize) {
+            inserted += persistWinners(voucherId, Arrays.copyOfRange(winners, from, Math.min(from + batchSize, winners.length)));
+        }
+
+        // 先写开奖标记（查询时未中签的才显示 LOST），再扣库存并置为已开奖
+        long ttl = seckillProperties.getLottery().getResultTtl().getSeconds();
+        Set<String> chunks = stringRedisTemplate.opsForSet().members(CHUNKS_KEY + voucherId);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.opsForHash().put(RedisConstants.SECKILL_META_KEY + voucherId, META_DRAWN, String.valueOf(winners.length));
+                ops.expire(RESULT_KEY + voucherId, ttl, TimeUnit.SECONDS);
+                for (String chunk : chunks == null ? Collections.<String>emptySet() : chunks) {
+                    ops.expire(REG_KEY + voucherId + ":" + chunk, ttl, TimeUnit.SECONDS);
+                }
+                ops.expire(CHUNKS_KEY + voucherId, ttl, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        boolean finished = seckillVoucherService.update()
+                .setSql("stock = stock - " + winners.length)
+                .set("draw_status", 1)
+                .eq("voucher_id", voucherId)
+                .eq("draw_status", 0)
+                .update();
+        log.info("抽签开奖完成: voucherId={}, registered={}, winners={}, inserted={}, finished={}, cost={}ms",
+                voucherId, registrants.length, winners.length, inserted, finished, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 读出全部登记用户（按 userId 升序）：每个出现过的段 GET 一次，逐位解码
+     */
+    private long[] registrants(Long voucherId) {
+        Set<String> members = stringRedisTemplate.opsForSet().members(CHUNKS_KEY + voucherId);
+        List<Long> chunks = new ArrayList<>();
+        if (members != null) {
+            members.forEach(chunk -> chunks.add(Long.valueOf(chunk)));
+        }
+        Collections.sort(chunks);
+
+        Object registered = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_META_KEY + voucherId, META_REGISTERED);
+        long[] users = new long[registered == null ? 16 : Math.max(Integer.parseInt(registered.toString()), 16)];
+        int n = 0;
+        for (Long chunk : chunks) {
+            byte[] key = (REG_KEY + voucherId + ":" + chunk).getBytes(StandardCharsets.UTF_8);
+            byte[] bits = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+            if (bits == null) continue;
+            long base = SeckillStockManager.bitmapChunkBase(chunk);
+            for (int i = 0; i < bits.length; i++) {
+                int b = bits[i] & 0xFF;
+                while (b != 0) {
+                    // Redis 位图第 0 位是字节的最高位
+                    int bit = Integer.numberOfLeadingZeros(b) - 24;
+                    if (n == users.length) {
+                        users = Arrays.copyOf(users, users.length * 2);
+                    }
+                    users[n++] = base + i * 8L + bit;
+                    b &= ~(0x80 >>> bit);
+                }
+            }
+        }
+        return Arrays.copyOf(users, n);
+    }
+
+    /**
+     * 开奖种子：第一次开奖时生成并记在券元信息里，重跑时沿用，保证中签名单不变
+     */
+    private long seed(Long voucherId) {
+        String metaKey = RedisConstants.SECKILL_META_KEY + voucherId;
+        stringRedisTemplate.opsForHash().putIfAbsent(metaKey, META_SEED, String.valueOf(ThreadLocalRandom.current().nextLong()));
+        return Long.parseLong(String.valueOf(stringRedisTemplate.opsForHash().get(metaKey, META_SEED)));
+    }
+
+    /**
+     * 部分 Fisher-Yates 洗牌：只洗出前 k 个，O(k)；登记人数不超过名额时全部中签
+     */
+    static long[] pick(long[] registrants, int k, long seed) {
+        if (registrants.length <= k) {
+            return registrants;
+        }
+        long[] pool = registrants.clone();
+        Random random = new Random(seed);
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(pool.length - i);
+            long tmp = pool[i];
+            pool[i] = pool[j];
+            pool[j] = tmp;
+        }
+        return Arrays.copyOf(pool, k);
+    }
+
+    /**
+     * 一批中签用户：多值 INSERT IGNORE 建单，再以数据库里的订单为准写中签结果、支付期限和中签消息，返回本次新插入的订单数
+     */
+    private int persistWinners(Long voucherId, long[] userIds) {
+        long[] orderIds = redisIDWorker.nextIds("order", userIds.length);
+        List<VoucherOrder> orders = new ArrayList<>(userIds.length);
+        List<Long> users = new ArrayList<>(userIds.length);
+        for (int i = 0; i < userIds.length; i++) {
+            orders.add(new VoucherOrder()
+                    .setId(orderIds[i])
+                    .setUserId(userIds[i])
+                    .setVoucherId(voucherId)
+                    .setBuySeq(1));
+            users.add(userIds[i]);
+        }
+        int inserted = voucherOrderMapper.insertIgnoreBatch(orders);
+
+        // 重跑时已经插入过的用户保留原来的订单id
+        List<VoucherOrder> persisted = voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                .select("id", "user_id")
+                .eq("voucher_id", voucherId)
+                .eq("buy_seq", 1)
+                .in("user_id", users));
+        SeckillProperties.Unpaid unpaid = seckillProperties.getUnpaid();
+        SeckillProperties.Lottery config = seckillProperties.getLottery();
+        long payDeadline = unpaid.isEnabled() && config.getPayTimeout().toMillis() > 0
+                ? System.currentTimeMillis() + config.getPayTimeout().toMillis() : 0;
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                Map<String, String> results = new HashMap<>(persisted.size() * 2);
+                for (VoucherOrder order : persisted) {
+                    results.put(order.getUserId().toString(), order.getId().toString());
+                    Map<String, String> message = new HashMap<>(4);
+                    message.put("userId", order.getUserId().toString());
+                    message.put("voucherId", voucherId.toString());
+                    message.put("orderId", order.getId().toString());
+                    ops.opsForStream().add(StreamRecords.newRecord().in(NOTIFY_STREAM).ofMap(message));
+                    if (payDeadline > 0) {
+                        // NX：重跑开奖时不推迟已有的期限
+                        ops.opsForZSet().addIfAbsent(UnpaidOrderCanceller.delayKey(order.getId(), unpaid.getShards()),
+                                order.getId().toString(), payDeadline);
+                    }
+                    // 中签订单出现在"我的订单"第一页：和 evictOrderPageCache 一样先递增版本号再删除
+                    String versionKey = RedisConstants.CACHE_ORDER_PAGE_VERSION_KEY + order.getUserId();
+                    ops.opsForValue().increment(versionKey);
+                    ops.expire(versionKey, RedisConstants.CACHE_ORDER_PAGE_TTL * 2, TimeUnit.MINUTES);
+                    ops.delete(RedisConstants.CACHE_ORDER_PAGE_KEY + order.getUserId());
+                }
+                if (!results.isEmpty()) {
+                    ops.opsForHash().putAll(RESULT_KEY + voucherId, results);
+                    ops.opsForStream().trim(NOTIFY_STREAM, config.getNotifyMaxLen(), true);
+                }
+                return null;
+            }
+        });
+        return inserted;
+    }
+}
@@ -0,0 +1,193 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.SeckillMetricsDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀实时指标：按秒聚合的环形时间序列（只保存本节点的数据）
+ * - 热路径只做 LongAdder.increment()，无锁、按线程分散累加，不会互相争用
+ * - 每秒由定时任务读累计值，与上一秒相减得到该秒增量（不 reset，计数不会丢），同时采样 stream 积压 / pending
+ * - 样本写入固定长度的环形数组（AtomicReferenceArray，单线程写、多线程读），超过 history 秒的自动覆盖
+ */
+@Slf4j
+@Component
+public class SeckillMetrics {
+
+    public enum Outcome {
+        ACCEPTED, SOLD_OUT, QUOTA_REACHED, NOT_STARTED, ENDED, FORWARDED, BUSY, THROTTLED, FAILED
+    }
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private OrderStreamManager orderStreamManager;
+
+    private final LongAdder[] outcomes = new LongAdder[OUTCOMES.length];
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder persistBatches = new LongAdder();
+    private final LongAdder persistNanos = new LongAdder();
+    private final LongAccumulator persistMaxNanos = new LongAccumulator(Math::max, 0);
+
+    // 上一次采样时的累计值
+    private final long[] lastOutcomes = new long[OUTCOMES.length];
+    private long lastPersisted;
+    private long lastPersistBatches;
+    private long lastPersistNanos;
+
+    private AtomicReferenceArray<SeckillMetricsDTO> samples;
+    private volatile long lastSecond;
+
+    @PostConstruct
+    private void init() {
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+        samples = new AtomicReferenceArray<>(Math.max(seckillProperties.getMetrics().getHistory(), 1));
+    }
+
+    public void record(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    /**
+     * 按 seckill.lua / 内存引擎的返回码记录一次下单结果
+     */
+    public void recordSeckill(int code) {
+        switch (code) {
+            case 0: record(Outcome.ACCEPTED); break;
+            case 1: record(Outcome.SOLD_OUT); break;
+            case 2: record(Outcome.QUOTA_REACHED); break;
+            case 3: record(Outcome.NOT_STARTED); break;
+            case 4: record(Outcome.ENDED); break;
+            case SeckillEngine.NOT_OWNER: record(Outcome.FORWARDED); break;
+            case SeckillEngine.BUSY: record(Outcome.BUSY); break;
+            default: record(Outcome.FAILED);
+        }
+    }
+
+    /**
+     * 记录一次落库（一个事务）：订单数 + 耗时
+     */
+    public void recordPersist(int orders, long nanos) {
+        persisted.add(orders);
+        persistBatches.increment();
+        persistNanos.add(nanos);
+        persistMaxNanos.accumulate(nanos);
+    }
+
+    /**
+     * 最近 seconds 秒的样本，按时间先后排列
+     */
+    public List<SeckillMetricsDTO> recent(int seconds) {
+        int n = samples.length();
+        long last = lastSecond;
+        List<SeckillMetricsDTO> result = new ArrayList<>(Math.min(seconds, n));
+        for (long second = last - Math.min(seconds, n) + 1; second <= last; second++) {
+            SeckillMetricsDTO sample = samples.get((int) Math.floorMod(second, (long) n));
+            // 跳过被覆盖的旧槽位 / 停顿期间没有采样的秒
+            if (sample != null && sample.getTime() == second) {
+                result.add(sample);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 最近一秒的样本，还没有采样时返回 null
+     */
+    public SeckillMetricsDTO latest() {
+        long last = lastSecond;
+        SeckillMetricsDTO sample = samples.get((int) Math.floorMod(last, (long) samples.length()));
+        return sample != null && sample.getTime() == last ? sample : null;
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void sample() {
+        if (!seckillProperties.getMetrics().isEnabled()) return;
+        long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+
+        SeckillMetricsDTO sample = new SeckillMetricsDTO();
+        sample.setTime(second);
+        long[] delta = new long[OUTCOMES.length];
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            long total = outcomes[i].sum();
+            delta[i] = total - lastOutcomes[i];
+            lastOutcomes[i] = total;
+        }
+        sample.setAccepted(delta[Outcome.ACCEPTED.ordinal()]);
+        sample.setSoldOut(delta[Outcome.SOLD_OUT.ordinal()]);
+        sample.setQuotaReached(delta[Outcome.QUOTA_REACHED.ordinal()]);
+        sample.setNotStarted(delta[Outcome.NOT_STARTED.ordinal()]);
+        sample.setEnded(delta[Outcome.ENDED.ordinal()]);
+        sample.setForwarded(delta[Outcome.FORWARDED.ordinal()]);
+        sample.setBusy(delta[Outcome.BUSY.ordinal()]);
+        sample.setThrottled(delta[Outcome.THROTTLED.ordinal()]);
+        sample.setFailed(delta[Outcome.FAILED.ordinal()]);
+
+        long persistedTotal = persisted.sum();
+        long batchesTotal = persistBatches.sum();
+        long nanosTotal = persistNanos.sum();
+        long batches = batchesTotal - lastPersistBatches;
+        sample.setPersisted(persistedTotal - lastPersisted);
+        sample.setPersistAvgMs(batches == 0 ? 0 : round((nanosTotal - lastPersistNanos) / 1e6 / batches));
+        sample.setPersistMaxMs(round(persistMaxNanos.getThenReset() / 1e6));
+        lastPersisted = persistedTotal;
+        lastPersistBatches = batchesTotal;
+        lastPersistNanos = nanosTotal;
+
+        sampleStreams(sample);
+
+        samples.set((int) Math.floorMod(second, (long) samples.length()), sample);
+        lastSecond = second;
+    }
+
+    /**
+     * 采样所有分区的消费组积压（XINFO GROUPS 的 lag）和 pending 数
+     */
+    private void sampleStreams(SeckillMetricsDTO sample) {
+        long lag = 0;
+        long pending = 0;
+        try {
+            for (int p = 0; p < orderStreamManager.partitions(); p++) {
+                StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(orderStreamManager.streamKey(p));
+                for (int i = 0; i < groups.size(); i++) {
+                    StreamInfo.XInfoGroup group = groups.get(i);
+                    if (!OrderStreamManager.GROUP_NAME.equals(group.groupName())) continue;
+                    pending += group.pendingCount();
+                    Object groupLag = group.getRaw().get("lag");
+                    if (lag >= 0 && groupLag != null) {
+                        lag += Long.parseLong(groupLag.toString());
+                    } else {
+                        // Redis 7 之前没有 lag 字段；stream 被裁剪过时 lag 也可能为空
+                        lag = -1;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.debug("采样订单 stream 失败: {}", e.getMessage());
+            lag = -1;
+            pending = -1;
+        }
+        sample.setStreamLag(lag);
+        sample.setPending(pending);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,158 @@
+package com.yjshz.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.entity.SeckillVoucher;
+import com.yjshz.entity.VoucherOrder;
+import com.yjshz.mapper.VoucherOrderMapper;
+import com.yjshz.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 秒杀预热：启动时和每个秒杀开始前，把库存和时间窗口批量写进 Redis
+ * - 库存只在 key 不存在时写入（SETNX），Redis 被清空/重启后能自动恢复，正在扣减的库存不受影响
+ * - 库存 key 不存在，说明 Redis 丢过数据：先从订单表恢复已购计数，再写库存，最后清除售罄标记
+ * - 已购计数不存在（升级前的数据）时也从订单表恢复
+ * - 一人一单的券还在用 hash 记录已购用户、且 userId 足够密集时迁移到位图
+ * - 多节点同时跑时只有拿到锁的节点执行
+ */
+@Slf4j
+@Component
+public class SeckillPrewarmer {
+
+    private static final String LOCK_KEY = "lock:seckill:prewarm";
+
+    @Resource private ISeckillVoucherService seckillVoucherService;
+    @Resource private VoucherOrderMapper voucherOrderMapper;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private SeckillSoldOutGate soldOutGate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private RedissonClient redissonClient;
+    @Resource private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 启动时预热所有未结束的秒杀券
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStartup() {
+        if (!seckillProperties.getPrewarm().isEnabled()) return;
+        warm(null);
+    }
+
+    /**
+     * 定时预热即将开始（lead 时间内）且未结束的秒杀券
+     */
+    @Scheduled(fixedDelayString = "#{@seckillProperties.prewarm.interval.toMillis()}")
+    public void warmUpcoming() {
+        if (!seckillProperties.getPrewarm().isEnabled()) return;
+        warm(LocalDateTime.now().plus(seckillProperties.getPrewarm().getLead()));
+    }
+
+    private void warm(LocalDateTime beginBefore) {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", now)
+                    .le(beginBefore != null, "begin_time", beginBefore)
+                    .list();
+            // 先按订单表重建已购计数，再 SETNX 库存：库存 key 出现之前限购依据必须已经就位，
+            // 否则 Redis 被清空后第一批请求会在没有已购记录的情况下通过限购校验
+            List<Long> missing = seckillStockManager.missingStock(vouchers);
+            Map<Long, long[]> counts = new HashMap<>();
+            for (SeckillVoucher voucher : vouchers) {
+                int buckets = voucher.getStockBuckets() == null ? 1 : voucher.getStockBuckets();
+                if (missing.contains(voucher.getVoucherId())
+                        || !seckillStockManager.hasBuyers(voucher.getVoucherId(), buckets)) {
+                    counts.put(voucher.getVoucherId(), rebuildBuyers(voucher, buckets));
+                    seckillStockManager.clearAbandoned(voucher.getVoucherId());
+                }
+            }
+            List<Long> fresh = seckillStockManager.warmIfAbsent(vouchers);
+
+            for (SeckillVoucher voucher : vouchers) {
+                int buckets = voucher.getStockBuckets() == null ? 1 : voucher.getStockBuckets();
+                long[] count = counts.get(voucher.getVoucherId());
+                if (!fresh.contains(voucher.getVoucherId())) {
+                    if (count == null) {
+                        migrateIfNeeded(voucher.getVoucherId(), seckillStockManager.bitmapEligible(voucher.getPerUserLimit()));
+                    } else {
+                        // 只补已购计数，库存仍在正常扣减
+                        log.info("秒杀已购计数已重建: voucherId={}, buyers={}", voucher.getVoucherId(), count[2]);
+                    }
+                    continue;
+                }
+                if (count == null) {
+                    // 检查之后库存 key 才消失（极少见）：补建已购计数
+                    count = rebuildBuyers(voucher, buckets);
+                    seckillStockManager.clearAbandoned(voucher.getVoucherId());
+                }
+                // 数据库剩余库存 + 有效订单 = 累计投放量
+                int stock = voucher.getStock() == null ? 0 : voucher.getStock();
+                seckillStockManager.setTotal(voucher.getVoucherId(), stock + count[0] - count[1], true);
+                seckillStockManager.setCancelled(voucher.getVoucherId(), count[1]);
+                soldOutGate.reset(voucher.getVoucherId());
+                log.info("秒杀库存已重新预热: voucherId={}, stock={}, buyers={}, orders={}",
+                        voucher.getVoucherId(), voucher.getStock(), count[2], count[0]);
+            }
+        } catch (Exception e) {
+            log.error("秒杀预热失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从订单表重建已购计数
+     * @return {订单数, 已取消订单数, 购买用户数}
+     */
+    private long[] rebuildBuyers(SeckillVoucher voucher, int buckets) {
+        // 已取消（状态 4）的订单仍占限购名额，但库存已经归还
+        Map<Long, Long> purchases = new HashMap<>();
+        long orders = 0;
+        long cancelled = 0;
+        for (VoucherOrder order : voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                .select("user_id", "status").eq("voucher_id", voucher.getVoucherId()))) {
+            purchases.merge(order.getUserId(), 1L, Long::sum);
+            orders++;
+            if (order.getStatus() != null && order.getStatus() == 4) {
+                cancelled++;
+            }
+        }
+        seckillStockManager.rebuildBuyers(voucher.getVoucherId(), buckets, purchases,
+                seckillStockManager.bitmapEligible(voucher.getPerUserLimit()));
+        return new long[]{orders, cancelled, purchases.size()};
+    }
+
+    /**
+     * 一人一单的券还在用 hash 记录已购用户时尝试迁移到位图（userId 太稀疏时不迁移；先置为迁移中，之后的预热轮次再复制，见 migrateBuyersToBitmap）；
+     * 券被内存引擎持有时跳过（引擎按加载时的方式写入）
+     */
+    private void migrateIfNeeded(Long voucherId, boolean bitmap) {
+        if (!bitmap || SeckillStockManager.DEDUP_BITMAP.equals(seckillStockManager.dedupMode(voucherId))
+                || Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId))) {
+            return;
+        }
+        long migrated = seckillStockManager.migrateBuyersToBitmap(voucherId);
+        if (migrated < 0) {
+            return;
+        }
+        log.info("已购用户已迁移到位图: voucherId={}, buyers={}", voucherId, migrated);
+    }
+}
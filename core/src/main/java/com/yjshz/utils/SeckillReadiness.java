@@ -0,0 +1,53 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 就绪状态：滚动发布时负载均衡按 GET /health/readiness 摘流 / 引流
+ * - 启动：订单消费者在 Web 容器之前启动，Spring Boot 在应用就绪后自动置为 ACCEPTING_TRAFFIC
+ * - 停机顺序：
+ *   1) 本组件：监听 ContextClosedEvent（上下文关闭时先发布该事件，再按 phase 停止生命周期组件，不依赖同一 phase 内的 bean 顺序），
+ *      置为 REFUSING_TRAFFIC，等 readiness-delay 让负载均衡摘掉本节点（期间照常处理请求）
+ *   2) Web 容器优雅停机：不再接新请求，等在途请求处理完
+ *   3) 库存租约：把本节点没卖掉的件数还回中心库存（见 SeckillStockLeaser）
+ *   4) 订单消费者：停止读取新消息，已读到的落库 + ACK，然后让出分区（见 VoucherOrderServiceImpl）
+ *   5) Redis / 数据源等连接在所有生命周期组件停止后才销毁
+ */
+@Slf4j
+@Component
+public class SeckillReadiness implements ApplicationListener<ContextClosedEvent> {
+
+    @Resource private ApplicationContext applicationContext;
+    @Resource private ApplicationAvailability applicationAvailability;
+    @Resource private SeckillProperties seckillProperties;
+
+    public boolean isReady() {
+        return applicationAvailability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        // 子上下文关闭时不处理
+        if (event.getApplicationContext() != applicationContext) {
+            return;
+        }
+        AvailabilityChangeEvent.publish(applicationContext, ReadinessState.REFUSING_TRAFFIC);
+        long delay = seckillProperties.getShutdown().getReadinessDelay().toMillis();
+        log.info("节点停止就绪，{}ms 后开始停止接收请求", delay);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
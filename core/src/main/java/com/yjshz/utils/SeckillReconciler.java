@@ -0,0 +1,321 @@
+package com.yjshz.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.dto.StockReconcileDTO;
+import com.yjshz.entity.SeckillVoucher;
+import com.yjshz.mapper.VoucherOrderMapper;
+import com.yjshz.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 秒杀库存对账：比较 Redis 库存 / 已受理数、tb_seckill_voucher.stock、tb_voucher_order 订单数
+ * - 订单数按主键水位线增量统计：每轮只 GROUP BY 主键 > 水位线的尾部订单，过了沉淀窗口的部分并入基数、水位线前移
+ *   （订单id带时间戳，但落库顺序和id顺序不完全一致，所以留一个沉淀窗口，另外定期全量重算兜底）
+ *   水位线同时不越过订单 Stream 上最早一条还没 ACK 的订单：消费积压 / 重试退避超过沉淀窗口时，这些订单落库后仍会被统计
+ * - Redis 侧用 reconcile.lua 原子读取，与 seckill.lua 不会交错
+ * - 开启 autoCorrect 时，只有 Redis 已受理数 - 死信订单数 == 已落库订单数（没有在途订单）才以数据库库存为准修正 Redis
+ *   （死信订单扣了 Redis 库存却没扣数据库库存，修正后这部分库存重新开卖）
+ * - 券被内存引擎持有时不修正（引擎以加载时的库存为准，外部改动会和它的扣减冲突）
+ * - 各节点租约里还没卖掉的件数计入 Redis 库存；有节点持有租约时同样不修正
+ * - 结果写到 seckill:recon:report，任意节点都能查询；多节点只有拿到锁的节点执行
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    private static final String LOCK_KEY = "lock:seckill:reconcile";
+    private static final String WATERMARK_KEY = RedisConstants.SECKILL_RECON_KEY + "wm";
+    private static final String COUNT_KEY = RedisConstants.SECKILL_RECON_KEY + "count";
+    private static final String REPORT_KEY = RedisConstants.SECKILL_RECON_KEY + "report";
+    private static final String WM_FIELD = "wm";
+    private static final String RESYNC_FIELD = "resyncAt";
+    /**
+     * reconcile.lua 发现传入的租约 key 已过时（返回 {-1}）时最多重试几次
+     */
+    private static final int STALE_KEYS_RETRIES = 3;
+
+    private static final DefaultRedisScript<List> RECONCILE_SCRIPT;
+    static {
+        RECONCILE_SCRIPT = new DefaultRedisScript<>();
+        RECONCILE_SCRIPT.setLocation(new ClassPathResource("reconcile.lua"));
+        RECONCILE_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private ISeckillVoucherService seckillVoucherService;
+    @Resource private VoucherOrderMapper voucherOrderMapper;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private RedissonClient redissonClient;
+    @Resource private OrderStreamManager orderStreamManager;
+
+    @Scheduled(fixedDelayString = "#{@seckillProperties.reconcile.interval.toMillis()}")
+    public void scheduledReconcile() {
+        if (!seckillProperties.getReconcile().isEnabled()) return;
+        reconcile();
+    }
+
+    /**
+     * 执行一轮对账，没拿到锁（其他节点正在执行）返回 false
+     */
+    public boolean reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            doReconcile();
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * 最近一轮的对账结果
+     */
+    public List<StockReconcileDTO> report() {
+        List<StockReconcileDTO> list = new ArrayList<>();
+        for (Object json : stringRedisTemplate.opsForHash().values(REPORT_KEY)) {
+            list.add(JSONUtil.toBean(json.toString(), StockReconcileDTO.class));
+        }
+        list.sort(Comparator.comparing(StockReconcileDTO::getVoucherId));
+        return list;
+    }
+
+    private void doReconcile() {
+        SeckillProperties.Reconcile config = seckillProperties.getReconcile();
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .select("voucher_id")
+                .gt("end_time", now.minus(config.getActiveGrace()))
+                // 抽签券不经过 Redis 库存，开奖时直接扣数据库库存
+                .ne("sale_mode", SeckillStockManager.SALE_MODE_LOTTERY)
+                .list();
+        if (vouchers.isEmpty()) return;
+
+        // 1) 订单数：先统计订单（必须在读数据库库存之前，见 reconcile.lua 的修正条件）
+        Map<Long, Long> orders = countOrders(now);
+
+        // 2) 数据库库存（只读活跃券，行数很少）
+        Map<Long, Long> dbStocks = new HashMap<>();
+        for (SeckillVoucher voucher : seckillVoucherService.query()
+                .select("voucher_id", "stock")
+                .in("voucher_id", toIds(vouchers))
+                .list()) {
+            dbStocks.put(voucher.getVoucherId(), voucher.getStock() == null ? 0L : voucher.getStock().longValue());
+        }
+
+        // 3) 逐券读 Redis 并比较
+        Map<String, String> reports = new HashMap<>();
+        long checkedAt = System.currentTimeMillis();
+        for (SeckillVoucher voucher : vouchers) {
+            Long voucherId = voucher.getVoucherId();
+            long dbOrders = orders.getOrDefault(voucherId, 0L);
+            long dbStock = dbStocks.getOrDefault(voucherId, 0L);
+            StockReconcileDTO dto;
+            try {
+                dto = check(voucherId, dbStock, dbOrders, config.isAutoCorrect());
+            } catch (IllegalStateException e) {
+                log.warn(e.getMessage());
+                continue;
+            }
+            dto.setCheckedAt(checkedAt);
+            reports.put(voucherId.toString(), JSONUtil.toJsonStr(dto));
+
+            if (nonZero(dto.getDbDrift()) || nonZero(dto.getRedisDrift()) || Boolean.TRUE.equals(dto.getCorrected())) {
+                log.warn("秒杀库存对账不一致: {}", dto);
+            }
+        }
+        stringRedisTemplate.opsForHash().putAll(REPORT_KEY, reports);
+    }
+
+    private StockReconcileDTO check(Long voucherId, long dbStock, long dbOrders, boolean autoCorrect) {
+        if (autoCorrect && Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId))) {
+            autoCorrect = false;
+        }
+        // 超时取消的订单仍在订单表和已购计数里（状态 4），但库存已经归还
+        long cancelled = seckillStockManager.cancelled(voucherId);
+        List<?> r = null;
+        for (int attempt = 0; attempt < STALE_KEYS_RETRIES; attempt++) {
+            int buckets = seckillStockManager.buckets(voucherId);
+            List<String> keys = new ArrayList<>(seckillStockManager.stockKeys(voucherId, buckets));
+            keys.addAll(seckillStockManager.buyersKeys(voucherId, buckets));
+            keys.add(RedisConstants.SECKILL_META_KEY + voucherId);
+            keys.add(seckillStockManager.leaseIndexKey(voucherId));
+            List<String> args = new ArrayList<>();
+            args.add(String.valueOf(buckets));
+            args.add(String.valueOf(dbOrders));
+            args.add(String.valueOf(dbStock));
+            args.add(autoCorrect ? "1" : "0");
+            args.add(String.valueOf(seckillProperties.getReconcile().getSettleWindow().toMillis()));
+            for (String holder : seckillStockManager.leaseHolders(voucherId)) {
+                keys.add(seckillStockManager.leaseKey(voucherId, holder));
+                args.add(holder);
+            }
+            r = stringRedisTemplate.execute(RECONCILE_SCRIPT, keys, args.toArray());
+            if (r != null && r.size() > 1) {
+                break;
+            }
+            r = null;
+        }
+        if (r == null) {
+            // 租约持有节点一直在变，本轮跳过这张券
+            throw new IllegalStateException("秒杀库存对账未能取得一致的租约快照: voucherId=" + voucherId);
+        }
+        long redisStock = ((Number) r.get(0)).longValue();
+        long redisAccepted = ((Number) r.get(1)).longValue();
+        long abandoned = ((Number) r.get(3)).longValue();
+
+        // 没有累计投放量记录（比如升级前创建的券）时，以数据库为基准补上
+        Long total = seckillStockManager.total(voucherId);
+        if (total == null) {
+            total = dbStock + dbOrders - cancelled;
+            seckillStockManager.setTotal(voucherId, total, false);
+        }
+
+        StockReconcileDTO dto = new StockReconcileDTO();
+        dto.setVoucherId(voucherId);
+        dto.setTotal(total);
+        dto.setRedisStock(redisStock);
+        dto.setRedisAccepted(redisAccepted);
+        dto.setDbStock(dbStock);
+        dto.setDbOrders(dbOrders);
+        dto.setCancelled(cancelled);
+        dto.setAbandoned(abandoned);
+        dto.setPersistLag(redisAccepted - abandoned - dbOrders);
+        dto.setDbDrift(dbStock + dbOrders - cancelled - total);
+        dto.setRedisDrift(redisStock + redisAccepted - abandoned - cancelled - total);
+        dto.setCorrected(((Number) r.get(2)).longValue() == 1L);
+        return dto;
+    }
+
+    /**
+     * 各券已落库订单数 = 水位线之前的基数 + 水位线之后的尾部
+     */
+    private Map<Long, Long> countOrders(LocalDateTime now) {
+        SeckillProperties.Reconcile config = seckillProperties.getReconcile();
+        long nowMillis = System.currentTimeMillis();
+
+        Object resyncAt = stringRedisTemplate.opsForHash().get(WATERMARK_KEY, RESYNC_FIELD);
+        boolean resync = resyncAt == null
+                || nowMillis - Long.parseLong(resyncAt.toString()) >= config.getResyncInterval().toMillis();
+        long watermark = 0;
+        Map<Long, Long> base = new HashMap<>();
+        if (!resync) {
+            Object wm = stringRedisTemplate.opsForHash().get(WATERMARK_KEY, WM_FIELD);
+            watermark = wm == null ? 0 : Long.parseLong(wm.toString());
+            stringRedisTemplate.opsForHash().entries(COUNT_KEY).forEach((k, v) ->
+                    base.put(Long.valueOf(k.toString()), Long.valueOf(v.toString())));
+        }
+
+        long settledUpTo = RedisIDWorker.maxIdAt(now.minus(config.getSettleWindow()));
+        long inflight = oldestInflightOrderId();
+        if (inflight <= settledUpTo) {
+            settledUpTo = inflight - 1;
+        }
+        settledUpTo = Math.max(settledUpTo, watermark);
+        Map<Long, Long> settled = new HashMap<>();
+        Map<Long, Long> result = new HashMap<>(base);
+        for (Map<String, Object> row : voucherOrderMapper.countByVoucherSince(watermark, settledUpTo)) {
+            Long voucherId = toLong(row.get("voucherId"));
+            long cnt = toLong(row.get("cnt"));
+            long settledCnt = toLong(row.get("settled"));
+            result.merge(voucherId, cnt, Long::sum);
+            if (settledCnt > 0) {
+                settled.put(voucherId, settledCnt);
+            }
+        }
+
+        // 沉淀部分并入基数，水位线前移（事务保证基数和水位线一致）
+        boolean doResync = resync;
+        long newWatermark = settledUpTo;
+        stringRedisTemplate.execute(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.multi();
+                if (doResync) {
+                    ops.delete(COUNT_KEY);
+                    ops.opsForHash().put(WATERMARK_KEY, RESYNC_FIELD, String.valueOf(nowMillis));
+                }
+                settled.forEach((voucherId, n) -> ops.opsForHash().increment(COUNT_KEY, voucherId.toString(), n));
+                ops.opsForHash().put(WATERMARK_KEY, WM_FIELD, String.valueOf(newWatermark));
+                return ops.exec();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 订单 Stream 上还没 ACK 的订单里最早的订单id（没有时为 Long.MAX_VALUE）：
+     * 各分区取 pending-list 里最早的一条，以及 last-delivered-id 之后的第一条（已写入、还没投递给消费者）
+     * 死信队列里的订单已经 ACK 并计入死信订单数，不算在途
+     */
+    private long oldestInflightOrderId() {
+        long oldest = Long.MAX_VALUE;
+        for (int p = 0; p < orderStreamManager.partitions(); p++) {
+            String streamKey = orderStreamManager.streamKey(p);
+            PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(streamKey, OrderStreamManager.GROUP_NAME);
+            if (pending != null && pending.getTotalPendingMessages() > 0) {
+                oldest = Math.min(oldest, firstOrderId(streamKey, Range.closed(pending.minMessageId(), pending.minMessageId())));
+            }
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+            for (int i = 0; i < groups.size(); i++) {
+                StreamInfo.XInfoGroup group = groups.get(i);
+                if (OrderStreamManager.GROUP_NAME.equals(group.groupName())) {
+                    oldest = Math.min(oldest, firstOrderId(streamKey,
+                            Range.rightUnbounded(Range.Bound.exclusive(group.lastDeliveredId()))));
+                }
+            }
+        }
+        return oldest;
+    }
+
+    private long firstOrderId(String streamKey, Range<String> range) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(streamKey, range, RedisZSetCommands.Limit.limit().count(1));
+        if (records == null || records.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        Object id = records.get(0).getValue().get("id");
+        return id == null ? Long.MAX_VALUE : Long.parseLong(id.toString());
+    }
+
+    private static List<Long> toIds(List<SeckillVoucher> vouchers) {
+        List<Long> ids = new ArrayList<>(vouchers.size());
+        vouchers.forEach(v -> ids.add(v.getVoucherId()));
+        return ids;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    private static boolean nonZero(Long value) {
+        return value != null && value != 0L;
+    }
+}
@@ -0,0 +1,150 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM 本地售罄标记：
+ * - Lua 返回 1（库存不足）后本地打标，并通过 Redis 发布订阅广播给其他节点
+ * - 打标后的券直接在本地拒绝，不再消耗 ID 生成的 INCR 和 Lua 往返
+ * - 补库存 / 重新预热时清除标记并广播
+ * - 标记有有效期（seckill.stock.sold-out-ttl）：到期后放请求去 Redis 重新确认，仍售罄会再次打标，
+ *   清除广播丢失时节点不会一直拒绝
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutGate implements MessageListener {
+
+    private static final String SOLD_OUT = "soldout";
+    private static final String RESET = "reset";
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource private SeckillProperties seckillProperties;
+
+    private static class Mark {
+        // 发起 Lua 调用的时间（打标节点的时钟），和清除时间比较
+        final long timestamp;
+        // 本节点打标的时间，用来判断有效期
+        final long markedAt = System.currentTimeMillis();
+
+        Mark(long timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    // voucherId -> 售罄标记
+    private final Map<Long, Mark> soldOut = new ConcurrentHashMap<>();
+    // voucherId -> 最近一次清除时间：早于它发起的请求看到的"售罄"已过时，不能再打标
+    private final Map<Long, Long> lastReset = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Mark mark = soldOut.get(voucherId);
+        if (mark == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - mark.markedAt < seckillProperties.getStock().getSoldOutTtl().toMillis()) {
+            return true;
+        }
+        // 过期：移除后放请求去 Redis 确认（只移除这一个标记，不影响并发的新标记）
+        soldOut.remove(voucherId, mark);
+        return false;
+    }
+
+    /**
+     * 标记售罄并广播
+     * @param requestStartMillis 发起 Lua 调用的时间，用来丢弃补库存之前的过时结果
+     */
+    public void markSoldOut(Long voucherId, long requestStartMillis) {
+        if (!applySoldOut(voucherId, requestStartMillis)) {
+            return;
+        }
+        log.info("秒杀券已售罄, 本地拦截并广播: voucherId={}", voucherId);
+        publish(SOLD_OUT, voucherId, requestStartMillis);
+    }
+
+    /**
+     * 清除售罄标记并广播（补库存 / 重新预热后调用）
+     */
+    public void reset(Long voucherId) {
+        long now = System.currentTimeMillis();
+        applyReset(voucherId, now);
+        publish(RESET, voucherId, now);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息格式：op:voucherId:timestamp
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split(":");
+        if (parts.length != 3) {
+            log.warn("无法识别的售罄广播: {}", body);
+            return;
+        }
+        try {
+            Long voucherId = Long.valueOf(parts[1]);
+            long timestamp = Long.parseLong(parts[2]);
+            if (SOLD_OUT.equals(parts[0])) {
+                applySoldOut(voucherId, timestamp);
+            } else if (RESET.equals(parts[0])) {
+                applyReset(voucherId, timestamp);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的售罄广播: {}", body);
+        }
+    }
+
+    /**
+     * 打标和清除都在 soldOut 的同一个 compute 里读写 lastReset，两者对同一张券串行，
+     * 不会出现"已检查清除时间、清除执行完、再打上过时标记"的交错
+     */
+    private boolean applySoldOut(Long voucherId, long timestamp) {
+        boolean[] applied = new boolean[1];
+        soldOut.compute(voucherId, (id, mark) -> {
+            if (mark != null) {
+                return mark;
+            }
+            Long resetAt = lastReset.get(id);
+            if (resetAt != null && timestamp < resetAt) {
+                return null;
+            }
+            applied[0] = true;
+            return new Mark(timestamp);
+        });
+        return applied[0];
+    }
+
+    private void applyReset(Long voucherId, long timestamp) {
+        soldOut.compute(voucherId, (id, mark) -> {
+            lastReset.merge(id, timestamp, Math::max);
+            // 清除之后才发起的请求打的标记仍然有效
+            return mark != null && mark.timestamp > timestamp ? mark : null;
+        });
+    }
+
+    private void publish(String op, Long voucherId, long timestamp) {
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, op + ":" + voucherId + ":" + timestamp);
+        } catch (Exception e) {
+            // 售罄广播丢失：其他节点少拦截一些请求，由 Lua 兜底；清除广播丢失：其他节点的标记到 sold-out-ttl 后失效
+            log.warn("售罄广播失败: op={}, voucherId={}", op, voucherId, e);
+        }
+    }
+}
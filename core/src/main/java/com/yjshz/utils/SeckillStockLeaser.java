@@ -0,0 +1,352 @@
+package com.yjshz.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.yjshz.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点库存租约（seckill.engine.mode = LEASE）：多节点时不再每单都争抢中心库存 key
+ * 1) 租：节点用 stock_lease.lua 从 seckill:stock:{voucherId} 原子地租走一段（chunk 件），记在 seckill:lease:{voucherId}:{node}
+ * 2) 卖：先在本地 AtomicLong 上扣一件，扣不到就不访问 Redis；扣到了执行 seckill.lua（带节点标识），
+ *    限购校验、从本节点租约扣一件、写 stream 仍在同一次 EVAL 里完成
+ * 3) 续：剩余低于 low-watermark 时后台补足；定时续约，续约时以 Redis 上的件数校正本地计数
+ * 4) 还：停机、长时间没有卖出时归还剩余件数；节点宕机没有续约的，其他节点租 / 续约时把到期租约的件数收回中心库存
+ * 不超卖：租约的件数只会从中心库存原子转移过来再原子扣减；seckill.lua 对到期租约返回 6，和回收使用同一个 Redis 时间
+ */
+@Slf4j
+@Component
+public class SeckillStockLeaser implements SmartLifecycle {
+
+    // seckill.lua：本节点租约已用完 / 已到期，重新租后再试
+    private static final int LEASE_EXHAUSTED = 6;
+    /**
+     * stock_lease.lua 发现传入的租约 key 已过时（返回 {-1}）时最多重试几次
+     */
+    private static final int STALE_KEYS_RETRIES = 3;
+    private static final int MAX_ATTEMPTS = 3;
+
+    // refill 的结果
+    private static final int ACQUIRED = 1;
+    private static final int SOLD_OUT = 0;
+    private static final int ELSEWHERE = -1;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("stock_lease.lua"));
+        LEASE_SCRIPT.setResultType(List.class);
+    }
+
+    private static class Lease {
+        final Long voucherId;
+        // 本地还能卖的件数：先在这里扣，扣不到就不去 Redis
+        final AtomicLong units = new AtomicLong();
+        // 本地认为租约有效的截止时间（本机时钟，比 Redis 上的 deadline 提前 margin）
+        volatile long validUntil;
+        volatile long lastSale;
+        final AtomicBoolean refilling = new AtomicBoolean();
+
+        Lease(Long voucherId) {
+            this.voucherId = voucherId;
+        }
+
+        boolean take() {
+            if (System.currentTimeMillis() >= validUntil) {
+                return false;
+            }
+            long n;
+            do {
+                n = units.get();
+                if (n <= 0) {
+                    return false;
+                }
+            } while (!units.compareAndSet(n, n - 1));
+            return true;
+        }
+
+        void sync(long held, long validUntil) {
+            units.set(Math.max(held, 0));
+            this.validUntil = held > 0 ? validUntil : 0;
+        }
+
+        void invalidate() {
+            validUntil = 0;
+            units.set(0);
+        }
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private Environment environment;
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+    private String node;
+
+    @Override
+    public void start() {
+        if (running || seckillProperties.getEngine().getMode() != SeckillProperties.EngineMode.LEASE) {
+            return;
+        }
+        String advertiseUrl = seckillProperties.getEngine().getAdvertiseUrl();
+        node = StrUtil.isNotBlank(advertiseUrl) ? advertiseUrl : defaultNode();
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "seckill-stock-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = seckillProperties.getStockLease().getRenewInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+        running = true;
+        log.info("秒杀库存租约已开启: node={}, chunk={}", node, seckillProperties.getStockLease().getChunk());
+    }
+
+    /**
+     * 在 Web 容器停止之后、订单消费者排空之前执行：不会再有新请求，把没卖掉的件数还回中心库存
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        scheduler.shutdownNow();
+        long returned = 0;
+        for (Lease lease : leases.values()) {
+            returned += release(lease);
+        }
+        leases.clear();
+        log.info("秒杀库存租约已归还: node={}, units={}", node, returned);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 2048;
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    public String node() {
+        return node;
+    }
+
+    /**
+     * 执行一次下单判定，返回码与 seckill.lua 相同（受理为 100 + buySeq）；库存都在其他节点的租约里、Redis 异常时返回 SeckillEngine.BUSY
+     */
+    public int execute(Long voucherId, Long userId, long orderId) {
+        Lease lease = leases.computeIfAbsent(voucherId, Lease::new);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (!lease.take()) {
+                int refilled = refill(lease);
+                if (refilled == SOLD_OUT) return 1;
+                if (refilled == ELSEWHERE) return SeckillEngine.BUSY;
+                continue;
+            }
+            Long result;
+            try {
+                SeckillStockManager.Meta meta = seckillStockManager.meta(voucherId);
+                result = stringRedisTemplate.execute(
+                        SECKILL_SCRIPT,
+                        seckillStockManager.seckillKeys(voucherId, userId, orderId, meta, 0, node),
+                        seckillStockManager.seckillArgs(voucherId, userId, orderId, meta, true).toArray()
+                );
+            } catch (Exception e) {
+                // 脚本可能已经执行：本地件数不退回，下次续约按 Redis 校正
+                log.warn("秒杀脚本执行失败: voucherId={}, orderId={}", voucherId, orderId, e);
+                return SeckillEngine.BUSY;
+            }
+            int code = result == null ? SeckillEngine.BUSY : result.intValue();
+            if (SeckillStockManager.resultCode(code) == 0) {
+                lease.lastSale = System.currentTimeMillis();
+                refillIfLow(lease);
+                return code;
+            }
+            if (code == LEASE_EXHAUSTED) {
+                // 本地计数比 Redis 多（批量下单也会扣租约）或租约已被回收：作废后重新租
+                lease.invalidate();
+                continue;
+            }
+            if (code != SeckillEngine.BUSY) {
+                // 没有卖出，件数退回本地
+                lease.units.incrementAndGet();
+            }
+            return code;
+        }
+        return SeckillEngine.BUSY;
+    }
+
+    /**
+     * 补足本节点的租约（同一张券同时只有一个线程去 Redis 租）
+     */
+    private int refill(Lease lease) {
+        synchronized (lease) {
+            if (lease.units.get() > 0 && System.currentTimeMillis() < lease.validUntil) {
+                return ACQUIRED;
+            }
+            List<?> r = call(lease.voucherId, "acquire", seckillProperties.getStockLease().getChunk());
+            if (r == null) {
+                return ELSEWHERE;
+            }
+            long held = ((Number) r.get(1)).longValue();
+            long others = ((Number) r.get(2)).longValue();
+            if (held > 0) {
+                return ACQUIRED;
+            }
+            // 中心库存已空：其他节点的租约里还有则让用户稍后重试，否则确实售罄
+            return others > 0 ? ELSEWHERE : SOLD_OUT;
+        }
+    }
+
+    private void refillIfLow(Lease lease) {
+        SeckillProperties.StockLease config = seckillProperties.getStockLease();
+        if (lease.units.get() >= config.getChunk() * config.getLowWatermark() || !lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(() -> {
+                try {
+                    synchronized (lease) {
+                        call(lease.voucherId, "acquire", config.getChunk());
+                    }
+                } finally {
+                    lease.refilling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lease.refilling.set(false);
+        }
+    }
+
+    /**
+     * 定时续约；长时间没有卖出的券把剩余件数还回去，让其他节点去卖
+     */
+    private void renew() {
+        long idle = seckillProperties.getStockLease().getIdleRelease().toMillis();
+        for (Lease lease : leases.values()) {
+            if (lease.validUntil == 0) {
+                continue;
+            }
+            try {
+                if (System.currentTimeMillis() - lease.lastSale >= idle) {
+                    synchronized (lease) {
+                        release(lease);
+                    }
+                    continue;
+                }
+                synchronized (lease) {
+                    List<?> r = call(lease.voucherId, "renew", 0);
+                    if (r != null && ((Number) r.get(1)).longValue() < 0) {
+                        log.warn("秒杀库存租约已被回收: voucherId={}, node={}", lease.voucherId, node);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("秒杀库存租约续约失败: voucherId={}", lease.voucherId, e);
+            }
+        }
+    }
+
+    private long release(Lease lease) {
+        try {
+            List<?> r = call(lease.voucherId, "release", 0);
+            return r == null ? 0 : ((Number) r.get(0)).longValue();
+        } catch (Exception e) {
+            log.warn("归还秒杀库存租约失败: voucherId={}", lease.voucherId, e);
+            return 0;
+        } finally {
+            lease.invalidate();
+        }
+    }
+
+    /**
+     * 执行 stock_lease.lua，并按返回的剩余件数校正本地计数
+     * 脚本要的 key 在这里算好：持有节点集合在读取后变了（有节点新租），脚本返回 {-1}，重读后再试
+     */
+    private List<?> call(Long voucherId, String op, int want) {
+        SeckillProperties.StockLease config = seckillProperties.getStockLease();
+        long start = System.currentTimeMillis();
+        List<?> r = null;
+        for (int attempt = 0; attempt < STALE_KEYS_RETRIES; attempt++) {
+            int buckets = seckillStockManager.buckets(voucherId);
+            List<String> keys = new ArrayList<>();
+            keys.add(seckillStockManager.leaseIndexKey(voucherId));
+            keys.add(RedisConstants.SECKILL_META_KEY + voucherId);
+            keys.add(seckillStockManager.leaseKey(voucherId, node));
+            keys.addAll(seckillStockManager.stockKeys(voucherId, buckets));
+            List<String> args = new ArrayList<>();
+            args.add(node);
+            args.add(op);
+            args.add(String.valueOf(want));
+            args.add(String.valueOf(config.getTtl().toMillis()));
+            args.add(String.valueOf(buckets));
+            for (String holder : seckillStockManager.leaseHolders(voucherId)) {
+                if (!holder.equals(node)) {
+                    keys.add(seckillStockManager.leaseKey(voucherId, holder));
+                    args.add(holder);
+                }
+            }
+            r = stringRedisTemplate.execute(LEASE_SCRIPT, keys, args.toArray());
+            if (r == null || r.size() > 1) {
+                break;
+            }
+            r = null;
+        }
+        if (r == null) {
+            log.warn("秒杀库存租约脚本未执行: voucherId={}, op={}", voucherId, op);
+            return null;
+        }
+        Lease lease = leases.get(voucherId);
+        if (lease != null && !"release".equals(op)) {
+            lease.sync(((Number) r.get(1)).longValue(), start + config.getTtl().toMillis() - config.getMargin().toMillis());
+            if (lease.lastSale == 0) {
+                lease.lastSale = start;
+            }
+        }
+        return r;
+    }
+
+    private String defaultNode() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostAddress();
+        } catch (Exception e) {
+            host = "127.0.0.1";
+        }
+        return host + ":" + environment.getProperty("server.port", "8080");
+    }
+}
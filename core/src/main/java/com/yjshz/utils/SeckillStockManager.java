@@ -0,0 +1,766 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.entity.SeckillVoucher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀库存在 Redis 中的布局，与 seckill.lua 保持一致：
+ * - 不分桶：seckill:stock:{voucherId}，已购计数 seckill:buyers:{voucherId}
+ * - 分桶：seckill:stock:{voucherId}:{b}，已购计数按 userId % K 分片到 seckill:buyers:{voucherId}:{b}
+ * - 已购计数是 hash：userId -> 已购件数，另有 _total 字段记该分片的订单总数；内存只随购买人数增长，与订单数无关
+ * - 一人一单的券可改用位图记录已购用户（meta 的 dedup = bitmap）：按 userId 分段，每段 2^16 位一个 key
+ *   seckill:buyers:bm:{voucherId}:{userId >> 16}，位偏移 userId & (2^16 - 1)；SETBIT 会把整段补齐到偏移处，
+ *   所以每个出现过的段最多占 8KB，段里只有零星几个用户时也是这么多，写到过的段号记在 seckill:buyers:bmchunks:{voucherId}
+ *   位图只在 userId 足够密集时划算：平均每段的购买用户数达到 bitmap-min-buyers-per-chunk 才从 hash 改用位图，否则一直用 hash；
+ *   改用位图后 hash 里只剩 _total 字段
+ * - 分桶数、秒杀时间窗口、每人限购数记在 seckill:meta:{voucherId} 的 buckets / begin / end / quota 字段
+ * - 累计投放量记在 total 字段（初始库存 + 补充库存），超时取消累计数记在 cancelled 字段，对账用
+ * - 预约抽签的券 meta 的 mode = lottery，库存 key 固定为 0（不走先到先得的扣减），名额在开奖时按数据库库存发放
+ * - 租约模式下节点租走的件数在 seckill:lease:{voucherId}:{node}（hash：units / deadline），持有租约的节点记在 seckill:lease:{voucherId}
+ * - 下单脚本用到的元信息缓存在本节点（meta-cache-ttl），seckill.lua 的 KEYS / ARGV 由 seckillKeys / seckillArgs 统一生成
+ */
+@Component
+public class SeckillStockManager {
+
+    public static final String META_BUCKETS = "buckets";
+    public static final String META_BEGIN = "begin";
+    public static final String META_END = "end";
+    public static final String META_QUOTA = "quota";
+    public static final String META_TOTAL = "total";
+    public static final String META_CANCELLED = "cancelled";
+    // 进了死信队列、不会再落库的订单数（仍计在 Redis 已受理数里）
+    public static final String META_ABANDONED = "abandoned";
+    public static final String META_DEDUP = "dedup";
+    // 置为 migrating 的时间（毫秒）：过了一个 meta 缓存有效期才开始复制
+    public static final String META_MIGRATE_AT = "migrateAt";
+    public static final String META_MODE = "mode";
+    public static final String MODE_LOTTERY = "lottery";
+    public static final int SALE_MODE_LOTTERY = 1;
+    public static final String BUYERS_TOTAL = "_total";
+
+    // 已购用户记录方式：没有 dedup 字段为 hash 计数；migrating 为 hash -> 位图迁移中（两边都查，只写位图）
+    public static final String DEDUP_BITMAP = "bitmap";
+    public static final String DEDUP_MIGRATING = "migrating";
+    public static final int BITMAP_CHUNK_SHIFT = 16;
+    // 一个位图分段最多占的字节数
+    public static final int BITMAP_CHUNK_BYTES = 1 << (BITMAP_CHUNK_SHIFT - 3);
+    // hash 记录一个已购用户大约占的字节数（dictEntry + userId / 件数两个短 sds，按 jemalloc 分配粒度估）
+    public static final int HASH_BYTES_PER_BUYER = 64;
+
+    // seckill.lua 受理时返回 ACCEPTED_BASE + buySeq，失败码都小于它
+    public static final int ACCEPTED_BASE = 100;
+    private static final long BITMAP_CHUNK_MASK = (1L << BITMAP_CHUNK_SHIFT) - 1;
+
+    private static final int MIGRATE_BATCH = 1000;
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private OrderStreamManager orderStreamManager;
+    @Resource private OrderStateTracker orderStateTracker;
+
+    /**
+     * seckill.lua 用到的券元信息（本节点缓存）：热点券不再每单 HMGET seckill:meta:{voucherId}
+     * 缓存过期前看到的可能是旧值：时间窗口 / 限购数的修改最多晚一个有效期生效；已购记录方式只决定写哪边，
+     * 脚本读的时候位图和 hash 都查，迁移时置为 migrating 之后过一个有效期才复制（见 migrateBuyersToBitmap）
+     */
+    public static class Meta {
+        public final int buckets;
+        public final String begin;
+        public final String end;
+        public final int quota;
+        public final String dedup;
+        final long expireAt;
+        // 本节点最近看到已空的桶：缓存有效期内跳过，不再逐桶试
+        final Set<Integer> emptyBuckets = ConcurrentHashMap.newKeySet();
+
+        Meta(List<Object> values, long expireAt) {
+            this.buckets = values.get(0) == null ? 1 : Math.max(Integer.parseInt(values.get(0).toString()), 1);
+            this.begin = values.get(1) == null ? "" : values.get(1).toString();
+            this.end = values.get(2) == null ? "" : values.get(2).toString();
+            this.quota = values.get(3) == null ? 1 : Math.max(Integer.parseInt(values.get(3).toString()), 1);
+            this.dedup = values.get(4) == null ? "hash" : values.get(4).toString();
+            this.expireAt = expireAt;
+        }
+
+        /**
+         * 用户的已购计数所在的分片
+         */
+        public int home(long userId) {
+            return (int) (userId % buckets);
+        }
+
+        /**
+         * 扣库存时尝试的桶：从用户所在的桶开始依次往后，跳过本节点已知为空的桶；
+         * 都已知为空时仍查一次用户所在的桶，售罄以 Redis 的回答为准
+         */
+        public List<Integer> bucketOrder(long userId) {
+            int home = home(userId);
+            List<Integer> order = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                int b = (home + i) % buckets;
+                if (!emptyBuckets.contains(b)) {
+                    order.add(b);
+                }
+            }
+            if (order.isEmpty()) {
+                order.add(home);
+            }
+            return order;
+        }
+
+        public void markEmpty(int bucket) {
+            if (buckets > 1) {
+                emptyBuckets.add(bucket);
+            }
+        }
+    }
+
+    private final Map<Long, Meta> metaCache = new ConcurrentHashMap<>();
+    // 密度检查没通过时的订单总数：订单数翻倍之前不再 HSCAN 检查
+    private final Map<Long, Long> sparseAt = new ConcurrentHashMap<>();
+
+    /**
+     * 规范化分桶数：为空取默认配置，并限制在 [1, maxBuckets]
+     */
+    public int normalizeBuckets(Integer buckets) {
+        SeckillProperties.Stock config = seckillProperties.getStock();
+        int k = buckets == null ? config.getDefaultBuckets() : buckets;
+        return Math.min(Math.max(k, 1), Math.max(config.getMaxBuckets(), 1));
+    }
+
+    /**
+     * 当前券在 Redis 中的分桶数
+     */
+    public int buckets(Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_META_KEY + voucherId, META_BUCKETS);
+        return value == null ? 1 : Integer.parseInt(value.toString());
+    }
+
+    /**
+     * 本节点缓存的券元信息，过期后重新 HMGET 一次（没有预热过的券按 不分桶 / 一人一单 / hash 计数处理）
+     */
+    public Meta meta(Long voucherId) {
+        Meta meta = metaCache.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (meta != null && now < meta.expireAt) {
+            return meta;
+        }
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(RedisConstants.SECKILL_META_KEY + voucherId,
+                Arrays.asList(META_BUCKETS, META_BEGIN, META_END, META_QUOTA, META_DEDUP));
+        meta = new Meta(values, now + seckillProperties.getStock().getMetaCacheTtl().toMillis());
+        metaCache.put(voucherId, meta);
+        return meta;
+    }
+
+    /**
+     * 本节点改了元信息后立即丢掉缓存（其他节点等缓存过期）
+     */
+    public void evictMeta(Long voucherId) {
+        metaCache.remove(voucherId);
+    }
+
+    /**
+     * seckill.lua 的 KEYS，顺序与脚本开头的说明一致
+     * @param bucket    扣库存的桶（租约模式不用）
+     * @param leaseNode 租约模式下的节点标识，为空时从 bucket 号桶扣
+     */
+    public List<String> seckillKeys(Long voucherId, Long userId, long orderId, Meta meta, int bucket, String leaseNode) {
+        List<String> keys = new ArrayList<>(8);
+        keys.add(RedisConstants.SECKILL_ENGINE_OWNER_KEY + voucherId);
+        keys.add(leaseNode != null
+                ? leaseKey(voucherId, leaseNode)
+                : stockKey(voucherId, meta.buckets, bucket));
+        keys.add(buyersKey(voucherId, meta.buckets, meta.home(userId)));
+        keys.add(bitmapKey(voucherId, userId));
+        keys.add(orderStreamManager.streamKeyFor(voucherId, userId));
+        keys.add(RedisConstants.SECKILL_ORDER_STATE_KEY + orderId);
+        keys.add(UnpaidOrderCanceller.delayKey(orderId, seckillProperties.getUnpaid().getShards()));
+        keys.add(bitmapChunksKey(voucherId));
+        return keys;
+    }
+
+    /**
+     * seckill.lua 的 ARGV，顺序与脚本开头的说明一致
+     */
+    public List<String> seckillArgs(Long voucherId, Long userId, long orderId, Meta meta, boolean leased) {
+        SeckillProperties.Unpaid unpaid = seckillProperties.getUnpaid();
+        List<String> args = new ArrayList<>(12);
+        args.add(voucherId.toString());
+        args.add(userId.toString());
+        args.add(String.valueOf(orderId));
+        args.add(meta.begin);
+        args.add(meta.end);
+        args.add(String.valueOf(meta.quota));
+        args.add(meta.dedup);
+        args.add(String.valueOf(orderStateTracker.ttlSeconds()));
+        args.add(String.valueOf(unpaid.isEnabled() ? unpaid.getTimeout().toMillis() : 0));
+        args.add(leased ? "1" : "0");
+        args.add(String.valueOf(bitmapOffset(userId)));
+        args.add(String.valueOf(bitmapChunk(userId)));
+        return args;
+    }
+
+    /**
+     * 下单脚本 / 引擎的原始返回值 -> 结果码（0 受理，其余与 seckill.lua 相同）
+     */
+    public static int resultCode(int raw) {
+        return raw > ACCEPTED_BASE ? 0 : raw;
+    }
+
+    /**
+     * 受理时该用户在这张券上的第几单，未受理返回 0
+     */
+    public static int buySeq(int raw) {
+        return raw > ACCEPTED_BASE ? raw - ACCEPTED_BASE : 0;
+    }
+
+    /**
+     * 受理结果的原始返回值（内存引擎使用，与 seckill.lua 一致）
+     */
+    public static int accepted(int buySeq) {
+        return ACCEPTED_BASE + buySeq;
+    }
+
+    public String stockKey(Long voucherId, int buckets, int bucket) {
+        return buckets > 1
+                ? RedisConstants.SECKILL_STOCK_KEY + voucherId + ":" + bucket
+                : RedisConstants.SECKILL_STOCK_KEY + voucherId;
+    }
+
+    public List<String> stockKeys(Long voucherId, int buckets) {
+        List<String> keys = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            keys.add(stockKey(voucherId, buckets, b));
+        }
+        return keys;
+    }
+
+    /**
+     * 持有租约的节点集合
+     */
+    public String leaseIndexKey(Long voucherId) {
+        return RedisConstants.SECKILL_LEASE_KEY + voucherId;
+    }
+
+    public String leaseKey(Long voucherId, String node) {
+        return RedisConstants.SECKILL_LEASE_KEY + voucherId + ":" + node;
+    }
+
+    /**
+     * 当前持有租约的节点；stock_lease.lua / reconcile.lua 要的租约 key 由它算出，脚本执行时发现集合变了会返回 {-1} 让调用方重读
+     */
+    public Set<String> leaseHolders(Long voucherId) {
+        Set<String> holders = stringRedisTemplate.opsForSet().members(leaseIndexKey(voucherId));
+        return holders == null ? Collections.emptySet() : holders;
+    }
+
+    public String buyersKey(Long voucherId, int buckets, int bucket) {
+        return buckets > 1
+                ? RedisConstants.SECKILL_BUYERS_KEY + voucherId + ":" + bucket
+                : RedisConstants.SECKILL_BUYERS_KEY + voucherId;
+    }
+
+    public List<String> buyersKeys(Long voucherId, int buckets) {
+        List<String> keys = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            keys.add(buyersKey(voucherId, buckets, b));
+        }
+        return keys;
+    }
+
+    /**
+     * 位图分段 key，规则与 seckill.lua 一致
+     */
+    public String bitmapKey(Long voucherId, long userId) {
+        return bitmapChunkKey(voucherId, bitmapChunk(userId));
+    }
+
+    public String bitmapChunkKey(Long voucherId, long chunk) {
+        return RedisConstants.SECKILL_BUYERS_KEY + "bm:" + voucherId + ":" + chunk;
+    }
+
+    /**
+     * 写到过的位图分段号集合：内存引擎加载时按它逐段读取，不用 SCAN 整个 keyspace
+     */
+    public String bitmapChunksKey(Long voucherId) {
+        return RedisConstants.SECKILL_BUYERS_KEY + "bmchunks:" + voucherId;
+    }
+
+    public static long bitmapChunk(long userId) {
+        return userId >> BITMAP_CHUNK_SHIFT;
+    }
+
+    public static long bitmapOffset(long userId) {
+        return userId & BITMAP_CHUNK_MASK;
+    }
+
+    /**
+     * 位图某一段的起始 userId
+     */
+    public static long bitmapChunkBase(long chunk) {
+        return chunk << BITMAP_CHUNK_SHIFT;
+    }
+
+    /**
+     * 已购用户记录方式：bitmap / migrating / null（hash）
+     */
+    public String dedupMode(Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_META_KEY + voucherId, META_DEDUP);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * 是否考虑用位图记录已购用户：开启了配置，且券是一人一单（还要再过 bitmapDense 的密度检查）
+     */
+    public boolean bitmapEligible(Integer perUserLimit) {
+        return seckillProperties.getStock().isBuyerBitmap() && normalizeQuota(perUserLimit) == 1;
+    }
+
+    /**
+     * 这批购买用户写成位图是否比 hash 省内存：平均每个分段的用户数达到 bitmap-min-buyers-per-chunk
+     * 没有购买用户时无从判断，返回 false（先用 hash，买的人多了由预热任务迁移）
+     */
+    public boolean bitmapDense(Collection<Long> userIds) {
+        return bitmapDense(userIds, seckillProperties.getStock().getBitmapMinBuyersPerChunk());
+    }
+
+    static boolean bitmapDense(Collection<Long> userIds, int minBuyersPerChunk) {
+        Set<Long> chunks = new HashSet<>();
+        for (Long userId : userIds) {
+            chunks.add(bitmapChunk(userId));
+        }
+        return bitmapDense(userIds.size(), chunks.size(), minBuyersPerChunk);
+    }
+
+    static boolean bitmapDense(long buyers, int chunks, int minBuyersPerChunk) {
+        return buyers > 0 && buyers >= (long) chunks * Math.max(minBuyersPerChunk, 1);
+    }
+
+    /**
+     * 已购计数是否存在（第 0 个分片有 _total 字段即视为已建立）
+     */
+    public boolean hasBuyers(Long voucherId, int buckets) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForHash().hasKey(buyersKey(voucherId, buckets, 0), BUYERS_TOTAL));
+    }
+
+    /**
+     * 累计投放量，没有记录返回 null
+     */
+    public Long total(Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_META_KEY + voucherId, META_TOTAL);
+        return value == null ? null : Long.parseLong(value.toString());
+    }
+
+    /**
+     * 超时取消的累计订单数
+     */
+    public long cancelled(Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_META_KEY + voucherId, META_CANCELLED);
+        return value == null ? 0L : Long.parseLong(value.toString());
+    }
+
+    public void setCancelled(Long voucherId, long cancelled) {
+        stringRedisTemplate.opsForHash().put(RedisConstants.SECKILL_META_KEY + voucherId, META_CANCELLED, String.valueOf(cancelled));
+    }
+
+    /**
+     * 进了死信队列的累计订单数：Redis 已受理但不会落库
+     */
+    public long abandoned(Long voucherId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_META_KEY + voucherId, META_ABANDONED);
+        return value == null ? 0L : Long.parseLong(value.toString());
+    }
+
+    public void addAbandoned(Long voucherId, long n) {
+        stringRedisTemplate.opsForHash().increment(RedisConstants.SECKILL_META_KEY + voucherId, META_ABANDONED, n);
+    }
+
+    /**
+     * 已购计数从订单表重建后，已受理数就等于落库数，死信计数随之清零
+     */
+    public void clearAbandoned(Long voucherId) {
+        stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_META_KEY + voucherId, META_ABANDONED);
+    }
+
+    /**
+     * 记录累计投放量
+     * @param overwrite false 时只在没有记录时写入
+     */
+    public void setTotal(Long voucherId, long total, boolean overwrite) {
+        String metaKey = RedisConstants.SECKILL_META_KEY + voucherId;
+        if (overwrite) {
+            stringRedisTemplate.opsForHash().put(metaKey, META_TOTAL, String.valueOf(total));
+        } else {
+            stringRedisTemplate.opsForHash().putIfAbsent(metaKey, META_TOTAL, String.valueOf(total));
+        }
+    }
+
+    /**
+     * 预热库存（新建券时调用，直接覆盖）：写 meta（分桶数 + 时间窗口），库存按分桶数均分（余数分给前几个桶），
+     * 建立空的已购计数（还没有购买用户，无从判断 userId 的密度，先用 hash，由预热任务按密度迁移到位图）
+     */
+    public void initStock(SeckillVoucher seckillVoucher) {
+        List<SeckillVoucher> vouchers = Collections.singletonList(seckillVoucher);
+        writeMeta(vouchers);
+        // 先建已购计数再写库存：库存可见时限购依据必须已经就位
+        rebuildBuyers(seckillVoucher.getVoucherId(), normalizeStoredBuckets(seckillVoucher),
+                Collections.emptyMap(), bitmapEligible(seckillVoucher.getPerUserLimit()));
+        writeStock(vouchers, true);
+        setTotal(seckillVoucher.getVoucherId(), seckillVoucher.getStock() == null ? 0 : seckillVoucher.getStock(), true);
+    }
+
+    /**
+     * 库存 key 不存在的券（按第 0 个桶判断），预热前用来决定哪些券要先从订单表重建已购计数
+     */
+    public List<Long> missingStock(List<SeckillVoucher> vouchers) {
+        if (vouchers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (SeckillVoucher voucher : vouchers) {
+                    ops.hasKey(stockKey(voucher.getVoucherId(), normalizeStoredBuckets(voucher), 0));
+                }
+                return null;
+            }
+        });
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < vouchers.size(); i++) {
+            if (!Boolean.TRUE.equals(results.get(i))) {
+                missing.add(vouchers.get(i).getVoucherId());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 批量预热（启动 / 定时调用）：meta 总是刷新；库存只在 key 不存在时写入（已在扣减中的库存不能被覆盖）
+     * 库存缺失的券要先 rebuildBuyers 再调用这里，否则库存写入到已购计数重建之间的请求没有限购依据
+     * @return 本次新写入库存的券id（说明 Redis 里原来没有，比如被清空过）
+     */
+    public List<Long> warmIfAbsent(List<SeckillVoucher> vouchers) {
+        if (vouchers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        writeMeta(vouchers);
+        List<Object> results = writeStock(vouchers, false);
+
+        // 结果按 券 -> 桶 的顺序排列，取每个券的第0个桶判断是否新写入
+        List<Long> fresh = new ArrayList<>();
+        int i = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                fresh.add(voucher.getVoucherId());
+            }
+            i += normalizeStoredBuckets(voucher);
+        }
+        return fresh;
+    }
+
+    /**
+     * 重建已购计数（Redis 被清空 / 升级后，从数据库订单恢复限购的判断依据）
+     * @param purchases userId -> 已购件数
+     * @param eligible  是否考虑用位图记录已购用户（只用于一人一单的券，还要通过密度检查）
+     */
+    public void rebuildBuyers(Long voucherId, int buckets, Map<Long, Long> purchases, boolean eligible) {
+        // userId 太稀疏时位图比 hash 更占内存，继续用 hash
+        boolean bitmap = eligible && bitmapDense(purchases.keySet());
+        Map<Integer, Map<String, String>> shards = new HashMap<>();
+        long[] totals = new long[buckets];
+        for (Map.Entry<Long, Long> entry : purchases.entrySet()) {
+            int b = (int) (entry.getKey() % buckets);
+            // 位图模式下 hash 里只留 _total；个别用户超过 1 单（改过限购数）仍记在 hash 里
+            if (!bitmap || entry.getValue() > 1) {
+                shards.computeIfAbsent(b, k -> new HashMap<>()).put(entry.getKey().toString(), entry.getValue().toString());
+            }
+            totals[b] += entry.getValue();
+        }
+        String metaKey = RedisConstants.SECKILL_META_KEY + voucherId;
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int b = 0; b < buckets; b++) {
+                    String key = buyersKey(voucherId, buckets, b);
+                    Map<String, String> shard = shards.getOrDefault(b, new HashMap<>());
+                    // _total 总是写入：没有订单的分片也要存在，表示已经建立过
+                    shard.put(BUYERS_TOTAL, String.valueOf(totals[b]));
+                    ops.opsForHash().putAll(key, shard);
+                }
+                if (bitmap) {
+                    Set<String> chunks = new HashSet<>();
+                    for (Long userId : purchases.keySet()) {
+                        ops.opsForValue().setBit(bitmapKey(voucherId, userId), bitmapOffset(userId), true);
+                        chunks.add(String.valueOf(bitmapChunk(userId)));
+                    }
+                    ops.opsForSet().add(bitmapChunksKey(voucherId), chunks.toArray(new String[0]));
+                    ops.opsForHash().put(metaKey, META_DEDUP, DEDUP_BITMAP);
+                } else {
+                    ops.opsForHash().delete(metaKey, META_DEDUP);
+                }
+                ops.opsForHash().delete(metaKey, META_MIGRATE_AT);
+                return null;
+            }
+        });
+        evictMeta(voucherId);
+    }
+
+    /**
+     * 已购计数从 hash 迁移到位图（只用于一人一单的券），秒杀进行中也可以执行；分两轮预热完成，不在持锁时等待：
+     * 0) 先做密度检查：订单总数不够一个分段的门槛直接跳过；否则 HSCAN 一遍统计人数和分段数（bitmapDense），
+     *    userId 太稀疏就不迁移，返回 -1，订单数翻倍之前不再检查
+     * 1) dedup 置为 migrating 并记下时间：新下单只写位图（seckill.lua 总是两边都查），本轮到此为止
+     * 2) 之后某一轮发现已过了一个 meta 缓存有效期（所有节点都不再按 hash 方式写入），HSCAN 把 hash 里的用户逐批 SETBIT 到位图
+     * 3) dedup 置为 bitmap：只查位图；再把 hash 里的用户字段删掉（保留 _total）
+     * @return 迁移的用户数；本轮没有复制（密度不够 / 刚置为 migrating / 还没过缓存有效期）时返回 -1
+     */
+    public long migrateBuyersToBitmap(Long voucherId) {
+        String metaKey = RedisConstants.SECKILL_META_KEY + voucherId;
+        int buckets = buckets(voucherId);
+        if (DEDUP_MIGRATING.equals(dedupMode(voucherId))) {
+            Object migrateAt = stringRedisTemplate.opsForHash().get(metaKey, META_MIGRATE_AT);
+            if (migrateAt != null && System.currentTimeMillis() - Long.parseLong(migrateAt.toString())
+                    <= seckillProperties.getStock().getMetaCacheTtl().toMillis()) {
+                return -1;
+            }
+            return copyBuyersToBitmap(voucherId, buckets);
+        }
+        long orders = buyerOrders(voucherId, buckets);
+        Long checkedAt = sparseAt.get(voucherId);
+        if (orders < seckillProperties.getStock().getBitmapMinBuyersPerChunk()
+                || (checkedAt != null && orders < checkedAt * 2)) {
+            return -1;
+        }
+        if (!hashBuyersDense(voucherId, buckets)) {
+            sparseAt.put(voucherId, orders);
+            return -1;
+        }
+        sparseAt.remove(voucherId);
+        Map<String, String> migrating = new HashMap<>(2);
+        migrating.put(META_DEDUP, DEDUP_MIGRATING);
+        migrating.put(META_MIGRATE_AT, String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForHash().putAll(metaKey, migrating);
+        evictMeta(voucherId);
+        return -1;
+    }
+
+    /**
+     * 迁移第 2、3 步：hash 里的用户写进位图，切到 bitmap 后删掉 hash 里的用户字段
+     */
+    private long copyBuyersToBitmap(Long voucherId, int buckets) {
+        String metaKey = RedisConstants.SECKILL_META_KEY + voucherId;
+        long migrated = 0;
+        List<String> batch = new ArrayList<>(MIGRATE_BATCH);
+        for (String key : buyersKeys(voucherId, buckets)) {
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                    .scan(key, ScanOptions.scanOptions().count(MIGRATE_BATCH).build())) {
+                while (cursor.hasNext()) {
+                    Map.Entry<Object, Object> entry = cursor.next();
+                    if (BUYERS_TOTAL.equals(entry.getKey())) continue;
+                    batch.add(entry.getKey().toString());
+                    if (batch.size() >= MIGRATE_BATCH) {
+                        migrated += setBits(voucherId, batch);
+                    }
+                }
+            }
+        }
+        migrated += setBits(voucherId, batch);
+        stringRedisTemplate.opsForHash().put(metaKey, META_DEDUP, DEDUP_BITMAP);
+        stringRedisTemplate.opsForHash().delete(metaKey, META_MIGRATE_AT);
+        evictMeta(voucherId);
+
+        // 位图已经生效，hash 里的用户字段可以删掉（限购数大于 1 的用户计数仍然保留）
+        for (String key : buyersKeys(voucherId, buckets)) {
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                    .scan(key, ScanOptions.scanOptions().count(MIGRATE_BATCH).build())) {
+                while (cursor.hasNext()) {
+                    Map.Entry<Object, Object> entry = cursor.next();
+                    if (BUYERS_TOTAL.equals(entry.getKey()) || Long.parseLong(entry.getValue().toString()) > 1) continue;
+                    batch.add(entry.getKey().toString());
+                    if (batch.size() >= MIGRATE_BATCH) {
+                        stringRedisTemplate.opsForHash().delete(key, batch.toArray());
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                stringRedisTemplate.opsForHash().delete(key, batch.toArray());
+                batch.clear();
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * 所有分片 _total 之和：这张券的订单总数（一人一单时约等于购买人数）
+     */
+    private long buyerOrders(Long voucherId, int buckets) {
+        long orders = 0;
+        for (String key : buyersKeys(voucherId, buckets)) {
+            Object total = stringRedisTemplate.opsForHash().get(key, BUYERS_TOTAL);
+            orders += total == null ? 0 : Long.parseLong(total.toString());
+        }
+        return orders;
+    }
+
+    /**
+     * hash 里的购买用户写成位图是否划算（HSCAN 分批读，只统计人数和分段号，不把用户留在内存里）
+     */
+    private boolean hashBuyersDense(Long voucherId, int buckets) {
+        long buyers = 0;
+        Set<Long> chunks = new HashSet<>();
+        for (String key : buyersKeys(voucherId, buckets)) {
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                    .scan(key, ScanOptions.scanOptions().count(MIGRATE_BATCH).build())) {
+                while (cursor.hasNext()) {
+                    Map.Entry<Object, Object> entry = cursor.next();
+                    if (BUYERS_TOTAL.equals(entry.getKey())) continue;
+                    buyers++;
+                    chunks.add(bitmapChunk(Long.parseLong(entry.getKey().toString())));
+                }
+            }
+        }
+        return bitmapDense(buyers, chunks.size(), seckillProperties.getStock().getBitmapMinBuyersPerChunk());
+    }
+
+    private int setBits(Long voucherId, List<String> userIds) {
+        if (userIds.isEmpty()) return 0;
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                Set<String> chunks = new HashSet<>();
+                for (String userId : userIds) {
+                    long id = Long.parseLong(userId);
+                    ops.opsForValue().setBit(bitmapKey(voucherId, id), bitmapOffset(id), true);
+                    chunks.add(String.valueOf(bitmapChunk(id)));
+                }
+                ops.opsForSet().add(bitmapChunksKey(voucherId), chunks.toArray(new String[0]));
+                return null;
+            }
+        });
+        int n = userIds.size();
+        userIds.clear();
+        return n;
+    }
+
+    private void writeMeta(List<SeckillVoucher> vouchers) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (SeckillVoucher voucher : vouchers) {
+                    String metaKey = RedisConstants.SECKILL_META_KEY + voucher.getVoucherId();
+                    Map<String, String> meta = new HashMap<>(8);
+                    meta.put(META_BUCKETS, String.valueOf(normalizeStoredBuckets(voucher)));
+                    meta.put(META_QUOTA, String.valueOf(normalizeQuota(voucher.getPerUserLimit())));
+                    // 时间窗口（毫秒时间戳），seckill.lua 用来拒绝未开始 / 已结束的请求
+                    if (voucher.getBeginTime() != null) {
+                        meta.put(META_BEGIN, String.valueOf(toEpochMilli(voucher.getBeginTime())));
+                    }
+                    if (voucher.getEndTime() != null) {
+                        meta.put(META_END, String.valueOf(toEpochMilli(voucher.getEndTime())));
+                    }
+                    if (isLottery(voucher)) {
+                        meta.put(META_MODE, MODE_LOTTERY);
+                    }
+                    ops.opsForHash().putAll(metaKey, meta);
+                }
+                return null;
+            }
+        });
+        vouchers.forEach(voucher -> evictMeta(voucher.getVoucherId()));
+    }
+
+    private List<Object> writeStock(List<SeckillVoucher> vouchers, boolean overwrite) {
+        return stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (SeckillVoucher voucher : vouchers) {
+                    int k = normalizeStoredBuckets(voucher);
+                    // 抽签券不能被先到先得的请求买走
+                    int stock = voucher.getStock() == null || isLottery(voucher) ? 0 : voucher.getStock();
+                    int[] split = split(stock, k);
+                    for (int b = 0; b < k; b++) {
+                        String key = stockKey(voucher.getVoucherId(), k, b);
+                        if (overwrite) {
+                            ops.opsForValue().set(key, String.valueOf(split[b]));
+                        } else {
+                            ops.opsForValue().setIfAbsent(key, String.valueOf(split[b]));
+                        }
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    public static boolean isLottery(SeckillVoucher voucher) {
+        return voucher.getSaleMode() != null && voucher.getSaleMode() == SALE_MODE_LOTTERY;
+    }
+
+    public static int normalizeQuota(Integer perUserLimit) {
+        return perUserLimit == null ? 1 : Math.max(perUserLimit, 1);
+    }
+
+    private static int normalizeStoredBuckets(SeckillVoucher voucher) {
+        return voucher.getStockBuckets() == null ? 1 : Math.max(voucher.getStockBuckets(), 1);
+    }
+
+    public static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 补库存：按当前分桶数均分后 INCRBY，不影响正在扣减的桶
+     */
+    public void addStock(Long voucherId, int amount) {
+        int k = buckets(voucherId);
+        int[] split = split(amount, k);
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int b = 0; b < k; b++) {
+                    if (split[b] > 0) {
+                        ops.opsForValue().increment(stockKey(voucherId, k, b), split[b]);
+                    }
+                }
+                ops.opsForHash().increment(RedisConstants.SECKILL_META_KEY + voucherId, META_TOTAL, amount);
+                return null;
+            }
+        });
+    }
+
+    private static int[] split(int total, int buckets) {
+        int[] split = new int[buckets];
+        int base = total / buckets;
+        int remainder = total % buckets;
+        for (int b = 0; b < buckets; b++) {
+            split[b] = base + (b < remainder ? 1 : 0);
+        }
+        return split;
+    }
+}
@@ -0,0 +1,274 @@
+package com.yjshz.utils;
+
+import com.yjshz.config.SeckillProperties;
+import com.yjshz.entity.SeckillVoucher;
+import com.yjshz.entity.VoucherOrder;
+import com.yjshz.service.ISeckillVoucherService;
+import com.yjshz.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 未支付订单超时取消：
+ * 1) seckill.lua 下单时把 orderId 以"到期时间"为 score 写入延迟队列：按 orderId % shards 分片到 seckill:delay:unpaid:{s}
+ *    （shards = 1 时为 seckill:delay:unpaid），执行中 zset 同样分片，key 都经 KEYS 传给脚本
+ * 2) 每个分片由一个节点领取（seckill:delay:unpaid:owner:{s} 租约，按存活节点数均分）：领取线程定期用 delay_claim.lua
+ *    领取即将到期（horizon 内）的任务，移到执行中 zset 并带租约，只扫 zset 头部，不做全量扫描
+ * 3) 领到的任务放进 JVM 内的哈希时间轮，到点交给取消线程池执行
+ * 4) 取消：数据库事务内改状态 1 -> 4 并归还库存，提交后 cancel.lua 归还 Redis 库存（按订单幂等），最后移出执行中 zset
+ * 5) 节点挂掉时执行中任务的租约过期，由 delay_claim.lua 放回待执行队列
+ * 抽签中签订单由 SeckillLottery 开奖时放进同一个延迟队列（期限为 lottery.pay-timeout），取消时只归还数据库库存，
+ * 不归还 Redis 库存：抽签券的 Redis 库存固定为 0，还回去就变成了先到先得
+ */
+@Slf4j
+@Component
+public class UnpaidOrderCanceller {
+
+    // 不分片时的 key，也是分片 key 的前缀；分片后仍会把升级前留在这里的任务领完
+    public static final String DELAY_KEY = "seckill:delay:unpaid";
+    private static final String INFLIGHT_KEY = "seckill:delay:unpaid:inflight";
+    private static final String SHARD_OWNER_KEY = "seckill:delay:unpaid:owner:";
+    private static final String CANCEL_MARK_KEY = "seckill:cancel:";
+    private static final String META_CANCEL_AT = "cancelAt";
+    private static final long CANCEL_MARK_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("delay_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource private StringRedisTemplate stringRedisTemplate;
+    @Resource private SeckillProperties seckillProperties;
+    @Resource private SeckillStockManager seckillStockManager;
+    @Resource private SeckillSoldOutGate soldOutGate;
+    @Resource private OrderStateTracker orderStateTracker;
+    @Resource private IVoucherOrderService voucherOrderService;
+    @Resource private ISeckillVoucherService seckillVoucherService;
+    @Resource private OrderStreamManager orderStreamManager;
+
+    // 本节点持有领取权的分片
+    private final Set<Integer> ownedShards = new ConcurrentSkipListSet<>();
+    private ScheduledExecutorService claimer;
+    private ExecutorService cancelExecutor;
+    private HashedTimingWheel timingWheel;
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Unpaid config = seckillProperties.getUnpaid();
+        if (!config.isEnabled()) return;
+
+        cancelExecutor = Executors.newFixedThreadPool(Math.max(config.getCancelThreads(), 1));
+        timingWheel = new HashedTimingWheel("unpaid-timing-wheel",
+                config.getTick().toMillis(), config.getWheelSize(), cancelExecutor);
+        timingWheel.start();
+
+        claimer = Executors.newSingleThreadScheduledExecutor();
+        long interval = config.getPollInterval().toMillis();
+        claimer.scheduleWithFixedDelay(this::claim, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        // 已领取但未执行的任务留在执行中 zset，租约过期后由其他节点接手
+        if (claimer != null) claimer.shutdownNow();
+        if (timingWheel != null) timingWheel.stop();
+        if (cancelExecutor != null) cancelExecutor.shutdownNow();
+        // 让出分片，其他节点下一轮即可接管
+        for (Integer shard : ownedShards) {
+            try {
+                shardLease(shard, "release");
+            } catch (Exception e) {
+                log.warn("让出延迟队列分片失败: shard={}", shard, e);
+            }
+        }
+        ownedShards.clear();
+    }
+
+    /**
+     * 订单所在的延迟队列分片 key，seckill.lua / 内存引擎 / 多券下单写入时使用
+     */
+    public static String delayKey(long orderId, int shards) {
+        return shards <= 1 ? DELAY_KEY : DELAY_KEY + ":" + Math.floorMod(orderId, shards);
+    }
+
+    private static String inflightKey(int shard, int shards) {
+        return shards <= 1 ? INFLIGHT_KEY : DELAY_KEY + ":" + shard + ":inflight";
+    }
+
+    private void claim() {
+        int shards = Math.max(seckillProperties.getUnpaid().getShards(), 1);
+        try {
+            rebalance(shards);
+        } catch (Exception e) {
+            log.error("延迟队列分片认领失败", e);
+        }
+        for (Integer shard : ownedShards) {
+            claim(shards <= 1 ? DELAY_KEY : DELAY_KEY + ":" + shard, inflightKey(shard, shards));
+        }
+        // 升级前写入单个队列的任务：由持有 0 号分片的节点领完
+        if (shards > 1 && ownedShards.contains(0)) {
+            claim(DELAY_KEY, INFLIGHT_KEY);
+        }
+    }
+
+    /**
+     * 续约已持有的分片，按存活节点数均分：持有过多让出，持有不足认领无主分片（规则与订单 stream 分区相同）
+     */
+    private void rebalance(int shards) {
+        for (Integer shard : new ArrayList<>(ownedShards)) {
+            if (shard >= shards || !shardLease(shard, "renew")) {
+                ownedShards.remove(shard);
+            }
+        }
+        int liveNodes = orderStreamManager.liveNodes();
+        int fairShare = (shards + liveNodes - 1) / liveNodes;
+        for (Integer shard : new ArrayList<>(ownedShards)) {
+            if (ownedShards.size() <= fairShare) break;
+            if (shardLease(shard, "release")) {
+                ownedShards.remove(shard);
+            }
+        }
+        String node = orderStreamManager.getConsumerName();
+        long ttl = seckillProperties.getUnpaid().getShardTtl().toMillis();
+        int start = Math.floorMod(node.hashCode(), shards);
+        for (int i = 0; i < shards && ownedShards.size() < fairShare; i++) {
+            int shard = (start + i) % shards;
+            if (ownedShards.contains(shard)) continue;
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(SHARD_OWNER_KEY + shard, node, ttl, TimeUnit.MILLISECONDS))) {
+                ownedShards.add(shard);
+                log.info("认领延迟队列分片: shard={}, node={}", shard, node);
+            }
+        }
+    }
+
+    private boolean shardLease(int shard, String op) {
+        Long r = stringRedisTemplate.execute(
+                LEASE_SCRIPT,
+                Collections.singletonList(SHARD_OWNER_KEY + shard),
+                orderStreamManager.getConsumerName(), op,
+                String.valueOf(seckillProperties.getUnpaid().getShardTtl().toMillis())
+        );
+        return r != null && r == 1L;
+    }
+
+    private void claim(String delayKey, String inflightKey) {
+        SeckillProperties.Unpaid config = seckillProperties.getUnpaid();
+        try {
+            List<?> items;
+            do {
+                items = stringRedisTemplate.execute(
+                        CLAIM_SCRIPT,
+                        Arrays.asList(delayKey, inflightKey),
+                        String.valueOf(config.getHorizon().toMillis()),
+                        String.valueOf(config.getBatchSize()),
+                        String.valueOf(config.getLease().toMillis())
+                );
+                if (items == null) return;
+                for (int i = 0; i + 1 < items.size(); i += 2) {
+                    String orderId = items.get(i).toString();
+                    long deadline = (long) Double.parseDouble(items.get(i + 1).toString());
+                    timingWheel.schedule(deadline, () -> cancel(orderId, inflightKey));
+                }
+                // 一次领满说明还有积压，继续领
+            } while (items.size() / 2 >= config.getBatchSize());
+        } catch (Exception e) {
+            log.error("领取超时订单失败: queue={}", delayKey, e);
+        }
+    }
+
+    private void cancel(String orderId, String inflightKey) {
+        try {
+            doCancel(Long.valueOf(orderId));
+            stringRedisTemplate.opsForZSet().remove(inflightKey, orderId);
+        } catch (Exception e) {
+            // 留在执行中 zset，租约过期后重试
+            log.error("超时取消订单失败: orderId={}", orderId, e);
+        }
+    }
+
+    private void doCancel(Long orderId) {
+        // 对账在取消前后一段时间内不自动修正库存（数据库与 Redis 归还之间有短暂不一致）
+        Map<Object, Object> state = orderStateTracker.get(orderId);
+        Object voucherIdHint = state == null ? null : state.get("voucherId");
+        if (voucherIdHint != null) {
+            markCancelling(voucherIdHint.toString());
+        }
+
+        VoucherOrder voucherOrder = voucherOrderService.cancelUnpaidOrder(orderId);
+        if (voucherOrder == null) {
+            // 还没落库：仍在途则稍后再试，已失败 / 状态已过期则放弃
+            if (state != null && OrderStateTracker.ACCEPTED.equals(state.get("state"))) {
+                long retryAt = System.currentTimeMillis() + seckillProperties.getUnpaid().getNotPersistedRetry().toMillis();
+                stringRedisTemplate.opsForZSet().add(delayKey(orderId, seckillProperties.getUnpaid().getShards()),
+                        orderId.toString(), retryAt);
+            }
+            return;
+        }
+        if (voucherOrder.getStatus() == null || voucherOrder.getStatus() != 4) {
+            // 已支付等其他状态，不需要取消
+            return;
+        }
+
+        Long voucherId = voucherOrder.getVoucherId();
+        Long userId = voucherOrder.getUserId();
+        voucherOrderService.evictOrderPageCache(Collections.singleton(userId));
+        if (isLottery(voucherId)) {
+            // 抽签名额只退回数据库库存，Redis 库存保持 0
+            log.info("中签订单超时未支付已取消: orderId={}, voucherId={}, userId={}", orderId, voucherId, userId);
+            return;
+        }
+        markCancelling(voucherId.toString());
+        int buckets = seckillStockManager.buckets(voucherId);
+        Long returned = stringRedisTemplate.execute(
+                CANCEL_SCRIPT,
+                Arrays.asList(
+                        seckillStockManager.stockKey(voucherId, buckets, (int) (userId % buckets)),
+                        RedisConstants.SECKILL_META_KEY + voucherId,
+                        CANCEL_MARK_KEY + orderId
+                ),
+                String.valueOf(CANCEL_MARK_TTL_SECONDS)
+        );
+        if (returned != null && returned == 1L) {
+            soldOutGate.reset(voucherId);
+            log.info("未支付订单已超时取消: orderId={}, voucherId={}, userId={}", orderId, voucherId, userId);
+        }
+    }
+
+    /**
+     * 以数据库为准判断抽签券（Redis 元信息可能已被清空，开奖后的券也不再预热）
+     */
+    private boolean isLottery(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .select("voucher_id", "sale_mode")
+                .eq("voucher_id", voucherId)
+                .one();
+        return voucher != null && SeckillStockManager.isLottery(voucher);
+    }
+
+    private void markCancelling(String voucherId) {
+        stringRedisTemplate.opsForHash().put(RedisConstants.SECKILL_META_KEY + voucherId,
+                META_CANCEL_AT, String.valueOf(System.currentTimeMillis()));
+    }
+}
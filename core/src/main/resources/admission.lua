@@ -0,0 +1,73 @@
+-- 秒杀准入：用户令牌桶 + 全局令牌桶 + 排队等候室（原子执行）
+-- KEYS[1] = 全局令牌桶 hash {tokens, ts}
+-- KEYS[2] = 用户令牌桶 hash {tokens, ts}
+-- KEYS[3] = 等候室 hash {seq, cursor, ts}
+-- KEYS[4] = 等候室用户票据 hash {userId -> 票号}
+-- ARGV[1] = userId
+-- ARGV[2] = 全局速率（个/秒）   ARGV[3] = 全局桶容量
+-- ARGV[4] = 用户速率（个/秒）   ARGV[5] = 用户桶容量
+-- ARGV[6] = 等候室放行速率（人/秒）
+-- ARGV[7] = key 过期时间（秒）
+-- ARGV[8] = 本次要扣的令牌数（多券下单按券数扣，不传为 1；超过桶容量时按容量扣）
+-- 返回 {1/0 是否放行, 建议重试等待毫秒, 排队位置}
+
+local t = redis.call('time')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+local ttl = tonumber(ARGV[7])
+local cost = tonumber(ARGV[8]) or 1
+
+-- 令牌桶：按流逝时间补充令牌，够 cost 个就扣减；返回 0 表示成功，否则返回需要等待的毫秒数
+local function take(key, rate, burst)
+    local b = redis.call('hmget', key, 'tokens', 'ts')
+    local tokens = tonumber(b[1]) or burst
+    local ts = tonumber(b[2]) or now
+    local need = math.min(cost, burst)
+    tokens = math.min(burst, tokens + math.max(now - ts, 0) * rate / 1000)
+    local wait = 0
+    if tokens >= need then
+        tokens = tokens - need
+    else
+        wait = math.ceil((need - tokens) * 1000 / rate)
+    end
+    redis.call('hset', key, 'tokens', tokens, 'ts', now)
+    redis.call('expire', key, ttl)
+    return wait
+end
+
+-- 1) 用户令牌桶：单个用户刷接口直接拒绝，不占排队位置
+local userWait = take(KEYS[2], tonumber(ARGV[4]), tonumber(ARGV[5]))
+if userWait > 0 then
+    return {0, userWait, 0}
+end
+
+-- 2) 等候室放行游标：按放行速率随时间前移，不超过已发出的票号
+local admitRate = tonumber(ARGV[6])
+local room = redis.call('hmget', KEYS[3], 'seq', 'cursor', 'ts')
+local seq = tonumber(room[1]) or 0
+local cursor = tonumber(room[2]) or 0
+local ts = tonumber(room[3]) or now
+cursor = math.min(seq, cursor + math.max(now - ts, 0) * admitRate / 1000)
+redis.call('hset', KEYS[3], 'cursor', cursor, 'ts', now)
+redis.call('expire', KEYS[3], ttl)
+
+-- 3) 已经在排队：轮到了就放行（票据作废），没轮到告诉他还要等多久
+local ticket = tonumber(redis.call('hget', KEYS[4], ARGV[1]))
+if ticket then
+    if ticket <= cursor then
+        redis.call('hdel', KEYS[4], ARGV[1])
+        return {1, 0, 0}
+    end
+    local ahead = ticket - cursor
+    return {0, math.ceil(ahead * 1000 / admitRate), math.ceil(ahead)}
+end
+
+-- 4) 没人排队时直接抢全局令牌；有人排队或令牌耗尽则领票排队，保证先来后到
+if seq <= cursor and take(KEYS[1], tonumber(ARGV[2]), tonumber(ARGV[3])) == 0 then
+    return {1, 0, 0}
+end
+seq = seq + 1
+redis.call('hset', KEYS[3], 'seq', seq)
+redis.call('hset', KEYS[4], ARGV[1], seq)
+redis.call('expire', KEYS[4], ttl)
+local ahead = seq - cursor
+return {0, math.ceil(ahead * 1000 / admitRate), math.ceil(ahead)}
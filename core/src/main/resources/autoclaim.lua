@@ -0,0 +1,11 @@
+-- 接管其他消费者长时间未确认的消息（只转移归属，不增加投递次数）
+-- KEYS[1] = stream key
+-- ARGV[1] = 消费组
+-- ARGV[2] = 接管者（当前消费者）
+-- ARGV[3] = 最小空闲时间（毫秒）
+-- ARGV[4] = 起始游标
+-- ARGV[5] = 每次最多接管条数
+-- 返回 {下一个游标, 本次接管条数}
+
+local res = redis.call('xautoclaim', KEYS[1], ARGV[1], ARGV[2], ARGV[3], ARGV[4], 'COUNT', ARGV[5], 'JUSTID')
+return {res[1], #res[2]}
@@ -0,0 +1,15 @@
+-- 带版本的回写：查库前读到的版本号没有变（期间没有失效）才写缓存，避免把失效之前查到的旧数据写回去
+-- KEYS[1] = 缓存 key
+-- KEYS[2] = 版本号 key（失效时 INCR）
+-- ARGV[1] = 查库前读到的版本号（没有为 0）
+-- ARGV[2] = 缓存内容
+-- ARGV[3] = 有效期（秒）
+--
+-- 返回：1 已写入；0 版本已变，放弃写入
+
+local version = redis.call('get', KEYS[2]) or '0'
+if (version ~= ARGV[1]) then
+    return 0
+end
+redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3])
+return 1
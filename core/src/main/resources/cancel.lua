@@ -0,0 +1,15 @@
+-- 超时取消订单后归还 Redis 库存（数据库事务提交之后调用，按订单幂等）
+-- 已取消的用户仍保留在已下单集合里，不能再次抢购（订单表的一人一单约束也不允许）
+-- KEYS[1] = 库存 key（用户所在的桶）
+-- KEYS[2] = 券元信息 seckill:meta:{voucherId}
+-- KEYS[3] = 取消标记 seckill:cancel:{orderId}
+-- ARGV[1] = 取消标记有效期（秒）
+-- 返回 1 已归还，0 之前已归还过
+
+if redis.call('set', KEYS[3], '1', 'NX', 'EX', ARGV[1]) == false then
+    return 0
+end
+redis.call('incr', KEYS[1])
+-- 累计取消数，对账时用于扣除
+redis.call('hincrby', KEYS[2], 'cancelled', 1)
+return 1
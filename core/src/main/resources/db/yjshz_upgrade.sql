@@ -0,0 +1,28 @@
+-- 已有库的增量变更，按顺序执行（新库直接用 yjshz.sql 即可）
+
+-- 秒杀库存分桶
+ALTER TABLE `tb_seckill_voucher`
+  ADD COLUMN `stock_buckets` int(4) NOT NULL DEFAULT 1 COMMENT 'Redis库存分桶数，1表示不分桶' AFTER `stock`;
+
+-- 订单幂等落库：一人一单唯一约束（执行前需先清理重复的 (user_id, voucher_id) 订单）
+ALTER TABLE `tb_voucher_order`
+  ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
+
+-- 每人限购：券上记录限购数，订单记录第几单，唯一约束改为 (user_id, voucher_id, buy_seq)
+ALTER TABLE `tb_seckill_voucher`
+  ADD COLUMN `per_user_limit` int(4) NOT NULL DEFAULT 1 COMMENT '每人限购数，1表示一人一单' AFTER `stock_buckets`;
+ALTER TABLE `tb_voucher_order`
+  ADD COLUMN `buy_seq` int(4) NOT NULL DEFAULT 1 COMMENT '该用户在这张券上的第几单' AFTER `voucher_id`,
+  DROP INDEX `uk_user_voucher`,
+  ADD UNIQUE INDEX `uk_user_voucher_seq`(`user_id`, `voucher_id`, `buy_seq`) USING BTREE;
+
+-- 我的订单游标分页：WHERE user_id = ? [AND status = ?] AND id < ? ORDER BY id DESC
+ALTER TABLE `tb_voucher_order`
+  ADD INDEX `idx_user_id`(`user_id`, `id`) USING BTREE,
+  ADD INDEX `idx_user_status_id`(`user_id`, `status`, `id`) USING BTREE;
+
+-- 预约抽签：券上记录售卖方式和开奖状态，开奖任务按 (sale_mode, draw_status, end_time) 找到期未开奖的券
+ALTER TABLE `tb_seckill_voucher`
+  ADD COLUMN `sale_mode` tinyint(1) NOT NULL DEFAULT 0 COMMENT '售卖方式：0 先到先得，1 预约抽签' AFTER `per_user_limit`,
+  ADD COLUMN `draw_status` tinyint(1) NOT NULL DEFAULT 0 COMMENT '抽签状态：0 未开奖，1 已开奖' AFTER `sale_mode`,
+  ADD INDEX `idx_sale_mode_draw`(`sale_mode`, `draw_status`, `end_time`) USING BTREE;
@@ -0,0 +1,28 @@
+-- 延迟队列领取：把即将到期的任务从待执行 zset 移到执行中 zset（带租约），多节点不会重复领取
+-- KEYS[1] = 待执行 zset（score = 到期时间）
+-- KEYS[2] = 执行中 zset（score = 租约到期时间）
+-- ARGV[1] = 领取范围：到期时间 <= now + horizon（毫秒）
+-- ARGV[2] = 每次最多领取条数
+-- ARGV[3] = 租约时长（毫秒），从任务到期时间算起
+-- 返回 {member1, deadline1, member2, deadline2, ...}
+
+local t = redis.call('time')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+local limit = tonumber(ARGV[2])
+local lease = tonumber(ARGV[3])
+
+-- 1) 租约过期（领取的节点挂了）的任务放回待执行队列，立即可被重新领取
+local expired = redis.call('zrangebyscore', KEYS[2], '-inf', now, 'LIMIT', 0, limit)
+for _, member in ipairs(expired) do
+    redis.call('zrem', KEYS[2], member)
+    redis.call('zadd', KEYS[1], now, member)
+end
+
+-- 2) 领取即将到期的任务
+local items = redis.call('zrangebyscore', KEYS[1], '-inf', now + tonumber(ARGV[1]), 'WITHSCORES', 'LIMIT', 0, limit)
+for i = 1, #items, 2 do
+    local deadline = tonumber(items[i + 1])
+    redis.call('zrem', KEYS[1], items[i])
+    redis.call('zadd', KEYS[2], math.max(deadline, now) + lease, items[i])
+end
+return items
@@ -0,0 +1,93 @@
+-- 内存引擎写日志：一张券的一批已受理订单在一次 EVAL 里写入，key 布局与 seckill.lua 完全一致
+-- 写之前在 Redis 上确认本节点仍持有这张券、库存够扣；任何一项不满足就什么都不写，由引擎作废内存状态后从 Redis 重新加载
+--
+-- KEYS[1] = 内存引擎持有标记 seckill:engine:owner:{voucherId}
+-- KEYS[2..] = 本批用到的其他 key（库存桶、已购 hash、位图分段、位图分段号集合、stream、订单状态、延迟队列），ARGV 里按下标引用
+--
+-- ARGV[1] = 本节点标识
+-- ARGV[2] = voucherId
+-- ARGV[3] = 订单状态记录有效期（秒），0 表示不记录
+-- ARGV[4] = 未支付超时截止时间（毫秒时间戳），0 表示不写延迟队列
+-- ARGV[5] = 位图分段号集合的 key 下标（0 表示不写位图）
+-- ARGV[6] = 扣库存的桶数 s，接着 s 对（库存 key 下标, 扣减件数）
+-- 接着    = 已购 hash 数 h，接着 h 对（hash key 下标, _total 增量）
+-- 接着    = 本批写到的位图分段数 c，接着 c 个分段号（记入位图分段号集合）
+-- 接着    = 每单 9 个：orderId, userId, buySeq, 位图 key 下标（0 不写位图）, 位偏移, 已购 hash key 下标（0 不写 hash）,
+--           stream key 下标, 订单状态 key 下标, 延迟队列 key 下标
+--
+-- 返回：0 已写入；1 券已不归本节点持有；2 Redis 上的库存不够扣（被外部修改过）
+
+if (redis.call('get', KEYS[1]) ~= ARGV[1]) then
+    return 1
+end
+
+local voucherId = ARGV[2]
+local stateTtl = tonumber(ARGV[3])
+local unpaidDeadline = tonumber(ARGV[4])
+local chunkSetIndex = tonumber(ARGV[5])
+
+local a = 6
+local stocks = {}
+for i = 1, tonumber(ARGV[a]) do
+    stocks[i] = { KEYS[tonumber(ARGV[a + 2 * i - 1])], tonumber(ARGV[a + 2 * i]) }
+end
+a = a + 1 + 2 * #stocks
+local totals = {}
+for i = 1, tonumber(ARGV[a]) do
+    totals[i] = { KEYS[tonumber(ARGV[a + 2 * i - 1])], tonumber(ARGV[a + 2 * i]) }
+end
+a = a + 1 + 2 * #totals
+local chunks = {}
+for i = 1, tonumber(ARGV[a]) do
+    chunks[i] = ARGV[a + i]
+end
+a = a + 1 + #chunks
+
+-- 1) 先全部检查：任何一个桶不够扣（库存未预热 / 被外部改小）就整批不写
+for _, stock in ipairs(stocks) do
+    if ((tonumber(redis.call('get', stock[1])) or 0) < stock[2]) then
+        return 2
+    end
+end
+
+-- 2) 扣库存、订单总数、位图分段号
+for _, stock in ipairs(stocks) do
+    redis.call('decrby', stock[1], stock[2])
+end
+for _, total in ipairs(totals) do
+    redis.call('hincrby', total[1], '_total', total[2])
+end
+if (chunkSetIndex > 0 and #chunks > 0) then
+    redis.call('sadd', KEYS[chunkSetIndex], unpack(chunks))
+end
+
+-- 3) 逐单：已购记录、stream、订单状态、未支付延迟队列
+for i = a, #ARGV, 9 do
+    local orderId = ARGV[i]
+    local userId = ARGV[i + 1]
+    local buySeq = ARGV[i + 2]
+    local bitIndex = tonumber(ARGV[i + 3])
+    local hashIndex = tonumber(ARGV[i + 5])
+    if (bitIndex > 0) then
+        redis.call('setbit', KEYS[bitIndex], ARGV[i + 4], 1)
+    end
+    if (hashIndex > 0) then
+        redis.call('hset', KEYS[hashIndex], userId, buySeq)
+    end
+    redis.call('xadd', KEYS[tonumber(ARGV[i + 6])], '*',
+            'id', orderId,
+            'userId', userId,
+            'voucherId', voucherId,
+            'buySeq', buySeq
+    )
+    if (stateTtl > 0) then
+        local stateKey = KEYS[tonumber(ARGV[i + 7])]
+        redis.call('hset', stateKey, 'state', 'ACCEPTED', 'userId', userId, 'voucherId', voucherId, 'buySeq', buySeq)
+        redis.call('expire', stateKey, stateTtl)
+    end
+    if (unpaidDeadline > 0) then
+        redis.call('zadd', KEYS[tonumber(ARGV[i + 8])], unpaidDeadline, orderId)
+    end
+end
+
+return 0
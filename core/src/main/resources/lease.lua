@@ -0,0 +1,21 @@
+-- 租约续期/释放（持有者校验）
+-- KEYS[1] = 租约key
+-- ARGV[1] = 持有者标识
+-- ARGV[2] = 操作：renew / release
+-- ARGV[3] = 续期时长（毫秒，renew 时使用）
+
+local key = KEYS[1]
+local owner = ARGV[1]
+local op = ARGV[2]
+
+-- 不是自己持有（已过期或被别人抢走）
+if (redis.call('get', key) ~= owner) then
+    return 0
+end
+
+if (op == 'renew') then
+    redis.call('pexpire', key, ARGV[3])
+else
+    redis.call('del', key)
+end
+return 1
@@ -0,0 +1,39 @@
+-- 预约抽签登记：一次 SETBIT，重复登记幂等
+-- 登记位图按 userId 分段，规则与已购位图相同：seckill:lottery:reg:{voucherId}:{userId >> 16}，位偏移 userId & (2^16 - 1)（每段最多 8KB）
+-- 出现过的段号记在 seckill:lottery:chunks:{voucherId}，开奖时只读这些段
+--
+-- 段号和位偏移由调用方（SeckillLottery）按 SeckillStockManager.bitmapChunk / bitmapOffset 算好，所有 key 经 KEYS 传入，脚本里不拼 key
+--
+-- KEYS[1] = 券元信息 seckill:meta:{voucherId}
+-- KEYS[2] = 用户所在段的登记位图 seckill:lottery:reg:{voucherId}:{chunk}
+-- KEYS[3] = 段号集合 seckill:lottery:chunks:{voucherId}
+-- ARGV[1] = 段号 chunk
+-- ARGV[2] = 段内位偏移
+--
+-- 返回：0 登记成功；1 不是抽签券 / 未预热；2 已经登记过；3 登记未开始；4 登记已截止
+
+local metaKey = KEYS[1]
+
+local meta = redis.call('hmget', metaKey, 'mode', 'begin', 'end')
+if (meta[1] ~= 'lottery') then
+    return 1
+end
+local beginAt = tonumber(meta[2])
+local endAt = tonumber(meta[3])
+if (beginAt ~= nil or endAt ~= nil) then
+    local now = redis.call('time')
+    local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+    if (beginAt ~= nil and nowMillis < beginAt) then
+        return 3
+    end
+    if (endAt ~= nil and nowMillis > endAt) then
+        return 4
+    end
+end
+
+if (redis.call('setbit', KEYS[2], ARGV[2], 1) == 1) then
+    return 2
+end
+redis.call('sadd', KEYS[3], ARGV[1])
+redis.call('hincrby', metaKey, 'registered', 1)
+return 0
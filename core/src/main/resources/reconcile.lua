@@ -0,0 +1,74 @@
+-- 对账快照（原子读取，与 seckill.lua 不会交错）+ 可选修正 Redis 库存
+-- KEYS[1..K]    = 库存 key（分桶）
+-- KEYS[K+1..2K] = 已购计数 hash key（分桶），_total 字段为该分片订单数
+-- KEYS[2K+1]    = 券元信息 seckill:meta:{voucherId}
+-- KEYS[2K+2]    = 持有租约的节点集合 seckill:lease:{voucherId}
+-- KEYS[2K+3..]  = 各节点的租约 seckill:lease:{voucherId}:{node}，与 ARGV[6..] 一一对应
+-- ARGV[1] = 分桶数 K
+-- ARGV[2] = 数据库已落库订单数（Redis 已受理数扣掉死信订单后与之相等才允许修正，说明没有在途订单）
+-- ARGV[3] = 数据库剩余库存（修正目标）
+-- ARGV[4] = 是否修正 1/0
+-- ARGV[5] = 最近一次超时取消后多久之内不修正（毫秒）：取消时数据库和 Redis 的库存归还不是同时完成的
+-- ARGV[6..] = 持有租约的节点标识（统计各节点租约里还没卖掉的库存）
+-- 返回 {Redis剩余库存（含租约）, Redis已受理数, 是否修正, 死信订单数}
+-- 所有 key 经 KEYS 传入；节点集合在调用方读取后变了（有节点新租）时什么都不做，返回 {-1}，调用方重读后再调
+
+local k = tonumber(ARGV[1])
+local expectedAccepted = tonumber(ARGV[2])
+local target = tonumber(ARGV[3])
+
+local leaseIndex = KEYS[2 * k + 2]
+local leaseKeys = {}
+for i = 6, #ARGV do
+    leaseKeys[ARGV[i]] = KEYS[2 * k + i - 3]
+end
+local holders = redis.call('smembers', leaseIndex)
+for _, node in ipairs(holders) do
+    if leaseKeys[node] == nil then
+        return {-1}
+    end
+end
+
+local stock = 0
+for i = 1, k do
+    stock = stock + (tonumber(redis.call('get', KEYS[i])) or 0)
+end
+-- 节点租到的库存（含已到期、还没回收的）仍属于 Redis 剩余库存
+local leased = false
+for _, node in ipairs(holders) do
+    stock = stock + (tonumber(redis.call('hget', leaseKeys[node], 'units')) or 0)
+    leased = true
+end
+local accepted = 0
+for i = 1, k do
+    accepted = accepted + (tonumber(redis.call('hget', KEYS[k + i], '_total')) or 0)
+end
+-- 进了死信队列的订单：Redis 已受理、库存已扣，但永远不会落库
+local meta = redis.call('hmget', KEYS[2 * k + 1], 'cancelAt', 'abandoned')
+local abandoned = tonumber(meta[2]) or 0
+
+-- 有节点持有租约时不修正：修正只会改中心库存，租约里的件数仍会卖出
+if ARGV[4] ~= '1' or leased or accepted - abandoned ~= expectedAccepted or stock == target or target < 0 then
+    return {stock, accepted, 0, abandoned}
+end
+
+local cancelAt = tonumber(meta[1])
+if cancelAt ~= nil then
+    local t = redis.call('time')
+    local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+    if now - cancelAt < tonumber(ARGV[5]) then
+        return {stock, accepted, 0, abandoned}
+    end
+end
+
+-- 按桶均分（余数分给前几个桶），规则与 SeckillStockManager 一致
+local base = math.floor(target / k)
+local remainder = target % k
+for i = 1, k do
+    local v = base
+    if i <= remainder then
+        v = v + 1
+    end
+    redis.call('set', KEYS[i], v)
+end
+return {target, accepted, 1, abandoned}
@@ -1,44 +1,137 @@
--- 入参
+-- 单次下单判定：所有 key 都由调用方（SeckillStockManager.seckillKeys）算好经 KEYS 传入，脚本里不拼 key
+-- 分桶由 Java 选：先传用户所在的桶，返回 1（这个桶空了）时调用方换下一个桶再调一次
+-- 券的元信息（分桶数 / 时间窗口 / 限购数 / 已购记录方式）由调用方从本地缓存传入，不再每单 HMGET seckill:meta
+--
+-- KEYS[1] = 内存引擎持有标记 seckill:engine:owner:{voucherId}
+-- KEYS[2] = 扣减的库存：seckill:stock:{voucherId}[:{b}]；租约模式（ARGV[10] = 1）为本节点租约 seckill:lease:{voucherId}:{node}
+-- KEYS[3] = 已购计数 hash：seckill:buyers:{voucherId}[:{userId % K}]
+-- KEYS[4] = 已购位图分段：seckill:buyers:bm:{voucherId}:{分段号}（分段规则见 SeckillStockManager.bitmapKey）
+-- KEYS[5] = 订单 stream：stream.orders[:p]
+-- KEYS[6] = 订单状态记录 seckill:order:state:{orderId}
+-- KEYS[7] = 未支付延迟队列
+-- KEYS[8] = 这张券用到的位图分段号集合 seckill:buyers:bmchunks:{voucherId}（内存引擎加载时按它读分段，不再 SCAN）
+--
 -- ARGV[1] = voucherId
 -- ARGV[2] = userId
 -- ARGV[3] = orderId
+-- ARGV[4] = 秒杀开始时间（毫秒时间戳，空为不限）
+-- ARGV[5] = 秒杀结束时间（毫秒时间戳，空为不限）
+-- ARGV[6] = 每人限购数
+-- ARGV[7] = 已购记录方式：hash / bitmap / migrating（只决定写哪边，读总是两边都查）
+-- ARGV[8] = 订单状态记录有效期（秒），0 表示不记录
+-- ARGV[9] = 未支付超时时间（毫秒），0 表示不自动取消
+-- ARGV[10] = 1 表示 KEYS[2] 是本节点的库存租约
+-- ARGV[11] = 用户在位图分段 KEYS[4] 里的位偏移
+-- ARGV[12] = 位图分段号（写位图时记入 KEYS[8]）
+-- ARGV[13] = 1 表示只校验不写，通过时返回 0（多券下单 all 模式先全部校验；单次调用不传）
+--
+-- 返回：100 + buySeq 成功（buySeq 为该用户在这张券上的第几单，调用方用 SeckillStockManager.resultCode / buySeq 拆开）；
+--       ARGV[13] = 1 只校验时通过返回 0；1 库存不足 / 未预热（分桶时只表示这个桶）；2 达到限购数；3 未开始；4 已结束；5 券被内存引擎持有；6 租约已用完 / 已到期
 
 local voucherId = ARGV[1]
 local userId = ARGV[2]
 local orderId = ARGV[3]
+local beginAt = tonumber(ARGV[4])
+local endAt = tonumber(ARGV[5])
+local quota = tonumber(ARGV[6]) or 1
+local dedup = ARGV[7]
+local stateTtl = tonumber(ARGV[8]) or 0
+local unpaidTimeout = tonumber(ARGV[9]) or 0
+local leased = ARGV[10] == '1'
 
-local stockKey = 'seckill:stock:' .. voucherId
-local orderKey = 'seckill:order:' .. voucherId
-local streamKey = 'stream.orders'
+local stockKey = KEYS[2]
+local buyersKey = KEYS[3]
+local bitKey = KEYS[4]
+local bitOffset = tonumber(ARGV[11])
 
--- 1) 取库存（要兜底 nil）
-local stock = tonumber(redis.call('get', stockKey))
-if (stock == nil) then
-    -- 未预热 / key不存在
-    return 1
+-- 券已被某个节点的内存引擎持有（租约未过期）：返回 5，由调用方转发给持有节点，避免两边同时扣库存
+if (redis.call('exists', KEYS[1]) == 1) then
+    return 5
 end
 
--- 2) 库存不足
-if (stock <= 0) then
-    return 1
+-- 0) 时间窗口：未开始返回 3，已结束返回 4（不查库）
+local nowMillis = nil
+local function currentMillis()
+    if (nowMillis == nil) then
+        local now = redis.call('time')
+        nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+    end
+    return nowMillis
+end
+if (beginAt ~= nil or endAt ~= nil) then
+    currentMillis()
+    if (beginAt ~= nil and nowMillis < beginAt) then
+        return 3
+    end
+    if (endAt ~= nil and nowMillis > endAt) then
+        return 4
+    end
 end
 
--- 3) 是否重复下单
-if (redis.call('sismember', orderKey, userId) == 1) then
+-- 1) 取库存（要兜底 nil）
+if (leased) then
+    -- 租约模式：租约已用完 / 已到期（可能已被其他节点回收）返回 6，由调用方重新租
+    -- 到期判断和 stock_lease.lua 的回收用同一个 Redis 时间，回收之后不会再从这份租约里卖出
+    local lease = redis.call('hmget', stockKey, 'units', 'deadline')
+    local units = tonumber(lease[1])
+    local deadline = tonumber(lease[2])
+    if (units == nil or units <= 0 or deadline == nil or deadline < currentMillis()) then
+        return 6
+    end
+else
+    local stock = tonumber(redis.call('get', stockKey))
+    if (stock == nil or stock <= 0) then
+        -- 未预热 / 库存不足（分桶时由调用方换下一个桶）
+        return 1
+    end
+end
+
+-- 2) 是否达到限购数：位图和 hash 都查（节点缓存的记录方式可能落后一个有效期，两边都查不会漏判）
+local bought = math.max(redis.call('getbit', bitKey, bitOffset),
+        tonumber(redis.call('hget', buyersKey, userId)) or 0)
+if (bought >= quota) then
     return 2
 end
+if (ARGV[13] == '1') then
+    return 0
+end
 
--- 4) 扣库存
-redis.call('decr', stockKey)
+-- 3) 扣库存
+if (leased) then
+    redis.call('hincrby', stockKey, 'units', -1)
+else
+    redis.call('decr', stockKey)
+end
 
--- 5) 记录已下单用户
-redis.call('sadd', orderKey, userId)
+-- 4) 记录已购：buySeq 为该用户的第几单（落库时用于去重）；_total 记该分片订单总数，供对账使用
+-- 位图只能表示"买过"，限购数大于 1 时件数仍记在 hash 里
+local buySeq = bought + 1
+if (dedup == 'bitmap' or dedup == 'migrating') then
+    redis.call('setbit', bitKey, bitOffset, 1)
+    redis.call('sadd', KEYS[8], ARGV[12])
+end
+if (dedup ~= 'bitmap' and dedup ~= 'migrating') or quota > 1 then
+    redis.call('hset', buyersKey, userId, buySeq)
+end
+redis.call('hincrby', buyersKey, '_total', 1)
 
--- 6) ★ 写入 Redis Stream（这是你现在最缺的）
-redis.call('xadd', streamKey, '*',
+-- 5) ★ 写入 Redis Stream（这是你现在最缺的）
+redis.call('xadd', KEYS[5], '*',
         'id', orderId,
         'userId', userId,
-        'voucherId', voucherId
+        'voucherId', voucherId,
+        'buySeq', buySeq
 )
 
-return 0
+-- 6) 订单状态记录：ACCEPTED，消费端落库后改为 PERSISTED / FAILED
+if (stateTtl > 0) then
+    redis.call('hset', KEYS[6], 'state', 'ACCEPTED', 'userId', userId, 'voucherId', voucherId, 'buySeq', buySeq)
+    redis.call('expire', KEYS[6], stateTtl)
+end
+
+-- 7) 未支付超时取消：和下单原子写入延迟队列，不会漏掉任何订单
+if (unpaidTimeout > 0) then
+    redis.call('zadd', KEYS[7], currentMillis() + unpaidTimeout, orderId)
+end
+
+return 100 + buySeq
@@ -0,0 +1,88 @@
+-- 一次下单多张券：同一个用户、多个 voucherId，在一次 EVAL 里完成校验、扣库存、写 stream
+-- 每张券执行的就是 seckill.lua 原文（加载时替换下面的占位行，同 seckill_micro_batch.lua），判定规则和返回码与单券完全相同
+-- key 由调用方按 SeckillStockManager.seckillKeys 生成：分桶的券传多组候选 key（用户所在的桶在前），返回 1 时换下一组
+--
+-- 入参
+-- ARGV[1] = 模式：all = 全部成功才扣（任一张失败则都不扣），best = 能抢几张抢几张
+-- ARGV[2] = 每组 key 个数 n（seckill.lua 的 KEYS）
+-- ARGV[3] = 每张券的参数个数 m（seckill.lua 的 ARGV）
+-- ARGV[4..] = 每张券 1 + m 个：候选 key 组数 c，然后是该券 seckill.lua 的 ARGV（voucherId 不能重复，由调用方去重）
+-- KEYS    = 每张券 c * n 个，按券的顺序依次拼接
+--
+-- 返回：与券顺序一致的结果码列表（与 seckill.lua 相同，受理为 100 + buySeq）
+-- all 模式下只要有一张非 0，其余通过校验的券记为 7（未执行）；某张券执行出错记为 -2，不影响其他券
+
+local function seckill(KEYS, ARGV)
+--@SECKILL_BODY@
+end
+
+local allOrNothing = (ARGV[1] == 'all')
+local keyCount = tonumber(ARGV[2])
+local argCount = tonumber(ARGV[3])
+
+local vouchers = {}
+local k = 0
+local a = 4
+while (a <= #ARGV) do
+    local keySets = {}
+    for s = 1, tonumber(ARGV[a]) do
+        local keys = {}
+        for j = 1, keyCount do
+            keys[j] = KEYS[k + j]
+        end
+        k = k + keyCount
+        keySets[s] = keys
+    end
+    local args = {}
+    for j = 1, argCount do
+        args[j] = ARGV[a + j]
+    end
+    a = a + 1 + argCount
+    vouchers[#vouchers + 1] = { keySets = keySets, args = args }
+end
+
+-- 执行一张券：依次尝试候选 key 组，返回 1 表示这个桶空了，换下一组
+-- checkOnly 时 seckill.lua 只校验不写（ARGV[13] = 1）
+local function run(voucher, checkOnly)
+    voucher.args[13] = checkOnly and '1' or '0'
+    local code = 1
+    for _, keys in ipairs(voucher.keySets) do
+        local ok, r = pcall(seckill, keys, voucher.args)
+        if (not ok) then
+            redis.log(redis.LOG_WARNING, 'seckill batch: orderId=' .. voucher.args[3] .. ' failed: ' .. tostring(r))
+            return -2
+        end
+        code = r
+        if (code ~= 1) then
+            return code
+        end
+    end
+    return code
+end
+
+local codes = {}
+if (allOrNothing) then
+    -- 先全部只校验（不写），全部通过再逐张执行；券不重复，校验结果不会互相影响
+    local failed = false
+    for i, voucher in ipairs(vouchers) do
+        codes[i] = run(voucher, true)
+        if (codes[i] ~= 0) then
+            failed = true
+        end
+    end
+    for i, voucher in ipairs(vouchers) do
+        if (failed) then
+            if (codes[i] == 0) then
+                codes[i] = 7
+            end
+        else
+            codes[i] = run(voucher, false)
+        end
+    end
+else
+    for i, voucher in ipairs(vouchers) do
+        codes[i] = run(voucher, false)
+    end
+end
+
+return codes
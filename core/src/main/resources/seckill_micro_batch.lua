@@ -0,0 +1,36 @@
+-- 微批执行：把多个并发的秒杀请求合成一次 EVAL，按顺序逐个判定
+-- 每个请求执行的就是 seckill.lua 原文（加载时替换下面的占位行），包成函数后 KEYS / ARGV 是函数参数，返回码与单次执行完全相同
+--
+-- 入参
+-- ARGV[1] = 每个请求的 key 个数 n
+-- ARGV[2] = 每个请求的参数个数 m
+-- KEYS    = 各请求 seckill.lua 的 KEYS 依次拼接，每 n 个一组
+-- ARGV[3..] = 各请求 seckill.lua 的 ARGV 依次拼接，每 m 个一组
+--
+-- 返回：与请求顺序一致的返回码列表（与 seckill.lua 相同，受理为 100 + buySeq）；某个请求执行出错时该位置为 -2，不影响前后请求
+--（Redis 脚本不回滚：出错之前已执行的命令仍然生效，前面的请求已经提交，所以不能让整批报错）
+
+local function seckill(KEYS, ARGV)
+--@SECKILL_BODY@
+end
+
+local keyCount = tonumber(ARGV[1])
+local argCount = tonumber(ARGV[2])
+local results = {}
+for i = 0, (#ARGV - 2) / argCount - 1 do
+    local keys = {}
+    for j = 1, keyCount do
+        keys[j] = KEYS[i * keyCount + j]
+    end
+    local args = {}
+    for j = 1, argCount do
+        args[j] = ARGV[2 + i * argCount + j]
+    end
+    local ok, code = pcall(seckill, keys, args)
+    if (not ok) then
+        redis.log(redis.LOG_WARNING, 'seckill micro batch: orderId=' .. args[3] .. ' failed: ' .. tostring(code))
+        code = -2
+    end
+    results[#results + 1] = code
+end
+return results
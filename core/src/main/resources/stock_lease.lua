@@ -0,0 +1,121 @@
+-- 库存租约：节点从中心库存一次租一段，在本地计数售卖，卖的时候 seckill.lua 从本节点的租约里扣
+-- seckill:lease:{voucherId}          set，持有租约的节点
+-- seckill:lease:{voucherId}:{node}   hash，units = 还没卖掉的件数，deadline = 到期时间（毫秒，Redis 时间）
+-- 到期的租约由任意节点在租 / 续约时回收：剩余件数原子地还回中心库存，之后 seckill.lua 对该租约返回 6，不会超卖
+-- 所有 key 都由调用方（SeckillStockLeaser）算好经 KEYS 传入，脚本里不拼 key：
+-- 其他节点的租约 key 由调用方先 SMEMBERS 持有节点集合得到；脚本执行时集合里有没传入的节点（期间有节点新租）
+-- 或分桶数与传入的桶数不一致时什么都不做，返回 {-1}，调用方重新读取后再调
+--
+-- KEYS[1]        = 持有节点集合 seckill:lease:{voucherId}
+-- KEYS[2]        = 券元信息 seckill:meta:{voucherId}（校验分桶数）
+-- KEYS[3]        = 本节点租约 seckill:lease:{voucherId}:{node}
+-- KEYS[4..3+K]   = 库存桶 seckill:stock:{voucherId}[:{b}]，按桶号顺序
+-- KEYS[4+K..]    = 其他节点的租约，与 ARGV[6..] 的节点标识一一对应
+--
+-- ARGV[1] = 节点标识
+-- ARGV[2] = 操作：acquire = 续约并把本节点租约补足到 want 件；renew = 只续约；release = 归还全部剩余件数
+-- ARGV[3] = want（acquire 时使用）
+-- ARGV[4] = 租约时长（毫秒）
+-- ARGV[5] = 分桶数 K
+-- ARGV[6..] = 其他持有节点的标识
+--
+-- 返回 {本次租到 / 归还的件数, 本节点租约剩余件数（租约已不存在为 -1）, 其他节点租约剩余件数合计}；传入的 key 已过时返回 {-1}
+
+local node = ARGV[1]
+local op = ARGV[2]
+local want = tonumber(ARGV[3]) or 0
+local ttl = tonumber(ARGV[4]) or 0
+local buckets = tonumber(ARGV[5])
+
+local indexKey = KEYS[1]
+local leaseKey = KEYS[3]
+if ((tonumber(redis.call('hget', KEYS[2], 'buckets')) or 1) ~= buckets) then
+    return {-1}
+end
+local leaseKeys = {}
+leaseKeys[node] = leaseKey
+for i = 6, #ARGV do
+    leaseKeys[ARGV[i]] = KEYS[3 + buckets + i - 5]
+end
+local holders = redis.call('smembers', indexKey)
+for _, holder in ipairs(holders) do
+    if (leaseKeys[holder] == nil) then
+        return {-1}
+    end
+end
+
+local now = redis.call('time')
+local nowMillis = tonumber(now[1]) * 1000 + math.floor(tonumber(now[2]) / 1000)
+
+local function stockKey(b)
+    return KEYS[4 + b]
+end
+
+-- 1) 回收到期的租约（包括自己的），统计其他节点还持有的件数
+local others = 0
+for _, holder in ipairs(holders) do
+    local key = leaseKeys[holder]
+    local lease = redis.call('hmget', key, 'units', 'deadline')
+    local units = tonumber(lease[1]) or 0
+    local deadline = tonumber(lease[2]) or 0
+    if (deadline < nowMillis) then
+        if (units > 0) then
+            redis.call('incrby', stockKey(0), units)
+        end
+        redis.call('del', key)
+        redis.call('srem', indexKey, holder)
+    elseif (holder ~= node) then
+        others = others + units
+    end
+end
+
+local held = tonumber(redis.call('hget', leaseKey, 'units'))
+
+-- 2) 归还
+if (op == 'release') then
+    if (held == nil) then
+        return {0, -1, others}
+    end
+    if (held > 0) then
+        redis.call('incrby', stockKey(0), held)
+    end
+    redis.call('del', leaseKey)
+    redis.call('srem', indexKey, node)
+    return {held, 0, others}
+end
+
+-- 3) 续约：租约已被回收则返回 -1，由节点清空本地计数后重新租
+if (op == 'renew') then
+    if (held == nil) then
+        return {0, -1, others}
+    end
+    redis.call('hset', leaseKey, 'deadline', nowMillis + ttl)
+    return {0, held, others}
+end
+
+-- 4) 再租：补足到 want 件，从各个桶依次扣（节点本地计数丢失后重复 acquire 也不会多占）
+held = held or 0
+local need = want - held
+local taken = 0
+for b = 0, buckets - 1 do
+    if (taken >= need) then
+        break
+    end
+    local key = stockKey(b)
+    local stock = tonumber(redis.call('get', key)) or 0
+    if (stock > 0) then
+        local n = math.min(stock, need - taken)
+        redis.call('decrby', key, n)
+        taken = taken + n
+    end
+end
+held = held + taken
+if (held > 0) then
+    redis.call('hset', leaseKey, 'units', held, 'deadline', nowMillis + ttl)
+    redis.call('sadd', indexKey, node)
+elseif (redis.call('exists', leaseKey) == 1) then
+    -- 租约用完且没有库存可租：删掉，不再占着索引
+    redis.call('del', leaseKey)
+    redis.call('srem', indexKey, node)
+end
+return {taken, held, others}
@@ -0,0 +1,6 @@
+-- 按最小ID裁剪已归档的 stream 消息
+-- KEYS[1] = stream key
+-- ARGV[1] = 最小保留ID（小于该ID的消息全部删除）
+-- 返回被删除的条数
+
+return redis.call('xtrim', KEYS[1], 'MINID', ARGV[1])
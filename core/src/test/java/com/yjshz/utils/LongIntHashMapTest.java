@@ -0,0 +1,58 @@
+package com.yjshz.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIntHashMapTest {
+
+    @Test
+    void missingKeyReadsZero() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        assertEquals(0, map.get(42L));
+        assertEquals(0, map.get(0L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void incrementReturnsNewValue() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        assertEquals(1, map.increment(7L, 1));
+        assertEquals(3, map.increment(7L, 2));
+        assertEquals(2, map.increment(7L, -1));
+        assertEquals(2, map.get(7L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void zeroAndNegativeKeysAreStored() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        map.increment(0L, 5);
+        map.increment(-1L, 2);
+        map.increment(Long.MIN_VALUE, 1);
+        assertEquals(5, map.get(0L));
+        assertEquals(2, map.get(-1L));
+        assertEquals(1, map.get(Long.MIN_VALUE));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void matchesHashMapAcrossResizes() {
+        LongIntHashMap map = new LongIntHashMap(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(20240101L);
+        for (int i = 0; i < 200_000; i++) {
+            // 一半是连续的 userId，一半是随机的大数，覆盖线性探测冲突和扩容
+            long key = i % 2 == 0 ? random.nextInt(50_000) : random.nextLong();
+            int delta = random.nextInt(3) + 1;
+            int value = expected.merge(key, delta, Integer::sum);
+            assertEquals(value, map.increment(key, delta));
+        }
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals(value.intValue(), map.get(key)));
+    }
+}
@@ -0,0 +1,99 @@
+package com.yjshz.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new MpscRingBuffer<Integer>(0).capacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(5).capacity());
+        assertEquals(16, new MpscRingBuffer<Integer>(16).capacity());
+    }
+
+    @Test
+    void offerFailsWhenFullAndSucceedsAfterDrain() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(1, ring.drain(out::add, 1));
+        assertTrue(ring.offer(4));
+        assertEquals(4, ring.drain(out::add, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), out);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void drainRespectsLimitAndWrapsAround() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        List<Integer> out = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            assertTrue(ring.offer(round * 2));
+            assertTrue(ring.offer(round * 2 + 1));
+            assertEquals(1, ring.drain(out::add, 1));
+            assertEquals(1, ring.drain(out::add, 1));
+        }
+        assertEquals(0, ring.drain(out::add, 10));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, out.get(i).intValue());
+        }
+    }
+
+    @Test
+    void concurrentProducersLoseNothingAndKeepPerProducerOrder() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        MpscRingBuffer<long[]> ring = new MpscRingBuffer<>(1024);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    long[] e = {producer, i};
+                    while (!ring.offer(e)) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+        start.countDown();
+
+        // 单个消费线程（当前线程）：每个生产者的元素都按写入顺序出现，且一个不少
+        long[] next = new long[producers];
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        int received = 0;
+        while (received < producers * perProducer && System.currentTimeMillis() < deadline) {
+            received += ring.drain(e -> {
+                assertEquals(next[(int) e[0]], e[1]);
+                next[(int) e[0]]++;
+            }, 256);
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(producers * perProducer, received);
+        for (long n : next) {
+            assertEquals(perProducer, n);
+        }
+        assertTrue(ring.isEmpty());
+    }
+}
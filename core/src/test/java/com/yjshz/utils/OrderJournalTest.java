@@ -0,0 +1,39 @@
+package com.yjshz.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderJournalTest {
+
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    File dir;
+
+    @Test
+    void recoversIntentAndOutcomeRecordsInOrder() throws Exception {
+        OrderJournal journal = new OrderJournal(dir, 4096, 64, 8, RETENTION);
+        assertTrue(journal.appendAndWait(1L, 10L, 100L, 0, OrderJournal.INTENT, 1000));
+        assertTrue(journal.appendAndWait(1L, 10L, 100L, 2, OrderJournal.ACCEPTED, 1000));
+        assertTrue(journal.appendAndWait(2L, 11L, 100L, 0, OrderJournal.REJECTED, 1000));
+        journal.close();
+
+        OrderJournal reopened = new OrderJournal(dir, 4096, 64, 8, RETENTION);
+        List<OrderJournal.Entry> entries = reopened.recover();
+        reopened.close();
+
+        assertEquals(3, entries.size());
+        assertEquals(OrderJournal.INTENT, entries.get(0).kind);
+        assertEquals(1L, entries.get(1).orderId);
+        assertEquals(2, entries.get(1).buySeq);
+        assertEquals(OrderJournal.ACCEPTED, entries.get(1).kind);
+        assertEquals(OrderJournal.REJECTED, entries.get(2).kind);
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.yjshz.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeckillStockManagerTest {
+
+    @Test
+    void bitmapChunkLayout() {
+        assertEquals(0, SeckillStockManager.bitmapChunk(65535));
+        assertEquals(1, SeckillStockManager.bitmapChunk(65536));
+        assertEquals(0, SeckillStockManager.bitmapOffset(65536));
+        assertEquals(65536, SeckillStockManager.bitmapChunkBase(1));
+        assertEquals(8192, SeckillStockManager.BITMAP_CHUNK_BYTES);
+    }
+
+    @Test
+    void consecutiveUsersAreDense() {
+        List<Long> userIds = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            userIds.add(id);
+        }
+        assertTrue(SeckillStockManager.bitmapDense(userIds, 128));
+    }
+
+    @Test
+    void scatteredUsersStayOnHash() {
+        List<Long> userIds = new ArrayList<>();
+        for (long i = 0; i < 1000; i++) {
+            // 每个用户落在不同的分段
+            userIds.add(i << SeckillStockManager.BITMAP_CHUNK_SHIFT);
+        }
+        assertFalse(SeckillStockManager.bitmapDense(userIds, 128));
+    }
+
+    @Test
+    void noBuyersStayOnHash() {
+        assertFalse(SeckillStockManager.bitmapDense(Collections.emptyList(), 128));
+    }
+}